@@ -49,7 +49,12 @@ set GROOVY_SCRIPT_NAME=gant.bat
 set STARTER_CONF="%GANT_HOME%\conf\gant-starter.conf"
 set JAVA_OPTS="%JAVA_OPTS%" -Dgant.home="%GANT_HOME%" -Dant.home="%ANT_HOME%"
 
-"%GANT_HOME%\bin\startGroovy.bat" "%DIRNAME%" gant.Gant %*
+@rem  The daemon client is run directly so that a run using the daemon does not load Gant in this process.
+set GANT_MAIN_CLASS=gant.Gant
+for %%A in ( %* ) do if "%%~A" == "--daemon" set GANT_MAIN_CLASS=org.codehaus.gant.daemon.GantClient
+for %%A in ( %* ) do if "%%~A" == "--stop-daemon" set GANT_MAIN_CLASS=org.codehaus.gant.daemon.GantClient
+
+"%GANT_HOME%\bin\startGroovy.bat" "%DIRNAME%" %GANT_MAIN_CLASS% %*
 
 @rem End local scope for the variables with windows NT shell
 if "%OS%" == "Windows_NT" endlocal
@@ -0,0 +1,59 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.codehaus.gant.GantBinding;
+import org.codehaus.gant.GantBuilder;
+
+/**
+ *  Benchmark of the lookups and updates of the <code>GantBinding</code>: a script variable, a name that
+ *  falls through to an Ant property, a target closure, and the setting of a variable, which checks the
+ *  read-only names.
+ *
+ *  @author Russel Winder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class BindingBenchmark {
+  private GantBinding binding;
+  private long counter = 0L;
+  @Setup(Level.Trial) public void prepare() {
+    binding = new GantBinding();
+    Scripts.prepare("target(compile: '') { }\nsourceDirectory = 'src'\n", binding);
+    ((GantBuilder) binding.getVariable("ant")).getProject().setProperty("benchmark.property", "value");
+  }
+  @Benchmark public Object getVariable() { return binding.getVariable("sourceDirectory"); }
+  @Benchmark public Object getAntProperty() { return binding.getVariable("benchmark.property"); }
+  @Benchmark public Object closureVariable() { return binding.closureVariable("compile"); }
+  @Benchmark public void setVariable() { binding.setVariable("counter", ++counter); }
+}
@@ -0,0 +1,72 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import groovy.lang.GroovyObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.codehaus.gant.GantBinding;
+
+/**
+ *  Benchmark of {@code depends} processing.  Fan-out is a target depending on many independent targets,
+ *  fan-in many targets depending on the same target.  The first execution of the dependencies is
+ *  measured with a new binding for each invocation, the resolution of dependencies already executed, the
+ *  common case in a large build, with the same binding throughout.
+ *
+ *  @author Russel Winder
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DependsBenchmark {
+  private static final Object[] noArguments = new Object[0];
+  @State(Scope.Benchmark)
+  public static class Shape {
+    @Param({"fanOut", "fanIn"}) public String shape;
+    @Param({"10", "100"}) public int width;
+    String script() { return "fanOut".equals(shape) ? Scripts.fanOut(width) : Scripts.fanIn(width); }
+  }
+  @State(Scope.Thread)
+  public static class FreshBuild {
+    GroovyObject script;
+    @Setup(Level.Invocation) public void prepare(final Shape shape) { script = Scripts.prepare(shape.script(), new GantBinding()); }
+  }
+  @State(Scope.Thread)
+  public static class ExecutedBuild {
+    GroovyObject script;
+    @Setup(Level.Trial) public void prepare(final Shape shape) {
+      script = Scripts.prepare(shape.script(), new GantBinding());
+      script.invokeMethod("top", noArguments);
+    }
+  }
+  @Benchmark public Object firstExecution(final FreshBuild build) { return build.script.invokeMethod("top", noArguments); }
+  @Benchmark public Object alreadyExecuted(final ExecutedBuild build) { return build.script.invokeMethod("top", noArguments); }
+}
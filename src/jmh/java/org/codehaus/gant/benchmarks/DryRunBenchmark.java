@@ -0,0 +1,67 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.codehaus.gant.GantBuilder;
+import org.codehaus.gant.GantState;
+
+/**
+ *  Benchmark of the formatting of Ant task invocations by <code>GantBuilder</code> in a dry run, with
+ *  the output discarded.
+ *
+ *  @author Russel Winder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DryRunBenchmark {
+  private GantBuilder builder;
+  private Object[] arguments;
+  @Setup(Level.Trial) public void prepare() {
+    builder = new GantBuilder();
+    builder.setDryRun(true);
+    builder.setVerbosity(GantState.NORMAL);
+    final PrintStream discard = new PrintStream(new OutputStream() { @Override public void write(final int b) { } });
+    builder.getLogger().setOutputPrintStream(discard);
+    builder.getLogger().setErrorPrintStream(discard);
+    final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+    attributes.put("srcdir", "src");
+    attributes.put("destdir", "build/classes");
+    attributes.put("debug", "true");
+    arguments = new Object[] { attributes };
+  }
+  @Benchmark public Object formatTask() { return builder.invokeMethod("javac", arguments); }
+}
@@ -0,0 +1,75 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gant.Gant;
+
+import org.codehaus.gant.GantBinding;
+import org.codehaus.gant.ScriptCache;
+
+/**
+ *  Benchmark of parsing and loading a build script of 50 targets, compiled every time or taken from the
+ *  script cache.
+ *
+ *  @author Russel Winder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ScriptLoadBenchmark {
+  @Param({"false", "true"}) public boolean cached;
+  private File scriptFile;
+  private ScriptCache cache;
+  private GantBinding binding;
+  @Setup(Level.Trial) public void createScript() throws IOException {
+    scriptFile = File.createTempFile("gant-benchmark-", ".gant");
+    Files.write(scriptFile.toPath(), Scripts.independentTargets(50).getBytes(StandardCharsets.UTF_8));
+    cache = new ScriptCache();
+    binding = new GantBinding();
+  }
+  @TearDown(Level.Trial) public void deleteScript() {
+    scriptFile.delete();
+    ScriptCache.clear();
+  }
+  @Benchmark public Object load() {
+    final Gant gant = new Gant(binding);
+    if (cached) { gant.setScriptCache(cache); }
+    gant.loadScript(scriptFile);
+    return gant.getScript();
+  }
+}
@@ -0,0 +1,79 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.benchmarks;
+
+import groovy.lang.GroovyObject;
+
+import gant.Gant;
+
+import org.codehaus.gant.GantBinding;
+import org.codehaus.gant.GantBuilder;
+import org.codehaus.gant.GantMetaClass;
+import org.codehaus.gant.GantState;
+
+/**
+ *  The Gant scripts used by the benchmarks, and the preparation of a script for executing its targets as
+ *  the command line does.
+ *
+ *  @author Russel Winder
+ */
+final class Scripts {
+  private Scripts() { }
+  /**
+   *  @return A script with targets {@code t0} to {@code t<count-1>} with empty bodies.
+   */
+  static String independentTargets(final int count) {
+    final StringBuilder script = new StringBuilder();
+    for (int i = 0; i < count; ++i) { script.append("target(t").append(i).append(": '') { }\n"); }
+    return script.toString();
+  }
+  /**
+   *  @return A script whose target {@code top} depends on {@code count} independent targets.
+   */
+  static String fanOut(final int count) {
+    final StringBuilder script = new StringBuilder(independentTargets(count));
+    script.append("target(top: '') { depends(");
+    for (int i = 0; i < count; ++i) { script.append(i == 0 ? "" : ", ").append('t').append(i); }
+    return script.append(") }\n").toString();
+  }
+  /**
+   *  @return A script whose target {@code top} depends on {@code count} targets that all depend on the
+   *  same target.
+   */
+  static String fanIn(final int count) {
+    final StringBuilder script = new StringBuilder("target(common: '') { }\n");
+    for (int i = 0; i < count; ++i) { script.append("target(t").append(i).append(": '') { depends(common) }\n"); }
+    script.append("target(top: '') { depends(");
+    for (int i = 0; i < count; ++i) { script.append(i == 0 ? "" : ", ").append('t').append(i); }
+    return script.append(") }\n").toString();
+  }
+  /**
+   *  Load a script and execute it to declare its targets, with the Gant metaclass installed and all output
+   *  suppressed.
+   *
+   *  @param text The script.
+   *  @param binding The binding to use.
+   *  @return The script, ready for its targets to be invoked.
+   */
+  static GroovyObject prepare(final String text, final GantBinding binding) {
+    final Gant gant = new Gant(binding);
+    gant.loadScript(text);
+    final GroovyObject script = (GroovyObject) gant.getScript();
+    script.setMetaClass(new GantMetaClass(script.getMetaClass(), binding));
+    gant.prepareTargets();
+    ((GantBuilder) binding.getVariable("ant")).getLogger().setMessageOutputLevel(GantState.SILENT);
+    return script;
+  }
+}
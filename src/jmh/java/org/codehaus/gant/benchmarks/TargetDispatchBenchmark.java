@@ -0,0 +1,70 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import groovy.lang.Closure;
+import groovy.lang.GroovyObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.codehaus.gant.GantBinding;
+
+/**
+ *  Benchmark of invoking a target through the Gant metaclass, as a script does: the lookup of the target
+ *  among the given number declared, the target wrapper and, optionally, global hooks.
+ *
+ *  @author Russel Winder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TargetDispatchBenchmark {
+  @Param({"10", "1000", "10000"}) public int targetCount;
+  @Param({"false", "true"}) public boolean globalHooks;
+  private static final Object[] noArguments = new Object[0];
+  private GroovyObject script;
+  private String[] names;
+  @Setup(Level.Trial) public void prepare() {
+    final GantBinding binding = new GantBinding();
+    script = Scripts.prepare(Scripts.independentTargets(targetCount), binding);
+    if (globalHooks) {
+      final Closure<Object> hook = new Closure<Object>(this) { public Object doCall() { return null; } };
+      binding.setVariable("globalPreHook", hook);
+      binding.setVariable("globalPostHook", hook);
+    }
+    names = new String[targetCount];
+    for (int i = 0; i < targetCount; ++i) { names[i] = "t" + i; }
+  }
+  @Benchmark public Object invokeTarget() {
+    return script.invokeMethod(names[ThreadLocalRandom.current().nextInt(targetCount)], noArguments);
+  }
+}
@@ -21,13 +21,19 @@ import groovy.cli.picocli.CliBuilder
 import org.apache.tools.ant.BuildListener
 import org.apache.tools.ant.Project
 
+import org.codehaus.gant.ExecutionPlan
 import org.codehaus.gant.GantBinding
 import org.codehaus.gant.GantEvent
 import org.codehaus.gant.GantMetaClass
 import org.codehaus.gant.GantState
+import org.codehaus.gant.Profiler
+import org.codehaus.gant.ScriptCache
+import org.codehaus.gant.cache.BuildCache
+import org.codehaus.gant.cache.LocalBuildCache
+import org.codehaus.gant.daemon.GantClient
+import org.codehaus.gant.jfr.FlightRecorderEvents
 
-import org.codehaus.groovy.control.CompilationUnit
-import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.runtime.InvokerHelper
 import org.codehaus.groovy.runtime.InvokerInvocationException
 
 /**
@@ -106,32 +112,6 @@ final class Gant {
    *  The class name to use for a script provided as plain text.
    */
   private final textInputClassName = 'text_input'
-   /**
-    *  Closure encapsulating how to load a cached, pre-compiled Gant script from the cache.
-    *
-    *  @param className The name of the class to be loaded.
-    *  @param lastModified ?
-    *  @param url The  URL of the cache
-    *  @return instance of the class.
-    */
-  private final loadClassFromCache = {className, lastModified, url  ->
-    try {
-      final classUrl = binding.classLoader.getResource("${className}.class")
-      if (classUrl) {
-        if (lastModified > classUrl.openConnection().lastModified) {
-          compileScript(cacheDirectory, url.text, className)
-        }
-      }
-      return binding.classLoader.loadClass(className).newInstance()
-    }
-    catch (Exception e) {
-      // Groovy 2.5 finally (!) does proper final checking, previously "final" was the same as "def".
-      // This particular case causes a problem. cf. https://jira.codehaus.org/browse/GROOVY-7284
-      /*final*/ def fileText = url.text
-      compileScript(cacheDirectory, fileText, className)
-      return binding.groovyShell.parse(fileText, buildClassName)
-    }
-  }
   /**
    *  The name of the class actually used for compiling the script.
    */
@@ -140,14 +120,37 @@ final class Gant {
    *  Determines whether Gant performs a dry-run or does it for real.
    */
   boolean dryRun = false
+  /**
+   *  The verbosity of this run of Gant, one of the levels defined in <code>GantState</code>.  Defaults to
+   *  <code>GantState.verbosity</code>.
+   */
+  Integer verbosity = GantState.verbosity
   /**
    *  Determines whether the scripts are cached or not. Defaults to <code>false</code>.
    */
   boolean useCache = false
+  /**
+   *  The maximum number of threads used to execute independent targets, i.e. the targets named in a single
+   *  <code>depends</code> call.  Defaults to 1, meaning all targets are executed sequentially.
+   */
+  Integer parallelism = 1
+  /**
+   *  The format in which to write the execution plan, <code>null</code> if not planning.  Planning is a
+   *  dry run that records the targets and tasks that would be executed and writes them, with the
+   *  durations measured in previous runs, to <code>ExecutionPlan.defaultLocation</code> in the project
+   *  base directory, where output of the script cannot get mixed in.  Only <code>json</code> is supported.
+   */
+  String planFormat = null
   /**
    *  The location where the compiled scripts are cached. Defaults to "$USER_HOME/.gant/cache".
    */
   File cacheDirectory = new File("${System.properties.'user.home'}/.gant/cache")
+  /**
+   *  The cache of compiled scripts to use, as used by the Gant daemon.  Defaults to <code>null</code>,
+   *  meaning a cache in <code>cacheDirectory</code> is used if <code>useCache</code> is set and otherwise
+   *  the script is compiled every time it is loaded.
+   */
+  ScriptCache scriptCache = null
   /**
    *  A list of strings containing the locations of Gant modules.
    */
@@ -162,7 +165,7 @@ final class Gant {
   /**
    *  A bit of state to say whether to output a message about the build result.
    */
-  private static boolean outputBuildTime = false
+  private boolean outputBuildTime = false
   /**
    *  The binding object used for this run of Gant.  This binding object replaces the standard one to ensure
    *  that all the Gant specific things appear in the binding the script executes with.
@@ -220,7 +223,14 @@ final class Gant {
    */
   public Gant loadScript(String text) {
     if (! buildClassName) { buildClassName = textInputClassName }
-    script = binding.groovyShell.parse(text, buildClassName)
+    final event = FlightRecorderEvents.beginCompilation(buildClassName)
+    final start = System.nanoTime()
+    try { script = binding.groovyShell.parse(text, buildClassName) }
+    finally {
+      FlightRecorderEvents.end(event)
+      binding.metrics.scriptLoaded(null, System.nanoTime() - start)
+    }
+    binding.scriptLoaded(text)
     binding.'gant.file' = '<text>'
     return this
   }
@@ -234,7 +244,15 @@ final class Gant {
    */
   public Gant loadScript(InputStream scriptSource) {
     if (! buildClassName) { buildClassName = streamInputClassName }
-    script = binding.groovyShell.parse(new InputStreamReader(scriptSource), buildClassName)
+    final event = FlightRecorderEvents.beginCompilation(buildClassName)
+    final start = System.nanoTime()
+    final text = new InputStreamReader(scriptSource).text
+    try { script = binding.groovyShell.parse(text, buildClassName) }
+    finally {
+      FlightRecorderEvents.end(event)
+      binding.metrics.scriptLoaded(null, System.nanoTime() - start)
+    }
+    binding.scriptLoaded(text)
     binding.'gant.file' = '<stream>'
     return this
   }
@@ -261,11 +279,11 @@ final class Gant {
       def filename = scriptUrl.path.substring(scriptUrl.path.lastIndexOf("/") + 1)
       buildClassName = classNameFromFileName(filename)
     }
-    if (useCache) {
-      if (binding.classLoader instanceof URLClassLoader) { binding.classLoader.addURL(cacheDirectory.toURI().toURL()) }
-      else { binding.classLoader.rootLoader?.addURL(cacheDirectory.toURI().toURL()) }
-      binding.loadClassFromCache =  loadClassFromCache
-      script = loadClassFromCache(buildClassName, scriptUrl.openConnection().lastModified, scriptUrl)
+    final cache = scriptCache ?: (useCache ? new ScriptCache(cacheDirectory) : null)
+    if (cache != null) {
+      binding.loadClassFromCache = { String className, URL url -> InvokerHelper.createScript(cache.classFor(url, className, (ClassLoader) binding.classLoader, binding.metrics), binding) }
+      script = binding.loadClassFromCache.call(buildClassName, scriptUrl)
+      binding.scriptLoaded(scriptUrl.getText(cache.configuration.sourceEncoding))
     }
     else { loadScript(scriptUrl.openStream()) }
     binding.'gant.file' = scriptUrl.toString()
@@ -348,6 +366,25 @@ final class Gant {
     catch (MissingPropertyException mpe) { /* Intentionally blank. */ }
     0
   }
+  /**
+   *  Plan the targets for the --plan option: dispatch them as a dry run, one target at a time so that
+   *  the order is that of a sequential run, then write the plan.
+   *
+   *  @param targets The <code>List</code> (of <code>String</code>s) that is the list of targets to achieve.
+   *  @return The return code.
+   */
+  private Integer plan(List<String> targets) {
+    final plan = binding.executionPlan
+    binding.targetExecutor.parallelism = 1
+    binding.ant.logger.messageOutputLevel = GantState.SILENT
+    final returnCode = dispatch(targets)
+    final file = new File(binding.ant.project.baseDir, ExecutionPlan.defaultLocation)
+    file.parentFile.mkdirs()
+    file.setText(plan.toJson(binding.estimatedDurations(plan.targetNames)), 'UTF-8')
+    binding.ant.logger.messageOutputLevel = binding.ant.verbosity
+    binding.ant.project.log('Plan written to ' + file.path + '.')
+    returnCode
+  }
   /**
    *  Action the targets.
    *
@@ -436,13 +473,33 @@ final class Gant {
       }
   }
   /**
-   *  Process the command line options and then call the function to process the targets.
+   *  Process the command line options and then call the function to process the targets.  If profiling,
+   *  the profile is written once the targets are processed.
    */
   public Integer processArgs(String[] args) {
+    try { processOptionsAndTargets(args) }
+    finally { writeProfile() }
+  }
+  /**
+   *  Write the profile, if profiling, to <code>Profiler.defaultLocation</code> in the project base
+   *  directory, and stop profiling.
+   */
+  private void writeProfile() {
+    final profiler = binding.profiler
+    if (profiler == null) { return }
+    binding.profiler = null
+    final directory = new File(binding.ant.project.baseDir, Profiler.defaultLocation)
+    profiler.write(directory)
+    binding.ant.project.log('Profile written to ' + directory.path + '.')
+  }
+  /**
+   *  Process the command line options and then call the function to process the targets.
+   */
+  private Integer processOptionsAndTargets(String[] args) {
     final rootLoader = binding.classLoader.rootLoader
     def buildSource = new File("build.gant")
     def cli = new CliBuilder(usage: 'gant [option]* [target]*')
-    cli.c(longOpt: 'usecache', 'Whether to cache the generated class and perform modified checks on the file before re-compilation.')
+    cli.c(longOpt: 'usecache', 'Whether to cache the generated classes, recompiling a script or included file only when its content changes.')
     cli.d(longOpt: 'debug', 'Print debug levels of information.')
     cli.f(longOpt: 'file', args: 1, argName: 'build-file', 'Use the named build file instead of the default, build.gant.')
     cli.h(longOpt: 'help', 'Print out this message.')
@@ -458,6 +515,12 @@ final class Gant {
     cli.P(longOpt: 'classpath', args: 1, argName: 'path-list', 'Specify a path list to search for jars and classes.')
     cli.T(longOpt: 'targets', 'Print out a list of the possible targets.') // Rake and Rant use -T|--tasks for this.
     cli.V(longOpt: 'version', 'Print the version number and exit.')
+    cli._(longOpt: 'parallel', args: 1, argName: 'threads', 'Execute the independent targets of each depends call concurrently using at most <threads> threads.')
+    cli._(longOpt: 'plan', args: 1, argName: 'format', 'Do not action any tasks, write the targets and tasks that would be executed, with estimated durations and the critical path, to .gant/plan.json in the given format: json.')
+    cli._(longOpt: 'profile', 'Record the time taken by each target, Ant task and script, writing a report and a Chrome trace to .gant/profile.')
+    cli._(longOpt: 'build-cache', args: 1, argName: 'directory', 'Keep the build cache used by targets declaring cache: true in the given directory instead of ~/.gant/build-cache.')
+    cli._(longOpt: 'daemon', 'Execute in a persistent background process that keeps compiled scripts between runs.')
+    cli._(longOpt: 'stop-daemon', 'Stop the background process used by --daemon for this directory.')
     def options = cli.parse(args)
     if (options == null) { println('Error in processing command line options.') ; return -1 }
     useCache = options.c ? true : false
@@ -469,11 +532,23 @@ final class Gant {
     if (options.l) { gantLib.addAll(options.l.split(System.properties.'path.separator') as List) }
     if (options.n) { dryRun = true }
     def function = (options.p || options.T) ? 'targetList' : 'dispatch'
-    if (options.d) { GantState.verbosity = GantState.DEBUG }
-    if (options.q) { GantState.verbosity = GantState.ERRORS_ONLY }
-    if (options.s) { GantState.verbosity = GantState.SILENT }
-    if (options.v) { GantState.verbosity = GantState.VERBOSE }
+    if (options.d) { verbosity = GantState.DEBUG }
+    if (options.q) { verbosity = GantState.ERRORS_ONLY }
+    if (options.s) { verbosity = GantState.SILENT }
+    if (options.v) { verbosity = GantState.VERBOSE }
+    if (options.plan) {
+      if (options.plan != 'json') { println('Parameter to --plan option is not a supported format: ' + options.plan) ; return -1 }
+      planFormat = options.plan
+      dryRun = true
+      function = 'plan'
+    }
+    if (options.profile) { binding.profiler = new Profiler() }
+    if (options.'build-cache') { binding.buildCache = new BuildCache(new LocalBuildCache(new File((String) options.'build-cache'))) }
     if (useCache && options.C) { cacheDirectory = new File((String) options.C) }
+    if (options.parallel) {
+      parallelism = ((String) options.parallel).isInteger() ? ((String) options.parallel).toInteger() : 0
+      if (parallelism < 1) { println('Parameter to --parallel option is not a positive integer: ' + options.parallel) ; return -1 }
+    }
     if (options.D) {
       options.Ds.each { definition ->
         def pair = definition.split('=') as List
@@ -489,7 +564,7 @@ final class Gant {
         //  nigh on impossible.  Also the user doesn't need to know about these.
         binding.ant.logger.messageOutputLevel = GantState.SILENT
         binding.ant.property(name: pair[0], value: pair[1])
-        binding.ant.logger.messageOutputLevel = GantState.verbosity
+        binding.ant.logger.messageOutputLevel = verbosity
       }
     }
     if (options.L) {
@@ -514,30 +589,32 @@ final class Gant {
       }
     }
     if (gotUnknownOptions) { cli.usage() ; return -1 ; }
+    final loadStart = System.nanoTime()
     try { loadScript(buildSource) }
     catch (FileNotFoundException fnfe) { binding.ant.project.log('Cannot open file ' + buildSource.name, Project.MSG_ERR) ; return -3 }
     catch (Exception e) { binding.ant.project.log(constructMessageFrom(e), Project.MSG_ERR) ; return -2 }
+    finally { binding.profiler?.record(Profiler.SCRIPT, 'load ' + buildClassName, loadStart) }
     script.metaClass = new GantMetaClass(script.metaClass, binding)
     def defaultReturnCode = targets?.size() > 0 ? -11 : -12
     outputBuildTime = function == 'dispatch'
     try { return processTargets(function, targets) }
     catch (TargetExecutionException tee) {
-      if (GantState.verbosity > GantState.NORMAL) { binding.ant.project.log(tee.message, tee, Project.MSG_ERR) }
+      if (verbosity > GantState.NORMAL) { binding.ant.project.log(tee.message, tee, Project.MSG_ERR) }
       else { binding.ant.project.log(tee.message, Project.MSG_ERR) }
       return -13
     }
     catch (MissingTargetException mte) {
-      if (GantState.verbosity > GantState.NORMAL) { binding.ant.project.log(mte.message, mte, Project.MSG_ERR) }
+      if (verbosity > GantState.NORMAL) { binding.ant.project.log(mte.message, mte, Project.MSG_ERR) }
       else { binding.ant.project.log(mte.message, Project.MSG_ERR) }
       return defaultReturnCode
     }
     catch (TargetMissingPropertyException tmpe) {
-      if (GantState.verbosity > GantState.NORMAL) { binding.ant.project.log(constructMessageFrom(tmpe), tmpe, Project.MSG_ERR) }
+      if (verbosity > GantState.NORMAL) { binding.ant.project.log(constructMessageFrom(tmpe), tmpe, Project.MSG_ERR) }
       else { binding.ant.project.log(constructMessageFrom(tmpe), Project.MSG_ERR) }
       return defaultReturnCode
     }
     catch (Exception e) {
-      if (GantState.verbosity > GantState.NORMAL) { binding.ant.project.log(constructMessageFrom(e), e, Project.MSG_ERR) }
+      if (verbosity > GantState.NORMAL) { binding.ant.project.log(constructMessageFrom(e), e, Project.MSG_ERR) }
       else { binding.ant.project.log(constructMessageFrom(e), Project.MSG_ERR) }
       return -4
     }
@@ -575,7 +652,19 @@ final class Gant {
    * @return
    */
   public Integer executeTargets(String function = 'dispatch', List<String> targets = []) {
-	  (Integer) invokeMethod(function, targets)
+    Integer returnCode = null
+    Throwable failure = null
+    try { returnCode = (Integer) invokeMethod(function, targets) }
+    catch (Throwable t) {
+      failure = t
+      throw t
+    }
+    finally {
+      if (function == 'dispatch') { binding.metrics.buildCompleted(failure, returnCode != 0) }
+      binding.targetExecutor.shutdown()
+      binding.saveDurations()
+    }
+    returnCode
   }
 
   /**
@@ -585,13 +674,17 @@ final class Gant {
    */
   public GroovyObject prepareTargets() {
     // Configure the build based on this instance's settings.
-    if (dryRun) { GantState.dryRun = true }
-    //binding.ant.logger.setMessageOutputLevel(GantState.verbosity)
-    binding.cacheEnabled = useCache
+    if (dryRun) { binding.ant.dryRun = true }
+    binding.ant.verbosity = verbosity
+    binding.cacheEnabled = useCache || scriptCache != null
     binding.gantLib = gantLib
+    binding.targetExecutor.parallelism = parallelism
+    if (planFormat) { binding.executionPlan = new ExecutionPlan() }
     if (script == null) { throw new RuntimeException("No script has been loaded!") }
     script.binding = binding
-    script.run()
+    final start = System.nanoTime()
+    try { script.run() }
+    finally { binding.profiler?.record(Profiler.SCRIPT, 'evaluate ' + buildClassName, start) }
     return script
   }
   /**
@@ -606,17 +699,6 @@ final class Gant {
   void setAllPerTargetPostHooks(Closure<?> hook) {
     if (script) { this.script.setAllPerTargetPostHooks(hook) } // Must use function call here, fails using property access.
   }
-  /**
-   *  Compile a script in the context of dealing with cached compiled build scripts.
-   */
-  private void compileScript(destDir, buildFileText, buildClassName) {
-    if (! destDir.exists()) { destDir.mkdirs() }
-    def configuration = new CompilerConfiguration()
-    configuration.targetDirectory = destDir
-    def unit = new CompilationUnit(configuration, null, new GroovyClassLoader((ClassLoader) binding.classLoader))
-    unit.addSource(buildClassName, new ByteArrayInputStream((byte[]) buildFileText.bytes))
-    unit.compile()
-  }
   /**
    *  Render the time interval for printing.
    */
@@ -644,15 +726,26 @@ final class Gant {
    *  The entry point for command line invocation.
    */
   public static void main(String[] args) {
+    if (args.contains('--daemon') || args.contains('--stop-daemon')) { GantClient.main(args) ; return }
     def startTime = System.nanoTime()
-    def gant = new Gant()
-    def returnValue = gant.processArgs(args)
+    System.exit(new Gant().processCommandLine(args, startTime))
+  }
+  /**
+   *  Process the command line options and the targets as for a command line invocation, including
+   *  calling the terminate hook.
+   *
+   *  @param args The command line arguments.
+   *  @param startTime The <code>System.nanoTime()</code> at which the invocation started.
+   *  @return The exit code of the run.
+   */
+  public Integer processCommandLine(String[] args, long startTime = System.nanoTime()) {
+    def returnValue = processArgs(args)
     if (outputBuildTime) {
-      def terminateHook = gant.binding.getVariable('terminateHook')
+      def terminateHook = binding.getVariable('terminateHook')
       if ((terminateHook != null) && (terminateHook instanceof Closure)) {
         terminateHook.call(returnValue, renderTimeInterval((System.nanoTime() - startTime) / 1e9))
       }
     }
-    System.exit(returnValue)
+    returnValue
   }
 }
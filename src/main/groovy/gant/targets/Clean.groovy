@@ -15,25 +15,48 @@
 package gant.targets
 
 import org.codehaus.gant.GantBinding
+import org.codehaus.gant.ParallelDeleter
 
 /**
  *  A class to provide clean and clobber actions for Gant build scripts.  Maintains separate lists of
  *  Ant pattern specifications and directory names for clean and for clobber.  The lists are used as the
- *  specifications when the clean or clobber methods are called.
+ *  specifications when the clean or clobber methods are called.  Patterns in the cleanExcludePattern list
+ *  specify files that neither action deletes; an excluded directory, e.g. <code>**&#47;.git/</code>, is not
+ *  even searched.
+ *
+ *  <p>The files matching the patterns are found in a single walk of the tree, and they and the directories
+ *  are deleted concurrently, using <code>ParallelDeleter</code>.  In a dry run the equivalent Ant delete
+ *  tasks are reported instead.</p>
  *
  *  @author Russel Winder <russel@winder.org.uk>
  */
 final class Clean {
   private GantBinding binding
-  private performPatternAction(final List<String> l) {
-    if (l.size() > 0) {
-      binding.ant.delete(quiet: 'false') {
-        binding.ant.fileset(dir: '.', includes: l.flatten().join(', '), defaultexcludes: 'false')
+  private static List<String> patternsOf(final List l) {
+    l.flatten().collectMany { item -> item.toString().tokenize(', \t\n') }
+  }
+  private perform(final List patterns, final List directories) {
+    final includes = patternsOf(patterns)
+    final excludes = patternsOf(binding.cleanExcludePattern)
+    final targets = directories.flatten()*.toString()
+    if (binding.ant.dryRun) {
+      if (includes.size() > 0) {
+        binding.ant.delete(quiet: 'false') {
+          final attributes = [dir: '.', includes: includes.join(', '), defaultexcludes: 'false']
+          if (excludes.size() > 0) { attributes.excludes = excludes.join(', ') }
+          binding.ant.fileset(attributes)
+        }
       }
+      targets.each { item -> binding.ant.delete(dir: item, quiet: 'false') }
+      return
     }
-  }
-  private performDirectoryAction(final List<String> l) {
-    l.flatten().each{item -> binding.ant.delete(dir: item, quiet: 'false')}
+    final project = binding.ant.project
+    final directoryFiles = targets.collect { item -> project.resolveFile(item) }
+    final deleter = new ParallelDeleter()
+    deleter.deleteMatching(project.resolveFile('.'), includes, excludes, directoryFiles)
+    deleter.deleteTrees(directoryFiles)
+    if (deleter.files + deleter.directories > 0) { project.log("Deleted ${deleter.files} files and ${deleter.directories} directories, freeing ${deleter.bytes} bytes.") }
+    if (deleter.failures.size() > 0) { throw new RuntimeException('Unable to delete ' + deleter.failures.join(', ')) }
   }
   /**
    *  Constructor for the "includeTargets <<" usage.
@@ -44,21 +67,18 @@ final class Clean {
     this.binding = binding
     binding.cleanPattern = []
     binding.cleanDirectory = []
-    binding.target.call(clean: 'Action the cleaning.') {
-      performPatternAction(binding.cleanPattern)
-      performDirectoryAction(binding.cleanDirectory)
-    }
+    binding.cleanExcludePattern = []
+    binding.target.call(clean: 'Action the cleaning.') { perform(binding.cleanPattern, binding.cleanDirectory) }
     binding.clobberPattern = []
     binding.clobberDirectory = []
     binding.target.call(clobber: 'Action the clobbering. Do the cleaning first.') {
       depends(binding.clean)
-      performPatternAction(binding.clobberPattern)
-      performDirectoryAction(binding.clobberDirectory)
+      perform(binding.clobberPattern, binding.clobberDirectory)
     }
   }
   /**
    *  Constructor for the "includeTargets **" usage.  Currently ignores keys other than cleanPattern,
-   *  cleanDirectory, clobberPattern, and clobberDirectory.
+   *  cleanDirectory, cleanExcludePattern, clobberPattern, and clobberDirectory.
    *
    *  @param binding The <code>GantBinding</code> to bind to.
    *  @param map The <code>Map</code> of initialization parameters.
@@ -66,7 +86,7 @@ final class Clean {
   Clean(final GantBinding binding , final Map<String,String> map) {
     this(binding)
     map.each{key , value ->
-      if (['cleanPattern', 'cleanDirectory', 'clobberPattern', 'clobberDirectory'].contains(key)) {
+      if (['cleanPattern', 'cleanDirectory', 'cleanExcludePattern', 'clobberPattern', 'clobberDirectory'].contains(key)) {
         binding."${key}" << value
       }
     }
@@ -14,12 +14,50 @@
 
 package gant.targets
 
+import java.util.zip.Deflater
+
+import javax.xml.parsers.DocumentBuilderFactory
+
+import org.apache.tools.ant.ComponentHelper
+import org.apache.tools.ant.DirectoryScanner
+import org.apache.tools.ant.Project
+
+import org.codehaus.gant.Fingerprint
 import org.codehaus.gant.GantBinding
 import org.codehaus.gant.GantState
+import org.codehaus.gant.archive.ArchiveWriter
+import org.codehaus.gant.compile.ClassDependencyIndex
+import org.codehaus.gant.compile.IncrementalCompiler
 
 /**
  *  A class to provide the Maven 2 style lifecycle targets associated with a project.
  *
+ *  <p>The compile and test classpaths resolved by the <code>initialize</code> target are kept in the
+ *  state store of the project, keyed by the dependencies, the remote repositories and the test framework
+ *  settings, so that dependencies are only resolved again when one of these changes or a file of a
+ *  classpath has gone.  Defining the Ant property <code>refreshDependencies</code> as <code>true</code>,
+ *  e.g. with <code>-DrefreshDependencies=true</code>, forces resolution.</p>
+ *
+ *  <p>If <code>incrementalCompilation</code> is <code>true</code> the <code>compile</code> and
+ *  <code>test-compile</code> targets compile in-process, and only the source files that have changed and
+ *  those depending on them, using an <code>IncrementalCompiler</code> with its analysis kept in
+ *  <code>targetPath</code>.</p>
+ *
+ *  <p>If <code>testForks</code> is greater than 1 the JUnit tests are run in that many forked JVMs at once,
+ *  the test classes being shared out so that each JVM has about the same total duration, using the
+ *  durations of the classes in previous runs, which are kept in the state store of the project.</p>
+ *
+ *  <p>If <code>testImpactAnalysis</code> is <code>true</code> only the JUnit test classes that reach, through
+ *  the references in their bytecode, a class that has changed since the last run in which all the tests
+ *  passed are run.  The index of the classes is kept in <code>targetPath</code>, all the tests are run if
+ *  it is missing or the classpath or test framework settings have changed.</p>
+ *
+ *  <p>If <code>parallelPackaging</code> is <code>true</code> the <code>package</code> target writes the
+ *  archive with an <code>ArchiveWriter</code>, compressing entries concurrently straight from the compiled
+ *  classes and, for a war, <code>src/main/webapp</code>, and reusing the unchanged entries of the previous
+ *  archive.  If <code>reproducibleArchives</code> is also <code>true</code> the entries have a fixed
+ *  timestamp.</p>
+ *
  *  @author Russel Winder <russel@winder.org.uk>
  */
 final class Maven {
@@ -55,6 +93,11 @@ final class Maven {
                                   deployId: 'dav.codehaus.org',
                                   manifest: [: ],
                                   manifestIncludes:  [ ],
+                                  incrementalCompilation: false,
+                                  testForks: 1,
+                                  testImpactAnalysis: false,
+                                  parallelPackaging: false,
+                                  reproducibleArchives: false,
                                   (readOnlyKeys[0]): null,
                                   (readOnlyKeys[1]): 'compile.dependency.classpath',
                                   (readOnlyKeys[2]): 'test.dependency.classpath',
@@ -123,24 +166,29 @@ final class Maven {
         }
         dependencyMap
       }
-      if (owner.compileDependencies) {
-        owner.binding.ant."${owner.antlibXMLns}:dependencies"(pathId: owner.compileDependenciesClasspathId) {
-          if (owner.remoteRepositories) { owner.remoteRepositories.each { url -> remoteRepository(url: url) } }
-          owner.compileDependencies.each { item -> dependency(createDependencyMap([ scope: 'compile' ], item)) }
+      if ((owner.compileDependencies || owner.testDependencies) && ! owner.restoreClasspaths()) {
+        if (owner.compileDependencies) {
+          owner.binding.ant."${owner.antlibXMLns}:dependencies"(pathId: owner.compileDependenciesClasspathId) {
+            if (owner.remoteRepositories) { owner.remoteRepositories.each { url -> remoteRepository(url: url) } }
+            owner.compileDependencies.each { item -> dependency(createDependencyMap([ scope: 'compile' ], item)) }
+          }
         }
-      }
-      if (owner.testDependencies) {
-        owner.binding.ant."${owner.antlibXMLns}:dependencies"(pathId: owner.testDependenciesClasspathId) {
-          if (owner.remoteRepositories) { owner.remoteRepositories.each { url -> remoteRepository(url: url) } }
-          owner.testDependencies.each { item -> dependency(createDependencyMap([ scope: 'test' ], item)) }
+        if (owner.testDependencies) {
+          owner.binding.ant."${owner.antlibXMLns}:dependencies"(pathId: owner.testDependenciesClasspathId) {
+            if (owner.remoteRepositories) { owner.remoteRepositories.each { url -> remoteRepository(url: url) } }
+            owner.testDependencies.each { item -> dependency(createDependencyMap([ scope: 'test' ], item)) }
+          }
         }
+        owner.storeClasspaths()
+      }
+      if (ComponentHelper.getComponentHelper(owner.binding.ant.project).getDefinition('groovyc')?.className != 'org.codehaus.groovy.ant.Groovyc') {
+        //  Do not allow the output of the ant.property call to escape.  If the output is allowed out then
+        //  Ant, Gant, Maven, Eclipse and IntelliJ IDEA all behave slightly differently.  This makes testing
+        //  nigh on impossible.  Also the user doesn't need to know about these.
+        owner.binding.ant.logger.messageOutputLevel = GantState.SILENT
+        owner.binding.ant.taskdef(name: 'groovyc', classname: 'org.codehaus.groovy.ant.Groovyc')
+        owner.binding.ant.logger.messageOutputLevel = owner.binding.ant.verbosity
       }
-      //  Do not allow the output of the ant.property call to escape.  If the output is allowed out then
-      //  Ant, Gant, Maven, Eclipse and IntelliJ IDEA all behave slightly differently.  This makes testing
-      //  nigh on impossible.  Also the user doesn't need to know about these.
-      owner.binding.ant.logger.messageOutputLevel = GantState.SILENT
-      owner.binding.ant.taskdef(name: 'groovyc', classname: 'org.codehaus.groovy.ant.Groovyc')
-      owner.binding.ant.logger.messageOutputLevel = GantState.verbosity
       //  Interesting side effect of using properties rather than a method call in the above statement.
       //  With method call, the value of the expression was equivalent to 0 so that was the value
       //  returned by this method, which eventually became the return value of the target.  Using
@@ -171,6 +219,11 @@ final class Maven {
     properties.binding.target.call(compile: "Compile the source code in ${properties.mainSourcePath} to ${properties.mainCompilePath}.") {
       depends(owner.binding.initialize)
       owner.binding.ant.mkdir(dir: owner.mainCompilePath)
+      if (owner.incrementalCompilation) {
+        final sourceDirectories = owner.mainSourcePath != owner.default_mainSourcePath ? [ owner.mainSourcePath ] : [ 'java', 'groovy' ].collect { owner.mainSourcePath + System.properties.'file.separator' + it }
+        owner.compileIncrementally('main', sourceDirectories, owner.mainCompilePath, owner.compileClasspath + owner.dependencyClasspath(owner.compileDependenciesClasspathId))
+        return
+      }
       //  If a source path has been explicitly specified then compile everything in it using the joint
       //  compiler so there is no problem with it containing Groovy as well as Java code.  Otherwise assume
       //  Maven 2 hierarchy rules.
@@ -240,7 +293,12 @@ final class Maven {
       catch (MissingPropertyException mpe) { /* Intentionally blank */ }
       if (doTest) {
         owner.binding.ant.mkdir(dir: owner.testCompilePath )
-        if (owner.testSourcePath != owner.default_testSourcePath) {
+        if (owner.incrementalCompilation) {
+          final sourceDirectories = owner.testSourcePath != owner.default_testSourcePath ? [ owner.testSourcePath ] : [ 'java', 'groovy' ].collect { owner.testSourcePath + System.properties.'file.separator' + it }
+          owner.compileIncrementally('test', sourceDirectories, owner.testCompilePath,
+                                     [ owner.mainCompilePath ] + owner.compileClasspath + owner.testClasspath + owner.dependencyClasspath(owner.compileDependenciesClasspathId) + owner.dependencyClasspath(owner.testDependenciesClasspathId))
+        }
+        else if (owner.testSourcePath != owner.default_testSourcePath) {
           if ((new File((String) owner.testSourcePath)).isDirectory()) {
             owner.binding.ant.groovyc([ srcdir: owner.testSourcePath, destdir: owner.testCompilePath, fork: 'true' ] + owner.groovyCompileProperties) {
               javac(owner.javaCompileProperties) {
@@ -320,20 +378,7 @@ final class Maven {
          case 'junit':
          default:
           owner.binding.ant.mkdir(dir: owner.testReportPath)
-          owner.binding.ant.junit(printsummary: 'yes', failureproperty: 'testsFailed', fork: 'true', forkmode: 'once') {
-            classpath {
-              pathelement(location: owner.mainCompilePath)
-              pathelement(location: owner.testCompilePath)
-              pathelement(path: owner.compileClasspath.join(System.properties.'path.separator'))
-              pathelement(path: owner.testClasspath.join(System.properties.'path.separator'))
-              if (owner.compileDependencies) { path(refid: owner.compileDependenciesClasspathId) }
-              if (owner.testDependencies) { path(refid: owner.testDependenciesClasspathId) }
-            }
-            formatter(type: 'plain')
-            formatter(type: 'xml')
-            sysproperty(key: 'groovy.home', value: System.properties.'groovy.home')
-            batchtest(todir: owner.testReportPath) { fileset(dir: owner.testCompilePath, includes: '**/*Test.class') }
-          }
+          owner.runJUnitTests()
           break
         }
         try {
@@ -361,6 +406,10 @@ final class Maven {
           else { owner.binding.ant.copy(todir: owner.metadataPath, file: item) }
         }
       }
+      if (owner.parallelPackaging) {
+        owner.writeArchive()
+        return
+      }
       switch (owner.packaging) {
        case 'war':
        def artifactPath = owner.targetPath + System.properties.'file.separator' + owner.artifactId + '-' + owner.version
@@ -434,6 +483,258 @@ final class Maven {
     properties.binding.includeTargets << Clean
     properties.binding.cleanDirectory << "${properties.targetPath}"
   }
+  /**
+   *  Compute the key of the resolved classpaths: a hash of everything that determines the result of
+   *  resolving the dependencies.
+   *
+   *  @return The key.
+   */
+  String dependenciesKey() {
+    final render = { item -> item instanceof Map ? new TreeMap(item).toString() : item.toString() }
+    Fingerprint.keyOf([ properties.compileDependencies.collect(render), properties.testDependencies.collect(render), properties.remoteRepositories.collect(render),
+      properties.testFramework, properties.testFrameworkVersion, properties.testFrameworkClassifier ])
+  }
+  /**
+   *  Register the classpaths recorded by a previous resolution of the same dependencies, if there is one,
+   *  every declared dependency scope has a recorded classpath, all its files still exist and a refresh has
+   *  not been requested.
+   *
+   *  @return <code>true</code> if the classpaths were registered, <code>false</code> if the dependencies
+   *  must be resolved.
+   */
+  private boolean restoreClasspaths() {
+    final ant = properties.binding.ant
+    if (ant.project.getProperty('refreshDependencies') == 'true') { return false }
+    final store = properties.binding.stateStore
+    if (store.get('maven.dependencies.key') != dependenciesKey()) { return false }
+    final Map<String, String> classpaths = [ : ]
+    if (properties.compileDependencies) { classpaths[properties.compileDependenciesClasspathId] = store.get('maven.dependencies.compileClasspath') }
+    if (properties.testDependencies) { classpaths[properties.testDependenciesClasspathId] = store.get('maven.dependencies.testClasspath') }
+    if (! classpaths.values().every { it }) { return false }
+    final elements = classpaths.values().collectMany { String classpath -> classpath.split(File.pathSeparator) as List }
+    if (! elements.every { String element -> new File(element).exists() }) { return false }
+    classpaths.each { String id, String classpath ->
+      ant.path(id: id) { classpath.split(File.pathSeparator).each { element -> pathelement(location: element) } }
+    }
+    true
+  }
+  /**
+   *  Record the classpaths just resolved in the state store.  Nothing is recorded if nothing was resolved,
+   *  i.e. for a dry run or if a declared dependency scope has no classpath.
+   */
+  private void storeClasspaths() {
+    if (isDryRun()) { return }
+    final ant = properties.binding.ant
+    final classpathOf = { String id -> ant.project.getReference(id)?.toString() }
+    final compileClasspath = properties.compileDependencies ? classpathOf(properties.compileDependenciesClasspathId) : ''
+    final testClasspath = properties.testDependencies ? classpathOf(properties.testDependenciesClasspathId) : ''
+    if ((properties.compileDependencies && ! compileClasspath) || (properties.testDependencies && ! testClasspath)) { return }
+    properties.binding.stateStore.putAll([
+      'maven.dependencies.key': dependenciesKey(),
+      'maven.dependencies.compileClasspath': compileClasspath,
+      'maven.dependencies.testClasspath': testClasspath,
+      ])
+  }
+  /**
+   *  Whether nothing is executed: a dry run, or the planning of a build.
+   */
+  private boolean isDryRun() { properties.binding.ant.dryRun || properties.binding.executionPlan != null }
+  /**
+   *  The elements of a classpath registered by the <code>initialize</code> target.
+   */
+  private List<String> dependencyClasspath(final String id) {
+    final path = properties.binding.ant.project.getReference(id)
+    path == null ? [ ] : path.list() as List
+  }
+  /**
+   *  Compile source directories using an <code>IncrementalCompiler</code>.  When nothing is executed only
+   *  the source files that would be compiled are reported.
+   *
+   *  @param name The name of the compilation, which names its analysis file.
+   */
+  private void compileIncrementally(final String name, final List<String> sourceDirectories, final String destination, final List<String> classpath) {
+    final javacOptions = [ ]
+    final javaProperties = properties.javaCompileProperties
+    if (javaProperties.source) { javacOptions.addAll([ '-source', javaProperties.source ]) }
+    if (javaProperties.target) { javacOptions.addAll([ '-target', javaProperties.target ]) }
+    javacOptions << (javaProperties.debug in [ true, 'true', 'on', 'yes' ] ? '-g' : '-g:source')
+    javacOptions.addAll(properties.nestedJavacCompilerArgs)
+    final compiler = new IncrementalCompiler(sourceDirectories.collect { new File((String) it) }, new File(destination),
+                                             classpath.findAll { it }.collect { new File((String) it) },
+                                             new File((String) properties.targetPath, "analysis${System.properties.'file.separator'}${name}"),
+                                             javacOptions*.toString(), (String) (javaProperties.encoding ?: properties.groovyCompileProperties.encoding ?: 'UTF-8'))
+    final project = properties.binding.ant.project
+    if (isDryRun()) {
+      final outOfDate = compiler.outOfDate()
+      if (outOfDate) {
+        project.log("Would compile ${outOfDate.size()} source file${outOfDate.size() == 1 ? '' : 's'} to ${destination}")
+        outOfDate.each { File file -> project.log('  ' + file.path, Project.MSG_VERBOSE) }
+      }
+      return
+    }
+    final compiled = compiler.compile()
+    if (compiled) { project.log("Compiled ${compiled.size()} source file${compiled.size() == 1 ? '' : 's'} to ${destination}") }
+  }
+  /**
+   *  Share test classes out between a number of shards so that the total durations of the shards are as
+   *  near equal as possible: the classes are taken longest first, each going to the shard with the least
+   *  total so far.  A class with no known duration is taken to have the mean duration of the others.
+   *
+   *  @param testClasses The names of the test classes.
+   *  @param durations The durations of test classes, in seconds.
+   *  @param count The number of shards.
+   *  @return The non-empty shards.
+   */
+  static List<List<String>> shardTests(final List<String> testClasses, final Map<String, Double> durations, final int count) {
+    final known = testClasses.findAll { durations.containsKey(it) }
+    final double defaultDuration = known ? known.sum(0.0d) { durations[it] } / known.size() : 1.0d
+    final Closure<Double> durationOf = { String name -> durations.containsKey(name) ? durations[name] : defaultDuration }
+    final shards = (0 ..< Math.max(1, count)).collect { [ classes: [ ], total: 0.0d ] }
+    testClasses.sort(false) { a, b -> durationOf(b) <=> durationOf(a) ?: a <=> b }.each { String name ->
+      final shard = shards.min { it.total }
+      shard.classes << name
+      shard.total += durationOf(name)
+    }
+    shards.findAll { it.classes }.collect { it.classes }
+  }
+  /**
+   *  Run the JUnit tests: those affected by the changes since the last successful run if
+   *  <code>testImpactAnalysis</code> is set, otherwise all of them, in one forked JVM or in
+   *  <code>testForks</code> at once.  There is no test impact analysis when nothing is executed.
+   */
+  private void runJUnitTests() {
+    final ant = properties.binding.ant
+    final testCompilePath = (String) properties.testCompilePath
+    final scanner = new DirectoryScanner()
+    scanner.basedir = new File(testCompilePath)
+    scanner.includes = [ '**/*Test.class' ] as String[]
+    //  In a dry run the test classes may not have been compiled.
+    if (scanner.basedir.isDirectory()) { scanner.scan() }
+    final String[] testClassFiles = scanner.basedir.isDirectory() ? scanner.includedFiles : [ ]
+    Map<String, String> classFiles = new TreeMap<String, String>(testClassFiles.collectEntries { String file ->
+      [ (file[0 ..< -'.class'.length()].replace(File.separatorChar, (char) '.')): file ]
+    })
+    ClassDependencyIndex index = null
+    final indexFile = new File((String) properties.targetPath, "analysis${System.properties.'file.separator'}test-impact")
+    if (properties.testImpactAnalysis && ! isDryRun()) {
+      final previous = ClassDependencyIndex.load(indexFile)
+      final settings = testSettingsKey()
+      index = ClassDependencyIndex.build([ new File((String) properties.mainCompilePath), new File(testCompilePath) ], settings, previous)
+      if (previous != null && previous.settings == settings) {
+        final affected = index.reaching(classFiles.keySet().collect { it.replace('.', '/') }, index.changedSince(previous))
+        classFiles = classFiles.findAll { name, file -> name.replace('.', '/') in affected }
+        ant.project.log("Test impact analysis selected ${classFiles.size()} of ${testClassFiles.length} test classes.")
+      }
+    }
+    if (classFiles) {
+      if ((properties.testForks as int) > 1) { runShardedTests(classFiles) }
+      else {
+        final testClasspath = testClasspath()
+        final testReportPath = (String) properties.testReportPath
+        ant.junit(printsummary: 'yes', failureproperty: 'testsFailed', fork: 'true', forkmode: 'once') {
+          classpath { pathelement(path: testClasspath) }
+          formatter(type: 'plain')
+          formatter(type: 'xml')
+          sysproperty(key: 'groovy.home', value: System.properties.'groovy.home')
+          batchtest(todir: testReportPath) { fileset(dir: testCompilePath) { classFiles.values().each { file -> include(name: file) } } }
+        }
+      }
+    }
+    if (index != null) {
+      if (ant.project.getProperty('testsFailed')) { indexFile.delete() }
+      else { index.save(indexFile) }
+    }
+  }
+  /**
+   *  The classpath for running the tests.
+   */
+  private String testClasspath() {
+    final classpathElements = [ properties.mainCompilePath, properties.testCompilePath ] + properties.compileClasspath + properties.testClasspath +
+        dependencyClasspath(properties.compileDependenciesClasspathId) + dependencyClasspath(properties.testDependenciesClasspathId)
+    classpathElements.findAll { it }.join(System.properties.'path.separator')
+  }
+  /**
+   *  Compute the key of the configuration for test impact analysis: the files of the classpath, other than
+   *  the compiled classes, and the test framework settings.
+   */
+  private String testSettingsKey() {
+    final items = [ properties.testFramework, properties.testFrameworkVersion, properties.testFrameworkClassifier, System.getProperty('java.version') ]
+    (properties.compileClasspath + properties.testClasspath + dependencyClasspath(properties.compileDependenciesClasspathId) + dependencyClasspath(properties.testDependenciesClasspathId)).findAll { it }.each { element ->
+      final file = new File((String) element)
+      items.addAll([ file.absolutePath, file.isFile() ? file.length() + ':' + file.lastModified() : '' ])
+    }
+    Fingerprint.keyOf(items)
+  }
+  /**
+   *  Run JUnit test classes in <code>testForks</code> forked JVMs at once, with an Ant <code>parallel</code>
+   *  task of <code>junit</code> tasks, then record the duration of each test class from its XML report.
+   *
+   *  @param classFiles The class files, relative to <code>testCompilePath</code>, keyed by class name.
+   */
+  private void runShardedTests(final Map<String, String> classFiles) {
+    final ant = properties.binding.ant
+    final testCompilePath = (String) properties.testCompilePath
+    final testReportPath = (String) properties.testReportPath
+    final store = properties.binding.stateStore
+    final Map<String, Double> durations = [ : ]
+    classFiles.keySet().each { String name ->
+      final duration = store.get('maven.testDuration.' + name)
+      if (duration != null) { durations[name] = duration as double }
+    }
+    final shards = shardTests(classFiles.keySet() as List, durations, properties.testForks as int)
+    final testClasspath = testClasspath()
+    ant.parallel(threadCount: shards.size()) {
+      shards.each { List<String> shard ->
+        junit(printsummary: 'yes', failureproperty: 'testsFailed', fork: 'true', forkmode: 'once') {
+          classpath { pathelement(path: testClasspath) }
+          formatter(type: 'plain')
+          formatter(type: 'xml')
+          sysproperty(key: 'groovy.home', value: System.properties.'groovy.home')
+          batchtest(todir: testReportPath) { fileset(dir: testCompilePath) { shard.each { name -> include(name: classFiles[name]) } } }
+        }
+      }
+    }
+    final Map<String, String> measured = [ : ]
+    final documentBuilderFactory = DocumentBuilderFactory.newInstance()
+    classFiles.keySet().each { String name ->
+      final report = new File(testReportPath, 'TEST-' + name + '.xml')
+      if (report.isFile()) {
+        try {
+          final time = documentBuilderFactory.newDocumentBuilder().parse(report).documentElement.getAttribute('time')
+          if (time) { measured['maven.testDuration.' + name] = time }
+        }
+        catch (final Exception e) { /* An unreadable report only means there is no duration for the class. */ }
+      }
+    }
+    if (measured) { store.putAll(measured) }
+  }
+  /**
+   *  Write the jar or war with an <code>ArchiveWriter</code>.  A war has the compiled classes in
+   *  <code>WEB-INF/classes</code> and the content of <code>src/main/webapp</code> at the top level.  An
+   *  archive without a manifest is given one.  Nothing is written when nothing is executed.
+   */
+  private void writeArchive() {
+    final separator = System.properties.'file.separator'
+    final isWar = properties.packaging == 'war'
+    properties.packagedArtifact = properties.targetPath + separator + properties.artifactId + '-' + properties.version + (isWar ? '.war' : '.jar')
+    if (isDryRun()) {
+      properties.binding.ant.project.log("Would package ${properties.packagedArtifact}")
+      return
+    }
+    final writer = new ArchiveWriter(new File((String) properties.packagedArtifact), Runtime.runtime.availableProcessors(), properties.reproducibleArchives as boolean, Deflater.DEFAULT_COMPRESSION)
+    final classes = new File((String) properties.mainCompilePath)
+    if (isWar) {
+      writer.addDirectory(classes, 'WEB-INF/classes/')
+      final webapp = new File((String) properties.sourcePath, [ 'main', 'webapp' ].join(separator))
+      if (webapp.isDirectory()) { writer.addDirectory(webapp, '') }
+      final metadata = new File((String) properties.metadataPath)
+      if (metadata.isDirectory()) { writer.addDirectory(metadata, 'META-INF/') }
+    }
+    else { writer.addDirectory(classes, '') }
+    if (! writer.contains('META-INF/MANIFEST.MF')) { writer.addContent('META-INF/MANIFEST.MF', 'Manifest-Version: 1.0\r\nCreated-By: Gant\r\n\r\n'.getBytes('UTF-8')) }
+    final count = writer.write()
+    properties.binding.ant.project.log("Packaged ${count} entries in ${properties.packagedArtifact}, ${writer.reusedEntries} reused from the previous archive.")
+  }
   public getProperty(String name) { properties [ name ] }
   public void setProperty(String name, value) {
     if (readOnlyKeys.contains(name)) { throw new RuntimeException("Cannot amend the property ${name}.") }
@@ -14,16 +14,34 @@
 
 package gant.tools
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
 import org.codehaus.gant.GantBinding
 
 /**
  *  Provides methods for executing operating system commands ensuring that the pipes are flushed and
- *  so the execution cannot block on full pipes.
+ *  so the execution cannot block on full pipes.  Many commands can be executed concurrently using
+ *  <code>batch</code>.
  *
  *  @author Russel Winder <russel@winder.org.uk>
  */
 final class Execute {
   private final GantBinding binding
+  /**
+   *  The threads draining the output and error streams of processes.  Threads are reused, and die when
+   *  idle, so executing a command does not start two new threads.  The pool belongs to the instance, and
+   *  so to one build, rather than being shared: a thread inherits the inheritable thread locals of the
+   *  thread starting it, for example where the Gant daemon sends the output of a build, and a thread
+   *  started for one build must not process the output of a command of another.
+   */
+  private final ExecutorService pumps = Executors.newCachedThreadPool(threadFactory('gant-execute-pump-'))
   /**
    *  Constructor for the "includeTool <<" usage.
    *
@@ -51,12 +69,43 @@ final class Execute {
   private manageProcess(final Process process, final Closure errProcessing, final Closure outProcessing, final Object command, final String tag) {
     //  Command can either be a String or a List.
     binding.getVariable('message')(tag, command)
-    final errThread = Thread.start { new InputStreamReader(process.err).eachLine(errProcessing) }
-    final inThread = Thread.start { new InputStreamReader(process.in).eachLine(outProcessing) }
-    errThread.join()
-    inThread.join()
+    drain(process, errProcessing, outProcessing)
+  }
+  /**
+   *  Drain the output and error streams of a process using the pump threads, and wait for it to terminate.
+   *  An exception thrown by a processing closure is rethrown.
+   *
+   *  @return the return code of the process.
+   */
+  private int drain(final Process process, final Closure errProcessing, final Closure outProcessing) {
+    final Future<?> err = pumps.submit({ new InputStreamReader(process.err).eachLine(errProcessing) } as Callable)
+    final Future<?> out = pumps.submit({ new InputStreamReader(process.in).eachLine(outProcessing) } as Callable)
+    try {
+      err.get()
+      out.get()
+    }
+    catch (final ExecutionException ee) { throw ee.cause }
     process.waitFor()
   }
+  /**
+   *  Create a factory of named daemon threads.
+   */
+  private static ThreadFactory threadFactory(final String prefix) {
+    final count = new AtomicInteger()
+    return { Runnable runnable ->
+        final thread = new Thread(runnable, prefix + count.incrementAndGet())
+        thread.daemon = true
+        thread
+      } as ThreadFactory
+  }
+  /**
+   *  The command array to execute a command using the shell of the platform.
+   */
+  private static List<String> shellCommand(final String command) {
+    final String osName = System.getProperty("os.name")
+    final boolean isWindows = ( osName.length() > 6) ? osName.substring(0, 7).equals("Windows") : false
+    isWindows ? ['cmd', '/c', command] : ['sh', '-c', command]
+  }
   /**
    *  Execute a command from the PATH.
    *
@@ -102,13 +151,92 @@ final class Execute {
    *  @return the return code of the process.
    */
   def shell(final Map<String,String> keywordParameters = [:], final String command) {
-    final String osName = System.getProperty("os.name")
-    final boolean isWindows = ( osName.length() > 6) ? osName.substring(0, 7).equals("Windows") : false
-    final commandArray = isWindows ? ['cmd', '/c', command] : ['sh', '-c', command]
-    manageProcess(commandArray.execute(),
+    manageProcess(shellCommand(command).execute(),
                     (Closure)(keywordParameters['errProcessing'] ?: { System.err.println(it) }),
                     (Closure)(keywordParameters['outProcessing'] ?: { println(it) }),
                     command,
                     'shell')
   }
+  /**
+   *  Execute many commands concurrently, at most a given number at once.  The output and error lines of
+   *  each command are collected while it executes and processed, together with the message announcing the
+   *  command, when it terminates, so the output of different commands is not interleaved.
+   *
+   *  <p>Each command is a <code>String</code> or a list of <code>String</code>s to execute from the PATH as
+   *  for <code>executable</code>, or a <code>Map</code> with a <code>shell</code> entry giving a command to
+   *  execute using a shell as for <code>shell</code>.</p>
+   *
+   *  <p>Optional, keyword parameters: <code>threads</code> is the maximum number of commands to execute at
+   *  once, by default the number of processors; <code>failFast</code>, if <code>true</code>, stops the batch
+   *  when a command fails, i.e. returns a non-zero return code: commands executing are destroyed and no more
+   *  are started; <code>outProcessing</code> is a <code>Closure</code> used to process lines from standard
+   *  out; <code>errProcessing</code> is a <code>Closure</code> used to process lines from standard
+   *  error.</p>
+   *
+   *  @param commands the commands.
+   *  @return the return codes of the processes, in the order of the commands, <code>null</code> for commands
+   *  not executed because the batch was stopped.
+   */
+  List<Integer> batch(final Map keywordParameters = [:], final List commands) {
+    final threads = keywordParameters['threads'] ? (int) keywordParameters['threads'] : Runtime.runtime.availableProcessors()
+    if (threads < 1) { throw new IllegalArgumentException('threads must be at least 1.') }
+    final batch = new Batch(
+        failFast: keywordParameters['failFast'] as boolean,
+        errProcessing: (Closure)(keywordParameters['errProcessing'] ?: { System.err.println(it) }),
+        outProcessing: (Closure)(keywordParameters['outProcessing'] ?: { println(it) }))
+    final executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(commands.size(), 1)), threadFactory('gant-execute-batch-'))
+    try {
+      final futures = commands.collect { command -> executor.submit({ executeInBatch(batch, command) } as Callable<Integer>) }
+      futures.collect { Future<Integer> future ->
+        try { future.get() }
+        catch (final ExecutionException ee) { throw ee.cause }
+      }
+    }
+    finally { executor.shutdownNow() }
+  }
+  /**
+   *  Execute a command of a batch.
+   *
+   *  @return the return code of the process or <code>null</code> if the batch has been stopped.
+   */
+  private Integer executeInBatch(final Batch batch, final command) {
+    if (batch.stopped.get()) { return null }
+    def tag = 'execute'
+    def display = command
+    Process process
+    if (command instanceof Map) {
+      if (! command.containsKey('shell')) { throw new IllegalArgumentException('Batch command map has no shell entry: ' + command) }
+      tag = 'shell'
+      display = command['shell']
+      process = shellCommand((String) display).execute()
+    }
+    else if (command instanceof List) { process = ((List) command).execute() }
+    else { process = command.toString().execute() }
+    batch.executing << process
+    if (batch.stopped.get()) { process.destroy() }
+    final errLines = []
+    final outLines = []
+    def returnCode = 0
+    try { returnCode = drain(process, { errLines << it }, { outLines << it }) }
+    finally { batch.executing.remove(process) }
+    if (returnCode != 0 && batch.failFast && batch.stopped.compareAndSet(false, true)) {
+      synchronized (batch.executing) { batch.executing.each { Process p -> p.destroy() } }
+    }
+    synchronized (batch) {
+      binding.getVariable('message')(tag, display)
+      outLines.each(batch.outProcessing)
+      errLines.each(batch.errProcessing)
+    }
+    returnCode
+  }
+  /**
+   *  The state shared by the commands of a batch.
+   */
+  private static final class Batch {
+    boolean failFast
+    Closure errProcessing
+    Closure outProcessing
+    final AtomicBoolean stopped = new AtomicBoolean()
+    final Set<Process> executing = Collections.synchronizedSet(new HashSet<Process>())
+  }
 }
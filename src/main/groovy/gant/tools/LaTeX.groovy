@@ -14,11 +14,28 @@
 
 package gant.tools
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+import org.codehaus.gant.Fingerprint
 import org.codehaus.gant.GantBinding
 
 /**
  *  Provide support for supporting LaTeX document processing.
  *
+ *  <p>LaTeX is run until the auxiliary files, e.g. <code>.aux</code>, <code>.toc</code> and
+ *  <code>.out</code>, are the same after a pass as before it, running BibTeX and Makeindex when their
+ *  inputs change.  The files a document reads are found from the <code>.fls</code> file written by LaTeX
+ *  with <code>-recorder</code>, and a document is only processed again when the content of one of them,
+ *  or of the <code>dependents</code>, changes.</p>
+ *
+ *  <p>The <code>root</code> may be a list of documents, which are then processed concurrently, at most
+ *  <code>threads</code> at once, by default as many as there are processors, each in its own directory
+ *  under <code>outputDirectory</code>, by default <code>build/latex</code>.  For a single document the
+ *  output is written to <code>outputDirectory</code> if given, otherwise to the working directory.</p>
+ *
  *  @author Russel Winder <russel@winder.org.uk>
  */
 class LaTeX {
@@ -37,12 +54,21 @@ class LaTeX {
   public final logExtension = '.log'
   public final tocExtension = '.toc'
   public final pdfBookMarkExtension = '.out'
+  public final lofExtension = '.lof'
+  public final lotExtension = '.lot'
+  public final flsExtension = '.fls'
+  public final dependenciesExtension = '.dependencies'
   public intermediateExtensions = [
     auxExtension, dviExtension, logExtension, tocExtension,
     bblExtension, blgExtension,
     idxExtension, ilgExtension, indExtension,
-    pdfBookMarkExtension
+    pdfBookMarkExtension, lofExtension, lotExtension,
+    flsExtension, dependenciesExtension
     ]
+  /**
+   *  The extensions of the files that must be unchanged by a pass for the document to be complete.
+   */
+  public convergenceExtensions = [ auxExtension, tocExtension, pdfBookMarkExtension, lofExtension, lotExtension, bblExtension, indExtension ]
   public final environment = [
     latexCommand : 'pdflatex',
     latexOptions : [ '-interaction=nonstopmode', '-halt-on-error' ],
@@ -55,8 +81,13 @@ class LaTeX {
     ps2pdfCommand : 'ps2pdf',
     ps2pdfOptions : [ ],
     root : '',
-    dependents : [ ]
+    dependents : [ ],
+    maximumPasses : 5
     ]
+  /**
+   *  The lock for printing the output of commands when processing documents concurrently.
+   */
+  private final outputLock = new Object()
   protected final GantBinding binding
   protected final Execute executor
   /**
@@ -120,10 +151,13 @@ class LaTeX {
    */
   public void addOptions(Map<String,String> keywordOptions) { keywordOptions.each { key, value -> addOption(key, value) } }
   /**
-   *  Perform the LaTeX source compilation.  The source will be processed enough times to ensure that BibTeX
-   *  and Makeindex requirements are completed.
+   *  Perform the LaTeX source compilation of a document, unless the output is up to date.  LaTeX is run
+   *  until the auxiliary files are unchanged by a pass, with BibTeX and Makeindex run whenever their inputs
+   *  have changed.
+   *
+   *  @param environment The build environment of the document.
    */
-  private void executeLaTeX() {
+  private void executeLaTeX(final Map environment) {
     String root = (String) environment.root
     def sourceName = root + ltxExtension
     def sourceFile = new File(sourceName)
@@ -131,51 +165,132 @@ class LaTeX {
       sourceFile = new File(sourceName = root + texExtension)
       if (! sourceFile.exists()) { throw new FileNotFoundException("Neither ${root}.ltx or ${root}.tex exist.") }
     }
-    def targetExtension = environment.latexCommand == 'pdflatex' ? pdfExtension : dviExtension
-    def targetName = root + targetExtension
-    def targetFile = new File(targetName)
-    def needToUpdate = false
-    if (targetFile.exists()) {
-      (environment.dependents + [ sourceName ]).each { dependent ->
-        if (!(dependent instanceof File)) { dependent = new File((String) dependent) }
-        if (dependent.lastModified() > targetFile.lastModified()) { needToUpdate = true }
-      }
-    }
-    else { needToUpdate = true }
-    if (needToUpdate) {
-      def latexAction = [ environment.latexCommand, *environment.latexOptions, sourceName ]
-      def runLaTeX = { executor.executable(latexAction) }
-      def conditionallyRunLaTeX = {
-        def rerun = new File(root + logExtension).text =~ /(Warning:.*Rerun|Warning:.*undefined citations)/
-        if (rerun) { runLaTeX() }
-        rerun
+    final outputDirectory = new File((String) (environment.outputDirectory ?: '.'))
+    outputDirectory.mkdirs()
+    final job = new File(outputDirectory, sourceFile.name[0 ..< sourceFile.name.lastIndexOf('.')]).path
+    final targetFile = new File(job + environment.targetExtension)
+    final dependenciesFile = new File(job + dependenciesExtension)
+    final dependents = (environment.dependents + [ sourceName ]).collect { it instanceof File ? (File) it : new File((String) it) }
+    if (targetFile.exists() && dependenciesFile.exists() && upToDate(dependenciesFile, dependents)) { return }
+    dependenciesFile.delete()
+    def latexAction = [ environment.latexCommand, *environment.latexOptions ]
+    if (! latexAction.contains('-recorder')) { latexAction << '-recorder' }
+    if (environment.outputDirectory) { latexAction << '-output-directory=' + outputDirectory.path }
+    latexAction << sourceName
+    def previousState = hashes(job, convergenceExtensions)
+    def bibtexState = null
+    def makeindexState = null
+    for (int pass = 1 ; ; ++pass) {
+      check(run(environment, latexAction), 0, sourceName)
+      final auxFile = new File(job + auxExtension)
+      if (auxFile.exists() && auxFile.text.contains('\\bibdata')) {
+        final state = hashes(job, [ auxExtension ])
+        if (state != bibtexState || ! new File(job + bblExtension).exists()) {
+          check(run(environment, [ environment.bibtexCommand, *environment.bibtexOptions, job ]), 1, sourceName)
+          bibtexState = state
+        }
       }
-      runLaTeX()
-      def currentDirectory = new File('.')
-      def bibTeXRun = false
-      currentDirectory.eachFileMatch(~/.*.aux/) { auxFile ->
-        if (auxFile.text =~ 'bibdata') {
-          executor.executable([ environment.bibtexCommand, *environment.bibtexOptions, auxFile.name ])
-          bibTeXRun = true
+      if (new File(job + idxExtension).exists()) {
+        final state = hashes(job, [ idxExtension ])
+        if (state != makeindexState) {
+          check(run(environment, [ environment.makeindexCommand, *environment.makeindexOptions, job + idxExtension ]), 0, sourceName)
+          makeindexState = state
         }
       }
-      if (bibTeXRun) {
-        runLaTeX()
-        if (conditionallyRunLaTeX()) { conditionallyRunLaTeX() }
+      final state = hashes(job, convergenceExtensions)
+      if (state == previousState) { break }
+      if (pass >= (int) environment.maximumPasses) { throw new RuntimeException("LaTeX processing of ${sourceName} has not converged after ${pass} passes.") }
+      previousState = state
+    }
+    recordDependencies(new File(job + flsExtension), dependents, dependenciesFile)
+  }
+  /**
+   *  Run a command, buffering its output if documents are being processed concurrently so that the output
+   *  of different documents is not interleaved.
+   *
+   *  @return the return code of the command.
+   */
+  private int run(final Map environment, final List command) {
+    if (! environment.concurrent) { return executor.executable(command) }
+    final lines = [ ]
+    final returnCode = executor.executable(command, outProcessing: { synchronized (lines) { lines << [ System.out, it ] } }, errProcessing: { synchronized (lines) { lines << [ System.err, it ] } })
+    synchronized (outputLock) { lines.each { stream, line -> stream.println(line) } }
+    returnCode
+  }
+  /**
+   *  Fail if a command has returned a return code greater than that allowed.
+   */
+  private static void check(final int returnCode, final int maximumReturnCode, final String sourceName) {
+    if (returnCode > maximumReturnCode) { throw new RuntimeException("LaTeX processing of ${sourceName} failed with return code ${returnCode}.") }
+  }
+  /**
+   *  The hashes of the content of the files of a job with the given extensions that exist.
+   */
+  private static Map<String, String> hashes(final String job, final List<String> extensions) {
+    extensions.collectEntries { extension ->
+      final file = new File(job + extension)
+      file.exists() ? [ (extension): Fingerprint.hashOf(file) ] : [ : ]
+    }
+  }
+  /**
+   *  Record the hashes of the files the document read, as listed in the recorder file, and of the
+   *  dependents.  Files written by LaTeX, e.g. the auxiliary files, are not dependencies.
+   */
+  private static void recordDependencies(final File flsFile, final List<File> dependents, final File dependenciesFile) {
+    final Set<File> files = new TreeSet<File>(dependents*.absoluteFile)
+    if (flsFile.exists()) {
+      def workingDirectory = new File('.')
+      final inputs = [ ]
+      final outputs = [ ] as Set
+      flsFile.eachLine { String line ->
+        if (line.startsWith('PWD ')) { workingDirectory = new File(line.substring(4)) }
+        else if (line.startsWith('INPUT ') || line.startsWith('OUTPUT ')) {
+          def file = new File(line.substring(line.indexOf(' ') + 1))
+          if (! file.absolute) { file = new File(workingDirectory, file.path) }
+          (line.startsWith('INPUT ') ? inputs : outputs) << file.toPath().normalize().toFile()
+        }
       }
-      def makeindexRun = false
-      currentDirectory.eachFileMatch(~/.*.idx/) { idxFIle ->
-        executor.executable([ environment.bibtexCommand, *environment.bibtexOptions, idxFile.name ])
-        makeindexRun = true
+      files.addAll(inputs.findAll { File file -> ! outputs.contains(file) && file.isFile() })
+    }
+    dependenciesFile.text = files.collect { File file -> (file.exists() ? Fingerprint.hashOf(file) : 'missing') + ' ' + file.path + '\n' }.join('')
+  }
+  /**
+   *  Determine whether the files recorded as dependencies, and the dependents, have the content they had
+   *  when the document was last processed.
+   */
+  private static boolean upToDate(final File dependenciesFile, final List<File> dependents) {
+    final recorded = dependenciesFile.readLines().collectEntries { String line -> [ (line.substring(line.indexOf(' ') + 1)): line.substring(0, line.indexOf(' ')) ] }
+    if (! dependents.every { File file -> recorded.containsKey(file.absolutePath) }) { return false }
+    recorded.every { path, hash -> final file = new File((String) path) ; (file.exists() ? Fingerprint.hashOf(file) : 'missing') == hash }
+  }
+  /**
+   *  Process each of the documents named by <code>root</code>, concurrently if there are several.
+   */
+  private void forEachDocument(final Closure process) {
+    if (! (environment.root instanceof List)) {
+      process(new HashMap(environment))
+      return
+    }
+    final roots = (List) environment.root
+    final base = environment.outputDirectory ?: 'build/latex'
+    final threads = environment.threads ? (int) environment.threads : Runtime.runtime.availableProcessors()
+    final executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, roots.size())))
+    try {
+      final futures = roots.collect { documentRoot ->
+        final documentEnvironment = new HashMap(environment)
+        documentEnvironment.root = documentRoot
+        documentEnvironment.outputDirectory = new File((String) base, new File((String) documentRoot).name).path
+        documentEnvironment.concurrent = true
+        executorService.submit({ process(documentEnvironment) } as Callable)
       }
-      if (makeindexRun) { runLaTeX() }
-      runLaTeX()
-      if (conditionallyRunLaTeX()) {
-        if (! conditionallyRunLaTeX()) {
-          throw new RuntimeException('#### Something SERIOUSLY Wrong. ###')
-        }
+      final failures = [ ]
+      roots.eachWithIndex { documentRoot, i ->
+        try { futures[i].get() }
+        catch (final ExecutionException ee) { failures << documentRoot + ': ' + ee.cause.message }
       }
+      if (failures) { throw new RuntimeException('LaTeX processing failed for ' + failures.join('; ')) }
     }
+    finally { executorService.shutdownNow() }
   }
   /**
    *  Create a PDF file from a LaTeX source.
@@ -184,8 +299,9 @@ class LaTeX {
    */
   public void generatePDF(Map<String,String> arguments) {
     arguments.each{key, value -> environment[key] = value}
-    environment.latexCommand = 'pdflatex'
-    executeLaTeX()
+    environment.latexCommand = arguments.latexCommand ?: 'pdflatex'
+    environment.targetExtension = pdfExtension
+    forEachDocument { Map documentEnvironment -> executeLaTeX(documentEnvironment) }
   }
   /**
    *   Create a PostScript file from a LaTeX source.
@@ -194,12 +310,16 @@ class LaTeX {
    */
   public void generatePS(Map<String,String> arguments) {
     arguments.each{key, value -> environment[key] = value}
-    environment.latexCommand = 'latex'
-    executeLaTeX()
-    def dviFile = new File((String) environment.root + dviExtension)
-    def psFile = new File((String) environment.root + psExtension)
-    if ((! psFile.exists()) || (dviFile.lastModified() > psFile.lastModified())) {
-      executor.executable([ environment.dvipsCommand, * environment.dvipsOptions, '-o', psFile.name, dviFile.name ])
+    environment.latexCommand = arguments.latexCommand ?: 'latex'
+    environment.targetExtension = dviExtension
+    forEachDocument { Map documentEnvironment ->
+      executeLaTeX(documentEnvironment)
+      final job = new File((String) (documentEnvironment.outputDirectory ?: '.'), new File((String) documentEnvironment.root).name).path
+      def dviFile = new File(job + dviExtension)
+      def psFile = new File(job + psExtension)
+      if ((! psFile.exists()) || (dviFile.lastModified() > psFile.lastModified())) {
+        check(run(documentEnvironment, [ environment.dvipsCommand, * environment.dvipsOptions, '-o', psFile.path, dviFile.path ]), 0, (String) documentEnvironment.root)
+      }
     }
   }
 }
@@ -14,16 +14,32 @@
 
 package gant.tools
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.tools.ant.Project
+
 import org.codehaus.gant.GantBinding
 import org.codehaus.gant.GantState
+import org.codehaus.gant.MultiProjectBuild
 
 /**
- *  Provides methods for executing processes in all subdirectories of the working directory.
+ *  Provides methods for executing processes in all subdirectories of the working directory, one after the
+ *  other or concurrently.  The return code and duration of the process in each directory are collected so
+ *  that failures can be reported.
  *
  *  @author Russel Winder <russel@winder.org.uk>
  */
 final class Subdirectories {
   private final GantBinding binding ;
+  /**
+   *  The executor of the build scripts of subdirectories in this JVM, created on first use.
+   */
+  private MultiProjectBuild multiProjectBuild = null
   /**
    *  Constructor for the "includeTool <<" usage.
    *
@@ -39,38 +55,211 @@ final class Subdirectories {
    */
   Subdirectories(final GantBinding binding , final Map<String,String> map) { this.binding = binding ; }
   /**
-   *  Run a shell command in a named directory.
+   *  Run a shell command in a named directory.  The output and error streams of the process are drained
+   *  concurrently, so a process writing a lot to both cannot block.
    *
    *  @param command The shell command to execute.
    *  @param directory Path of the directory in which to execute the shell command.
+   *  @return The outcome of the process.
    */
-  void runSubprocess(final String command , final File directory) {
+  Result runSubprocess(final String command , final File directory) {
     binding.ant.project.log("\n============ ${directory} ================" , GantState.VERBOSE)
+    final start = System.nanoTime()
     def process = command.execute(null , directory)
-    if (GantState.verbosity >= GantState.NORMAL) {
-      new InputStreamReader(process.err).eachLine{line -> System.err.println(line)}
-      new InputStreamReader(process.in).eachLine{line -> println(line)}
-    }
-    process.waitFor()
+    if (binding.ant.verbosity >= GantState.NORMAL) { process.waitForProcessOutput((OutputStream) System.out , (OutputStream) System.err) }
+    else { process.waitForProcessOutput(new ByteArrayOutputStream() , new ByteArrayOutputStream()) }
+    new Result(directory: directory , returnCode: process.waitFor() , duration: (System.nanoTime() - start).intdiv(1000000L))
   }
   /**
    *  Run a shell command in all the subdirectories of this one.
    *
    *  @param command The shell command to execute.
+   *  @return The outcomes of the processes.
    */
-  void forAllSubdirectoriesRun(final String command) {
-    new File('.').eachDir{directory -> runSubprocess(command , directory)}
+  Results forAllSubdirectoriesRun(final String command) {
+    final results = []
+    new File('.').eachDir{directory -> results << runSubprocess(command , directory)}
+    report(new Results(results: results))
   }
   /**
    *  Execute an Ant target in all the subdirectories of this one.
    *
    *  @param target The target to execute.
+   *  @return The outcomes of the processes.
    */
-  void forAllSubdirectoriesAnt(final String target) { forAllSubdirectoriesRun('ant ' + target) }
+  Results forAllSubdirectoriesAnt(final String target) { forAllSubdirectoriesRun('ant ' + target) }
   /**
    *  Execute a Gant target in all the subdirectories of this one.
    *
    *  @param target The target to execute.
+   *  @return The outcomes of the processes.
+   */
+  Results forAllSubdirectoriesGant(final String target) { forAllSubdirectoriesRun('gant ' + target) }
+  /**
+   *  Run a shell command in all the subdirectories of this one, several at once.  The output of each
+   *  process is collected and printed when it terminates, so the output of different directories is not
+   *  interleaved.
+   *
+   *  <p>Optional, keyword parameters: <code>threads</code> is the maximum number of processes to execute
+   *  at once, by default the number of processors; <code>directory</code> is the directory whose
+   *  subdirectories are used, by default the working directory; <code>failOnError</code>, if
+   *  <code>true</code>, causes an exception naming the directories in which the command failed to be thrown
+   *  after all the processes have terminated.</p>
+   *
+   *  @param command The shell command to execute.
+   *  @return The outcomes of the processes, in the order of the names of the directories.
+   */
+  Results forAllSubdirectoriesRunParallel(final Map keywordParameters = [:] , final String command) {
+    final threads = keywordParameters['threads'] ? (int) keywordParameters['threads'] : Runtime.runtime.availableProcessors()
+    if (threads < 1) { throw new IllegalArgumentException('threads must be at least 1.') }
+    final directories = []
+    new File((String) (keywordParameters['directory'] ?: '.')).eachDir{directory -> directories << directory}
+    directories.sort{directory -> directory.name}
+    final threadCount = new AtomicInteger()
+    final executor = Executors.newFixedThreadPool(Math.min(threads , Math.max(directories.size() , 1)) , { Runnable runnable ->
+        final thread = new Thread(runnable , 'gant-subdirectories-' + threadCount.incrementAndGet())
+        thread.daemon = true
+        thread
+      } as ThreadFactory)
+    Results results = null
+    try {
+      final futures = directories.collect{directory -> executor.submit({ runCapturingOutput(command , directory) } as Callable<Result>)}
+      results = new Results(results: futures.collect{Future<Result> future ->
+          try { future.get() }
+          catch (final ExecutionException ee) { throw ee.cause }
+        })
+    }
+    finally { executor.shutdownNow() }
+    report(results)
+    if (keywordParameters['failOnError'] && ! results.successful) { throw new RuntimeException('Command ' + command + ' failed in: ' + results.failed*.name.join(', ')) }
+    results
+  }
+  /**
+   *  Execute an Ant target in all the subdirectories of this one, several at once.  The keyword parameters
+   *  are those of <code>forAllSubdirectoriesRunParallel</code>.
+   *
+   *  @param target The target to execute.
+   *  @return The outcomes of the processes, in the order of the names of the directories.
+   */
+  Results forAllSubdirectoriesAntParallel(final Map keywordParameters = [:] , final String target) { forAllSubdirectoriesRunParallel(keywordParameters , 'ant ' + target) }
+  /**
+   *  Execute a Gant target in all the subdirectories of this one, several at once.  The keyword parameters
+   *  are those of <code>forAllSubdirectoriesRunParallel</code>.
+   *
+   *  @param target The target to execute.
+   *  @return The outcomes of the processes, in the order of the names of the directories.
+   */
+  Results forAllSubdirectoriesGantParallel(final Map keywordParameters = [:] , final String target) { forAllSubdirectoriesRunParallel(keywordParameters , 'gant ' + target) }
+  /**
+   *  Execute Gant targets in all the subdirectories of this one that have a build script, in this JVM rather
+   *  than starting a <code>gant</code> process for each, see <code>MultiProjectBuild</code>.  The compiled
+   *  scripts are kept for subsequent calls.
+   *
+   *  <p>Optional, keyword parameters: <code>directory</code> is the directory whose subdirectories are used,
+   *  by default the working directory; <code>file</code> is the name of the build script, by default
+   *  <code>build.gant</code>; <code>failOnError</code>, if <code>true</code>, causes an exception naming the
+   *  directories in which the build failed to be thrown after all the builds.</p>
+   *
+   *  @param targets The target, or list of targets, to execute.
+   *  @return The outcomes of the builds, in the order of the names of the directories.
    */
-  void forAllSubdirectoriesGant(final String target) { forAllSubdirectoriesRun('gant ' + target) }
+  Results forAllSubdirectoriesGantInProcess(final Map keywordParameters = [:] , final targets) {
+    final file = (String) (keywordParameters['file'] ?: 'build.gant')
+    final directories = []
+    new File((String) (keywordParameters['directory'] ?: '.')).eachDir{directory -> if (new File(directory , file).isFile()) { directories << directory }}
+    directories.sort{directory -> directory.name}
+    if (multiProjectBuild == null) { multiProjectBuild = new MultiProjectBuild(binding) }
+    final targetList = targets instanceof List ? ((List) targets)*.toString() : [targets.toString()]
+    final results = new Results(results: directories.collect{File directory ->
+        binding.ant.project.log("\n============ ${directory} ================" , GantState.VERBOSE)
+        final start = System.nanoTime()
+        def returnCode
+        try { returnCode = multiProjectBuild.execute(directory , targetList , file) }
+        catch (final Exception e) {
+          //  A build throwing an exception fails with the return code the gant command gives for an exception.
+          binding.ant.project.log("${directory.name}: ${e.message}" , Project.MSG_ERR)
+          returnCode = -4
+        }
+        new Result(directory: directory , returnCode: returnCode , duration: (System.nanoTime() - start).intdiv(1000000L))
+      })
+    report(results)
+    if (keywordParameters['failOnError'] && ! results.successful) { throw new RuntimeException('Build of ' + targetList.join(' ') + ' failed in: ' + results.failed*.name.join(', ')) }
+    results
+  }
+  /**
+   *  Run a shell command in a named directory collecting its output, and print the output when the process
+   *  terminates.
+   */
+  private Result runCapturingOutput(final String command , final File directory) {
+    final start = System.nanoTime()
+    final output = new ByteArrayOutputStream()
+    final error = new ByteArrayOutputStream()
+    final process = command.execute(null , directory)
+    process.waitForProcessOutput(output , error)
+    final result = new Result(directory: directory , returnCode: process.waitFor() , duration: (System.nanoTime() - start).intdiv(1000000L) , output: output.toString() , error: error.toString())
+    synchronized (this) {
+      binding.ant.project.log("\n============ ${directory} ================" , GantState.VERBOSE)
+      if (binding.ant.verbosity >= GantState.NORMAL) {
+        System.out.print(result.output)
+        System.out.flush()
+        System.err.print(result.error)
+        System.err.flush()
+      }
+    }
+    result
+  }
+  /**
+   *  Log the duration of the process in each directory and the directories in which it failed.
+   */
+  private Results report(final Results results) {
+    results.results.each{result -> binding.ant.project.log("${result.directory.name}: ${result.successful ? 'succeeded' : 'failed with return code ' + result.returnCode} in ${result.duration} ms" , GantState.VERBOSE)}
+    if (! results.successful) { binding.ant.project.log('Failed in: ' + results.failed*.name.join(', ') , Project.MSG_ERR) }
+    results
+  }
+  /**
+   *  The outcome of executing a process in a directory.
+   */
+  static final class Result {
+    /**
+     *  The directory the process was executed in.
+     */
+    File directory
+    /**
+     *  The return code of the process.
+     */
+    int returnCode
+    /**
+     *  The time the process took, in milliseconds.
+     */
+    long duration
+    /**
+     *  The output of the process, if it was collected.
+     */
+    String output
+    /**
+     *  The error output of the process, if it was collected.
+     */
+    String error
+    /**
+     *  Whether the process succeeded, i.e. its return code is zero.
+     */
+    boolean isSuccessful() { returnCode == 0 }
+  }
+  /**
+   *  The outcomes of executing a process in each of several directories.
+   */
+  static final class Results {
+    /**
+     *  The outcome in each directory.
+     */
+    List<Result> results
+    /**
+     *  Whether the process succeeded in all the directories.
+     */
+    boolean isSuccessful() { results.every{result -> result.successful} }
+    /**
+     *  The directories in which the process failed.
+     */
+    List<File> getFailed() { results.findAll{result -> ! result.successful}*.directory }
+  }
 }
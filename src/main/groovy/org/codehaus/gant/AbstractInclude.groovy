@@ -14,6 +14,16 @@
 
 package org.codehaus.gant
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+
+import org.codehaus.gant.jfr.FlightRecorderEvents
+
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.runtime.InvokerHelper
+
 /**
  *  This class is for code sharing between classes doing include activity.
  *
@@ -36,6 +46,11 @@ abstract class AbstractInclude {
    *  constructor parameters are known.
    */
   protected Class<?> pendingClass = null
+  /**
+   *  The script classes compiled ahead of use when a list of files is included, keyed by the file as
+   *  given in the list.
+   */
+  protected final Map<File, Precompiled> precompiled = [:]
   /**
    *  Constructor.
    *
@@ -69,7 +84,12 @@ abstract class AbstractInclude {
    *  @param l The <code>List</code> of things to load (, compile) and instantiate.
    *  @return The includer object to allow for << chaining.
    */
-  public leftShift(final List<?> l) { l.each { item -> this << item } ; this }
+  public leftShift(final List<?> l) {
+    precompile(l.findAll { item -> item instanceof File && !(item.name in loadedClasses) } as List<File>)
+    try { l.each { item -> this << item } }
+    finally { precompiled.clear() }
+    this
+  }
   /**
    *  Implementation of the << operator taking a <code>Object</code> parameter.  This always throws an
    *  exception, it is here to avoid using a type other than <code>Class</code>, <code>File</code>,
@@ -126,20 +146,106 @@ abstract class AbstractInclude {
     try { return theClass.getConstructor(GantBinding, Map).newInstance([ binding, keywordParameters ] as Object[]) }
     catch (NoSuchMethodException nsme) { throw new RuntimeException('Could not initialize ' + theClass.name, nsme) }
   }
+  /**
+   *  Whether files included by this includer contain a class rather than a script.
+   */
+  protected boolean isIncludingClasses() { false }
+  /**
+   *  Compile the files of an included list concurrently, each in its own compilation, so that they can
+   *  then be evaluated in order without waiting for the compiler.  Files are looked for in the Gant library
+   *  path as for a single include.  Any file that cannot be found or compiled here is left to be dealt
+   *  with, and reported, when its turn comes.
+   *
+   *  @param files The <code>File</code>s to compile.
+   */
+  protected void precompile(final List<File> files) {
+    if (files.size() < 2) { return }
+    final asClass = includingClasses
+    final ExecutorService pool = Executors.newFixedThreadPool(Math.min(files.size(), Runtime.runtime.availableProcessors()), { Runnable runnable ->
+        final thread = new Thread(runnable, 'gant-include-compiler')
+        thread.daemon = true
+        thread
+      } as ThreadFactory)
+    try {
+      final results = pool.invokeAll(files.collect { file ->
+          { ->
+            try {
+              if (binding.cacheEnabled && ! asClass) {
+                //  Loading through the cache, with the URL the include uses, leaves the compiled class
+                //  there for when the file is included.
+                if (file.isFile()) { binding.loadClassFromCache.call(file.name.replaceAll(/\./, '_'), file.toURI().toURL()) }
+                return null
+              }
+              final located = locate(file)
+              if (located == null) { return null }
+              new Precompiled(file: located, scriptClass: compile(located, asClass))
+            }
+            catch (Exception e) { null }
+          } as Callable<Precompiled>
+        })
+      [files, results].transpose().each { file, result -> if (result.get() != null) { precompiled[file] = result.get() } }
+    }
+    finally { pool.shutdown() }
+  }
+  /**
+   *  Find a file, searching the Gant library path if it does not exist as given.
+   *
+   *  @param file The <code>File</code> to find.
+   *  @return The file found or <code>null</code> if there is no such file.
+   */
+  protected File locate(final File file) {
+    if (file.isFile()) { return file }
+    for (directory in binding.gantLib) {
+      def possible = new File((String)directory, file.name)
+      if (possible.isFile() && possible.canRead()) { return possible }
+    }
+    null
+  }
+  /**
+   *  Compile a file, as a script named after the file or, for a class, as a script returning the class.
+   *  Each compilation has its own class loader so that compilations can proceed concurrently.
+   */
+  protected Class<?> compile(final File file, final boolean asClass) {
+    final shell = (GroovyShell) binding.groovyShell
+    final classLoader = new GroovyClassLoader(shell.classLoader)
+    final event = FlightRecorderEvents.beginCompilation(file.path)
+    final start = System.nanoTime()
+    try {
+      if (asClass) {
+        final className = file.name.replace('.groovy', '')
+        return classLoader.parseClass(new GroovyCodeSource(file.text + " ; return ${className}", className + '_include', GroovyShell.DEFAULT_CODE_BASE))
+      }
+      classLoader.parseClass(new GroovyCodeSource(file, CompilerConfiguration.DEFAULT.sourceEncoding))
+    }
+    finally {
+      FlightRecorderEvents.end(event)
+      binding.metrics.scriptLoaded(null, System.nanoTime() - start)
+      binding.profiler?.record(Profiler.SCRIPT, 'compile ' + file.name, start)
+    }
+  }
   /**
    *  Make an attempt to evaluate a file, possible as a class.
    *
    *  @param file The <code>File</code> to read.
    *  @param asClass Specify whether the file is to be treated as a class.
+   *  @param scriptClass The already compiled script for the file, or <code>null</code> if it has not been
+   *  compiled.
    *  @return The class read or null if the file is not to be treated as a class.
    */
-  private attemptEvaluate(File file, boolean asClass) {
-    if (asClass) { return binding.groovyShell.evaluate(file.text + " ; return ${file.name.replace('.groovy', '')}") }
+  private attemptEvaluate(File file, boolean asClass, Class<?> scriptClass = null) {
+    binding.scriptLoaded(file.getText(CompilerConfiguration.DEFAULT.sourceEncoding))
+    if (asClass) {
+      if (scriptClass != null) { return InvokerHelper.createScript(scriptClass, binding).run() }
+      return binding.groovyShell.evaluate(file.text + " ; return ${file.name.replace('.groovy', '')}")
+    }
     //
     //  GANT-58 raised the issue of reporting errors correctly.  This means catching and processing
     //  exceptions so as to capture the original location of the error.
     //
-    try { binding.groovyShell.evaluate(file) }
+    try {
+      if (scriptClass != null) { InvokerHelper.createScript(scriptClass, binding).run() }
+      else { binding.groovyShell.evaluate(file) }
+    }
     catch (Exception e) {
       def errorSource = ''
       for (stackEntry in e.stackTrace) {
@@ -160,6 +266,16 @@ abstract class AbstractInclude {
    *  @throws FileNotFoundException when the file cannot be found.
    */
   protected readFile(File file, boolean asClass = false) {
+    final start = System.nanoTime()
+    try { locateAndEvaluate(file, asClass) }
+    finally { binding.profiler?.record(Profiler.SCRIPT, 'include ' + file.name, start) }
+  }
+  /**
+   *  Read a file as for <code>readFile</code>, without profiling.
+   */
+  protected locateAndEvaluate(File file, boolean asClass) {
+    final compiled = precompiled.remove(file)
+    if (compiled != null) { return attemptEvaluate(compiled.file, asClass, compiled.scriptClass) }
     try { return attemptEvaluate(file, asClass) }
     catch (FileNotFoundException fnfe) {
       for (directory in binding.gantLib) {
@@ -169,4 +285,11 @@ abstract class AbstractInclude {
       throw fnfe
     }
   }
+  /**
+   *  A file found for an include together with its compiled script.
+   */
+  protected static final class Precompiled {
+    File file
+    Class<?> scriptClass
+  }
 }
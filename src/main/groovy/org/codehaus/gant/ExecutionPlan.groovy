@@ -0,0 +1,165 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+/**
+ *  The record of a dry run made to plan a build: the targets in the order they complete, the targets each
+ *  depends on, and the Ant tasks each would execute.  Together with the durations of targets measured in
+ *  previous runs this gives an estimate of the duration of the build and its critical path, the chain of
+ *  dependent targets that bounds the elapsed time however many targets are executed concurrently.
+ *
+ *  <p>Planning is done with a parallelism of 1, the methods of this class are called from the thread
+ *  executing the targets.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class ExecutionPlan {
+  /**
+   *  The name of the file, relative to the project base directory, the plan is written to.
+   */
+  public static final String defaultLocation = '.gant/plan.json'
+  /**
+   *  The targets, keyed by name, in the order they complete.
+   */
+  private final Map<String, Node> targets = new LinkedHashMap<String, Node>()
+  /**
+   *  The targets started and not yet completed, innermost first.
+   */
+  private final Deque<Node> started = new ArrayDeque<Node>()
+  /**
+   *  The task invocations started and not yet completed, innermost first.
+   */
+  private final Deque<Map<String, Object>> tasks = new ArrayDeque<Map<String, Object>>()
+  /**
+   *  Record the start of a target.
+   */
+  synchronized void targetStarted(final String name, final String description) {
+    final node = new Node(name: name, description: description)
+    if (! started.empty) { started.peek().dependencies << name }
+    started.push(node)
+  }
+  /**
+   *  Record that the target being planned is up to date and so would not be executed.
+   */
+  synchronized void targetUpToDate() { started.peek()?.upToDate = true }
+  /**
+   *  Record the completion of the innermost target.
+   */
+  synchronized void targetCompleted() {
+    final node = started.pop()
+    targets[node.name] = node
+  }
+  /**
+   *  Record that the innermost target depends on other targets, whether or not they are executed again.
+   */
+  synchronized void dependencies(final List<String> names) {
+    final node = started.peek()
+    if (node != null) { node.dependencies.addAll(names.findAll { name -> name != node.name }) }
+  }
+  /**
+   *  Record the start of the invocation of an Ant task, or of a nested element of one.
+   */
+  synchronized void taskStarted(final String name, final Map<String, Object> attributes) {
+    final Map<String, Object> task = [name: name, attributes: attributes.collectEntries { key, value -> [key, value?.toString()] }, nested: []]
+    if (! tasks.empty) { tasks.peek().nested << task }
+    else { started.peek()?.tasks?.add(task) }
+    tasks.push(task)
+  }
+  /**
+   *  Record the completion of the innermost task invocation.
+   */
+  synchronized void taskCompleted() { tasks.pop() }
+  /**
+   *  Get the names of the targets in the order they complete, i.e. each after those it depends on.
+   */
+  synchronized List<String> getTargetNames() { targets.keySet() as List }
+  /**
+   *  Get the critical path: the chain of targets, each depending on the next, with the greatest total
+   *  estimated duration, or the longest such chain if there are no estimates.  Targets that are up to
+   *  date take no time, targets with no estimate are counted as taking no time.
+   *
+   *  @param durations The estimated duration of each target, in milliseconds.
+   *  @return The targets of the critical path, in the order they are executed.
+   */
+  synchronized List<String> criticalPath(final Map<String, Long> durations) {
+    final Map<String, List<String>> longest = [:]
+    Closure<List<String>> longestFrom
+    longestFrom = { String name, Set<String> visiting ->
+      if (longest.containsKey(name)) { return longest[name] }
+      final node = targets[name]
+      if (node == null || name in visiting) { return [] }
+      visiting << name
+      List<String> best = []
+      for (dependency in node.dependencies) {
+        final candidate = longestFrom(dependency, visiting)
+        if (longer(candidate, best, durations)) { best = candidate }
+      }
+      visiting.remove(name)
+      longest[name] = best + [name]
+    }
+    List<String> path = []
+    for (name in targets.keySet()) {
+      final candidate = longestFrom(name, new HashSet<String>())
+      if (longer(candidate, path, durations)) { path = candidate }
+    }
+    path
+  }
+  /**
+   *  Whether one chain of targets is longer than another: it takes more time, or as much time with more
+   *  targets.
+   */
+  private boolean longer(final List<String> a, final List<String> b, final Map<String, Long> durations) {
+    final difference = total(a, durations) <=> total(b, durations)
+    difference > 0 || (difference == 0 && a.size() > b.size())
+  }
+  /**
+   *  The total estimated duration of a list of targets.
+   */
+  private long total(final List<String> names, final Map<String, Long> durations) {
+    names.sum(0L) { name -> targets[name]?.upToDate ? 0L : (durations[name] ?: 0L) }
+  }
+  /**
+   *  Render the plan as JSON.
+   *
+   *  @param durations The estimated duration of each target, in milliseconds, from previous runs.
+   *  @return The JSON text.
+   */
+  synchronized String toJson(final Map<String, Long> durations) {
+    final path = criticalPath(durations)
+    final plan = [
+      targets: targets.values().collect { node -> [
+          name: node.name,
+          description: node.description,
+          dependencies: node.dependencies as List,
+          upToDate: node.upToDate,
+          estimatedDuration: durations[node.name],
+          tasks: node.tasks,
+        ] },
+      criticalPath: path,
+      estimatedDuration: total(path, durations),
+    ]
+    JsonWriter.render(plan)
+  }
+  /**
+   *  A target of the plan.
+   */
+  private static final class Node {
+    String name
+    String description
+    Set<String> dependencies = new LinkedHashSet<String>()
+    List<Map<String, Object>> tasks = []
+    boolean upToDate = false
+  }
+}
@@ -0,0 +1,264 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+import org.apache.tools.ant.DirectoryScanner
+import org.apache.tools.ant.Project
+import org.apache.tools.ant.types.Resource
+import org.apache.tools.ant.types.ResourceCollection
+import org.apache.tools.ant.types.resources.FileProvider
+
+/**
+ *  Computes fingerprints of the declared inputs and outputs of targets so that a target can be skipped when
+ *  nothing has changed since its last successful execution.
+ *
+ *  <p>The items that can be declared are:</p>
+ *
+ *  <ul>
+ *    <li>a <code>File</code>, or a <code>String</code> path relative to the project base directory, naming a
+ *    file or a directory -- a directory stands for all the files under it;</li>
+ *    <li>a <code>String</code> Ant-style pattern, e.g. <code>'src/**&#47;*.java'</code>;</li>
+ *    <li>an Ant <code>ResourceCollection</code>, e.g. a <code>fileset</code>;</li>
+ *    <li>a <code>Map</code> of property values;</li>
+ *    <li>a <code>Closure</code>, which is called when the fingerprint is computed and its value used;</li>
+ *    <li>a <code>Collection</code> of any of these.</li>
+ *  </ul>
+ *
+ *  <p>Files are fingerprinted by path, length and last modification time, as for <code>make</code>, so
+ *  that checking a large tree is cheap.  Content fingerprints, used to key the build cache, are instead
+ *  computed from the paths relative to the project base directory and the content of the files, so they
+ *  are the same in every checkout of a project.</p>
+ *
+ *  <p>The hashing of files and keys, and the atomic writing of files, used by the caches and indexes Gant
+ *  keeps are also here so that they are done the same way everywhere.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class Fingerprint {
+  /**
+   *  Compute the fingerprint of the inputs and outputs of a target.
+   *
+   *  @param project The <code>Project</code> whose base directory relative paths are resolved against.
+   *  @param inputs The declared inputs.
+   *  @param outputs The declared outputs.
+   *  @return The fingerprint as a hex string.
+   */
+  static String of(final Project project, final inputs, final outputs) {
+    final entries = new TreeSet<String>()
+    collect(project, 'in', inputs, entries, false)
+    collect(project, 'out', outputs, entries, false)
+    digestOf(entries)
+  }
+  /**
+   *  Compute the content fingerprint of items, independent of where the project is and of the
+   *  modification times of its files.
+   *
+   *  @param project The <code>Project</code> whose base directory relative paths are resolved against.
+   *  @param items The declared items.
+   *  @return The fingerprint as a hex string.
+   */
+  static String ofContent(final Project project, final items) {
+    final entries = new TreeSet<String>()
+    collect(project, 'in', items, entries, true)
+    digestOf(entries)
+  }
+  /**
+   *  Get the files that declared items stand for, i.e. the files under the directories and those matching
+   *  the patterns and file resources.  Properties are ignored.
+   *
+   *  @param project The <code>Project</code> whose base directory relative paths are resolved against.
+   *  @param items The declared items.
+   *  @return The files that exist, in order.
+   */
+  static SortedSet<File> files(final Project project, final items) {
+    final files = new TreeSet<File>()
+    collectFiles(project, items, files)
+    files
+  }
+  /**
+   *  Get the path of a file relative to the project base directory, with / as separator.
+   *
+   *  @return The relative path, or <code>null</code> if the file is not under the base directory.
+   */
+  static String relativePath(final Project project, final File file) {
+    final base = project.baseDir.toPath().toAbsolutePath().normalize()
+    final path = file.toPath().toAbsolutePath().normalize()
+    path.startsWith(base) ? base.relativize(path).toString().replace(File.separatorChar, (char) '/') : null
+  }
+  private static String digestOf(final Set<String> entries) {
+    final digest = MessageDigest.getInstance('SHA-256')
+    entries.each { entry -> digest.update(entry.getBytes('UTF-8')) ; digest.update((byte) '\n') }
+    digest.digest().encodeHex().toString()
+  }
+  /**
+   *  Add the fingerprint entries of an item to the set of entries.
+   */
+  private static void collect(final Project project, final String tag, final item, final Set<String> entries, final boolean byContent) {
+    switch (item) {
+     case null : break
+     case Closure : collect(project, tag, ((Closure) item).call(), entries, byContent) ; break
+     case Map : ((Map) item).each { key, value -> entries << "${tag} property ${key}=${value}".toString() } ; break
+     case Collection : ((Collection) item).each { element -> collect(project, tag, element, entries, byContent) } ; break
+     case ResourceCollection :
+      ((ResourceCollection) item).each { Resource resource ->
+        final state = ! resource.exists() ? 'missing' : byContent ? resource.inputStream.withCloseable { stream -> hashOf(stream) } : resource.size + ' ' + resource.lastModified
+        entries << "${tag} resource ${resource.name} ${state}".toString()
+      }
+      break
+     case File : collectFile(project, tag, (File) item, entries, byContent) ; break
+     default :
+      final path = item.toString()
+      if (isPattern(path)) { collectPattern(project, tag, path, entries, byContent) }
+      else { collectFile(project, tag, project.resolveFile(path), entries, byContent) }
+    }
+  }
+  /**
+   *  Add the entries for a file, or for all the files under a directory.
+   */
+  private static void collectFile(final Project project, final String tag, final File file, final Set<String> entries, final boolean byContent) {
+    if (file.isDirectory()) {
+      entries << "${tag} directory ${pathOf(project, file, byContent)}".toString()
+      file.eachFileRecurse { f -> if (f.isFile()) { entries << entryFor(project, tag, f, byContent) } }
+    }
+    else { entries << entryFor(project, tag, file, byContent) }
+  }
+  /**
+   *  Add the entries for all the files matching an Ant-style pattern.
+   */
+  private static void collectPattern(final Project project, final String tag, final String pattern, final Set<String> entries, final boolean byContent) {
+    final File base = patternBase(project, pattern)
+    entries << "${tag} pattern ${pathOf(project, base, byContent)} ${pattern}".toString()
+    matchingFiles(base, pattern).each { file -> entries << entryFor(project, tag, file, byContent) }
+  }
+  /**
+   *  Add the files an item stands for to the set of files.
+   */
+  private static void collectFiles(final Project project, final item, final Set<File> files) {
+    switch (item) {
+     case null : break
+     case Map : break
+     case Closure : collectFiles(project, ((Closure) item).call(), files) ; break
+     case Collection : ((Collection) item).each { element -> collectFiles(project, element, files) } ; break
+     case ResourceCollection :
+      ((ResourceCollection) item).each { Resource resource ->
+        final file = resource.as(FileProvider)?.file
+        if (file?.isFile()) { files << file }
+      }
+      break
+     case File : collectFilesUnder((File) item, files) ; break
+     default :
+      final path = item.toString()
+      if (isPattern(path)) { files.addAll(matchingFiles(patternBase(project, path), path)) }
+      else { collectFilesUnder(project.resolveFile(path), files) }
+    }
+  }
+  private static void collectFilesUnder(final File file, final Set<File> files) {
+    if (file.isDirectory()) { file.eachFileRecurse { f -> if (f.isFile()) { files << f } } }
+    else if (file.isFile()) { files << file }
+  }
+  private static boolean isPattern(final String path) { path.contains('*') || path.contains('?') }
+  /**
+   *  The directory to scan for an Ant-style pattern: the leading part of the pattern without wildcards.
+   */
+  private static File patternBase(final Project project, final String pattern) {
+    final segments = pattern.replace('\\', '/').split('/') as List
+    final wildcardIndex = segments.findIndexOf { it.contains('*') || it.contains('?') }
+    wildcardIndex == 0 ? project.baseDir : project.resolveFile(segments[0 ..< wildcardIndex].join('/') ?: '/')
+  }
+  /**
+   *  The files under the base directory of an Ant-style pattern that match it.
+   */
+  private static List<File> matchingFiles(final File base, final String pattern) {
+    if (! base.isDirectory()) { return [] }
+    final segments = pattern.replace('\\', '/').split('/') as List
+    final wildcardIndex = segments.findIndexOf { it.contains('*') || it.contains('?') }
+    final scanner = new DirectoryScanner(basedir: base, includes: [segments[wildcardIndex .. -1].join('/')] as String[])
+    scanner.scan()
+    scanner.includedFiles.collect { String name -> new File(base, name) }
+  }
+  /**
+   *  The path of a file in an entry: absolute, or relative to the base directory when fingerprinting by
+   *  content so that the fingerprint does not depend on where the project is.
+   */
+  private static String pathOf(final Project project, final File file, final boolean byContent) {
+    byContent ? (relativePath(project, file) ?: file.absolutePath) : file.absolutePath
+  }
+  /**
+   *  The entry for a single file.
+   */
+  private static String entryFor(final Project project, final String tag, final File file, final boolean byContent) {
+    final state = ! file.isFile() ? 'missing' : byContent ? hashOf(file) : file.length() + ' ' + file.lastModified()
+    "${tag} file ${pathOf(project, file, byContent)} ${state}".toString()
+  }
+  /**
+   *  The SHA-256 hash of the content of a stream.
+   *
+   *  @param stream The stream, read to its end but not closed.
+   *  @return The hash as a hex string.
+   */
+  static String hashOf(final InputStream stream) {
+    final digest = MessageDigest.getInstance('SHA-256')
+    final buffer = new byte[8192]
+    for (int count = stream.read(buffer); count >= 0; count = stream.read(buffer)) { digest.update(buffer, 0, count) }
+    digest.digest().encodeHex().toString()
+  }
+  /**
+   *  The SHA-256 hash of the content of a file.
+   *
+   *  @param file The file.
+   *  @return The hash as a hex string.
+   */
+  static String hashOf(final File file) { file.withInputStream { InputStream stream -> hashOf(stream) } }
+  /**
+   *  The SHA-256 hash of a sequence of items, each terminated by a zero byte so that different sequences
+   *  give different keys.
+   *
+   *  @param items The items, their string values are hashed.
+   *  @return The key as a hex string.
+   */
+  static String keyOf(final Collection<?> items) {
+    final digest = MessageDigest.getInstance('SHA-256')
+    items.each { item ->
+      digest.update(item.toString().getBytes('UTF-8'))
+      digest.update((byte) 0)
+    }
+    digest.digest().encodeHex().toString()
+  }
+  /**
+   *  Write a file by writing a temporary file in the same directory and then moving it into place, so the
+   *  file is never seen partially written.
+   *
+   *  @param file The file to write.
+   *  @param write Called with the temporary <code>File</code> to write.
+   */
+  static void writeAtomically(final File file, final Closure<?> write) {
+    final directory = file.absoluteFile.parentFile
+    directory.mkdirs()
+    final temporary = File.createTempFile(file.name, '.tmp', directory)
+    try {
+      write.call(temporary)
+      Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+    finally { temporary.delete() }
+  }
+  /**
+   *  We never want an instance of this class, so the constructor is made private.
+   */
+  private Fingerprint() { }
+}
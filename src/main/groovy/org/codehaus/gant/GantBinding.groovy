@@ -14,10 +14,20 @@
 
 package org.codehaus.gant
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListSet
+import java.util.concurrent.atomic.AtomicLong
+import java.util.function.BiFunction
+import java.util.function.Supplier
+
 import org.apache.tools.ant.BuildListener
 import org.apache.tools.ant.Project
 import org.apache.tools.ant.Target
 
+import org.codehaus.gant.cache.BuildCache
+import org.codehaus.gant.cache.LocalBuildCache
+import org.codehaus.gant.jfr.FlightRecorderEvents
+
 /**
  *  This class is a sub-class of <code>groovy.lang.Binding</code> to provide extra capabilities.  In
  *  particular, all the extra bits needed in the binding for Gant to actually work at all.  Handle this as a
@@ -26,6 +36,27 @@ import org.apache.tools.ant.Target
  *  @author Russel Winder <russel@winder.org.uk>
  */
 public class GantBinding extends Binding implements Cloneable {
+  /**
+   *  The names that a Gant script cannot redefine.
+   */
+  private static final Set<String> readOnlyNames = Collections.unmodifiableSet([
+    'target',
+    'message',
+    'ant',
+    'includeTargets',
+    'includeTool',
+    'targetDescriptions',
+    'setDefaultTarget',
+    'initiatingTarget',
+    'targets',
+    'defaultTarget',
+    'finalizeTarget',
+    'listOfTargetMapsDeclared',
+    'setAllPerTargetPreHooks',
+    'setAllPerTargetPostHooks',
+    'addAllPerTargetPreHooks',
+    'addAllPerTargetPostHooks'
+  ] as HashSet<String>)
   /**
    *  Determine whether we are initializing an instance and so are able to define the read-only items.
    */
@@ -34,10 +65,71 @@ public class GantBinding extends Binding implements Cloneable {
    * A List of BuildListener instances that Gant sends events to.
    */
   private List<BuildListener> buildListeners = []
+  /**
+   *  The executor of targets for this binding, it records which targets have been executed.
+   */
+  private final TargetExecutor targetExecutor = new TargetExecutor(this)
+  /**
+   *  The store of state kept between runs, created on first use.
+   */
+  private StateStore stateStore = null
+  /**
+   *  The targets declared, keyed by the closure each is bound to, giving the name of the target.
+   */
+  private final Map<Closure, String> targetNames = Collections.synchronizedMap(new IdentityHashMap<Closure, String>())
+  /**
+   *  The map of each target declared, keyed by the name of the target.
+   */
+  private final Map<String, Map> targetMaps = Collections.synchronizedMap(new HashMap<String, Map>())
+  /**
+   *  Incremented on every write to the binding, so that results cached from earlier reads can be
+   *  recognized as out of date.
+   */
+  private final AtomicLong generation = new AtomicLong()
+  /**
+   *  The results of <code>closureVariable</code>, including the names with no closure, keyed by name.
+   */
+  private final Map<String, ClosureLookup> closureLookups = new ConcurrentHashMap<String, ClosureLookup>()
+  /**
+   *  The plan being made, if this is a planning run.
+   */
+  private volatile ExecutionPlan executionPlan = null
+  /**
+   *  The profiler recording where the time of the run goes, if profiling.
+   */
+  private volatile Profiler profiler = null
+  /**
+   *  The build cache used by targets declaring <code>cache: true</code>, created on first use.
+   */
+  private BuildCache buildCache = null
+  /**
+   *  The hashes of the sources of the build script and of the scripts it has included so far, which
+   *  define what the targets do and so are part of their build cache keys.
+   */
+  private final Set<String> scriptHashes = new ConcurrentSkipListSet<String>()
+  /**
+   *  The metrics to record targets and scripts in.
+   */
+  private volatile GantMetrics metrics = GantMetrics.shared
+  /**
+   *  For each thread, the targets it is executing, innermost first, with what to exclude from the
+   *  measurements of each: the time and resources spent executing other targets.
+   */
+  private final ThreadLocal<Deque<TargetFrame>> targetFrames = ThreadLocal.withInitial({ new ArrayDeque<TargetFrame>() } as Supplier<Deque<TargetFrame>>)
+  /**
+   *  The resources used by each target executed in this run, excluding those used by other targets.
+   */
+  private final Map<String, ResourceUsage> resourceUsages = new ConcurrentHashMap<String, ResourceUsage>()
+  /**
+   *  The durations of the targets executed in this run, in nanoseconds, excluding the time spent executing
+   *  other targets.
+   */
+  private final Map<String, Long> durations = new ConcurrentHashMap<String, Long>()
   /**
    *  Default constructor.
    */
   public GantBinding() {
+    super(Collections.synchronizedMap(new LinkedHashMap()))
     setVariable('ant', new GantBuilder())
     initializeGantBinding()
   }
@@ -58,9 +150,22 @@ public class GantBinding extends Binding implements Cloneable {
    *  @param p The <code>Project</code> to use when initializing the <code>GantBuilder</code>.
    */
   public GantBinding(final Project p) {
+    super(Collections.synchronizedMap(new LinkedHashMap()))
     setVariable('ant', new GantBuilder(p))
     initializeGantBinding()
   }
+  /**
+   *  Constructor taking the environment to use instead of that of the process, as for a run of the Gant
+   *  daemon on behalf of a client.
+   *
+   *  @param environment The environment, which provides the <code>environment.*</code> Ant properties and
+   *  <code>GANTLIB</code>.
+   */
+  public GantBinding(final Map<String, String> environment) {
+    super(Collections.synchronizedMap(new LinkedHashMap()))
+    setVariable('ant', new GantBuilder())
+    initializeGantBinding(environment)
+  }
   /**
    *  Adds a <code>BuildListener</code> instance to this <code>Gant</code> instance
    */
@@ -80,9 +185,10 @@ public class GantBinding extends Binding implements Cloneable {
   /**
    *  Call a target wrapped in <code>BuildListener</code> event handler.
    */
-  private withTargetEvent(targetName, targetDescription, Closure callable) {
+  private withTargetEvent(targetName, targetDescription, boolean upToDate = false, Closure callable) {
     final antTarget = new Target(name : targetName, project : ant.antProject, description : targetDescription)
     final event = new GantEvent(antTarget, this)
+    event.upToDate = upToDate
     def targetResult = null
     try {
       buildListeners.each{BuildListener b -> b.targetStarted(event)}
@@ -96,16 +202,189 @@ public class GantBinding extends Binding implements Cloneable {
     }
     return targetResult
   }
+  /**
+   *  Determine whether a target that declares inputs and outputs is up to date, i.e. they are as they were
+   *  at the end of the last successful execution of the target.  If it is not, any record of a previous
+   *  execution is discarded.
+   */
+  private boolean isUpToDate(String targetName, Map targetMap) {
+    final key = 'fingerprint.' + targetName
+    if (Fingerprint.of(ant.project, targetMap.inputs, targetMap.outputs) == getStateStore().get(key)) { return true }
+    if (! ant.dryRun) { getStateStore().put(key, null) }
+    false
+  }
+  /**
+   *  Record the inputs and outputs of a target after a successful execution.  Nothing is recorded for a dry
+   *  run as nothing has been executed.
+   */
+  private void recordUpToDate(String targetName, Map targetMap) {
+    if (! ant.dryRun) { getStateStore().put('fingerprint.' + targetName, Fingerprint.of(ant.project, targetMap.inputs, targetMap.outputs)) }
+  }
+  /**
+   *  Compute the build cache key of a target from its declared inputs and the scripts loaded.
+   */
+  private String buildCacheKey(String targetName, Map targetMap) {
+    getBuildCache().keyFor(ant.project, targetName, targetMap.inputs, (String) getVariables().get('gant.version'), scriptHashes)
+  }
+  /**
+   *  Record the source of a script that has been loaded, the build script or an included one, so that
+   *  changing what a target does changes its build cache key.
+   *
+   *  @param text The source of the script.
+   */
+  void scriptLoaded(final String text) { scriptHashes << Fingerprint.keyOf([text]) }
+  /**
+   *  Restore the outputs of a target from the build cache, if there is an entry.  For a dry run the outputs
+   *  are not restored, only whether they could be is determined.
+   */
+  private boolean restoreFromBuildCache(String key, Map targetMap) {
+    ant.dryRun ? getBuildCache().contains(ant.project, key) : getBuildCache().restore(ant.project, key, targetMap.outputs)
+  }
+  /**
+   *  Store the outputs of a target in the build cache after a successful execution.  Nothing is stored
+   *  for a dry run as nothing has been executed.
+   */
+  private void storeInBuildCache(String key, Map targetMap) {
+    if (! ant.dryRun) { getBuildCache().store(ant.project, key, targetMap.outputs) }
+  }
+  /**
+   *  Execute a target, recording its duration if it actually executed, i.e. the body returns true, and
+   *  this is not a dry run.  The time spent executing other targets is excluded.  The resources used are
+   *  recorded whatever the outcome, excluding those used by other targets executed by this thread, as are
+   *  the profile and Flight Recorder events.  Measuring the resources is not free, so they are only
+   *  measured when they are reported, i.e. when verbose or when a Flight Recorder recording of targets is
+   *  being made.
+   */
+  private void timeTarget(String targetName, Closure<Boolean> body) {
+    final frames = targetFrames.get()
+    final frame = new TargetFrame()
+    frames.push(frame)
+    final event = FlightRecorderEvents.beginTarget(targetName)
+    final accounting = event != null || ant.verbosity >= GantState.VERBOSE
+    final usageAtStart = accounting ? ResourceUsage.current() : null
+    final start = System.nanoTime()
+    def executed = false
+    try {
+      executed = body.call()
+      final elapsed = System.nanoTime() - start
+      if (executed && ! ant.dryRun) { durations[targetName] = elapsed - frame.excludedTime }
+      metrics.targetCompleted(executed, elapsed)
+    }
+    finally {
+      frames.pop()
+      if (accounting) {
+        final usage = ResourceUsage.current().minus(usageAtStart)
+        final ownUsage = usage.minus(frame.excludedUsage)
+        resourceUsages.merge(targetName, ownUsage, { a, b -> a.plus(b) } as BiFunction)
+        if (! frames.empty) { frames.peek().excludedUsage = frames.peek().excludedUsage.plus(usage) }
+        FlightRecorderEvents.endTarget(event, ! executed, ownUsage)
+      }
+      profiler?.record(Profiler.TARGET, targetName, start, frame.excludedTime)
+    }
+  }
+  /**
+   *  Exclude time from the duration of the target the current thread is executing, used for the time spent
+   *  executing the targets it depends on or calls.
+   *
+   *  @param nanoseconds The time to exclude.
+   */
+  void excludeFromTargetDuration(final long nanoseconds) {
+    final frame = targetFrames.get().peek()
+    if (frame != null) { frame.excludedTime += nanoseconds }
+  }
+  /**
+   *  Render a table of the resources used by each target executed so far, excluding those used by the
+   *  targets it depends on, in decreasing order of CPU time.  Garbage collection figures are for the
+   *  whole JVM while the target was executing.
+   *
+   *  @return The table, empty if no target has been executed.
+   */
+  String resourceSummary() {
+    if (resourceUsages.isEmpty()) { return '' }
+    final rows = resourceUsages.entrySet().sort { a, b -> b.value.cpuTime <=> a.value.cpuTime }.collect { entry -> [
+        entry.key,
+        String.format('%.1f ms', entry.value.cpuTime / 1e6d),
+        String.format('%.1f MB', entry.value.allocatedBytes / 1048576d),
+        entry.value.gcTime + ' ms',
+        entry.value.gcCount.toString(),
+      ] }
+    rows.add(0, ['Target', 'CPU time', 'Allocated', 'GC time', 'GCs'])
+    final widths = (0 ..< 5).collect { i -> rows.collect { row -> row[i].size() }.max() }
+    rows.collect { row ->
+      ' ' + row[0].padRight(widths[0]) + (1 ..< 5).collect { i -> '  ' + row[i].padLeft(widths[i]) }.join('')
+    }.join('\n')
+  }
+  /**
+   *  Save the durations of the targets executed so far as estimates for planning later runs.  They are
+   *  only saved if the project already has a state store, so that a project not using up to date checks
+   *  is not given one.
+   */
+  void saveDurations() {
+    if (durations.isEmpty()) { return }
+    final store = getStateStore()
+    if (store.file.isFile()) {
+      store.putAll(durations.collectEntries { name, nanoseconds -> ['duration.' + name, Long.toString(nanoseconds.intdiv(1000000L))] })
+    }
+    durations.clear()
+  }
+  /**
+   *  Get the estimated durations of targets from previous runs.
+   *
+   *  @param targetNames The targets to get estimates for.
+   *  @return The durations in milliseconds of those targets that have an estimate.
+   */
+  Map<String, Long> estimatedDurations(final Collection<String> targetNames) {
+    final store = getStateStore()
+    targetNames.inject([:]) { estimates, name ->
+      final value = store.get('duration.' + name)
+      if (value?.isLong()) { estimates[name] = value.toLong() }
+      estimates
+    }
+  }
+  /**
+   *  Determine whether a closure is a declared target.
+   */
+  boolean isTarget(final Closure<?> closure) { targetNames.containsKey(closure) }
+  /**
+   *  Add the default prehook and posthook to the map of a target that does not specify its own.  This is
+   *  done on first need rather than on declaration so that declaring a target costs as little as possible.
+   */
+  private void addDefaultHooks(Map targetMap) {
+    synchronized (targetMap) {
+      final targetName = targetMap.name
+      if (! targetMap.containsKey('prehook')) { targetMap.prehook = [{-> ant.project.log(targetName + ':')}] }
+      if (! targetMap.containsKey('posthook')) { targetMap.posthook = [{-> ant.project.log('------ ' + targetName)}] }
+    }
+  }
+  /**
+   *  Get the name of the target that is bound to a closure.
+   *
+   *  @param closure The closure to find.
+   *  @return The name of the target or <code>null</code> if the closure is not a target.
+   */
+  String targetName(final Closure<?> closure) {
+    def name = targetNames[closure]
+    if (name == null) {
+      //  Not a target, but the name of another variable with the closure as value can still be used.
+      synchronized (variables) { variables.each { key, value -> if (name == null && value.is(closure)) { name = key } } }
+    }
+    name
+  }
   /**
    *  Method holding all the code common to all construction.
+   *
+   *  @param environment The environment to use, <code>null</code> for that of the process.
    */
-  private void initializeGantBinding() {
-    //  Do not allow the output of the ant.property call to escape.  If the output is allowed out then Ant,
-    //  Gant, Maven, Eclipse and IntelliJ IDEA all behave slightly differently.  This makes testing nigh on
-    //  impossible.  Also the user doesn't need to know about these.
-    ant.logger.messageOutputLevel = GantState.SILENT
-    ant.property(environment : 'environment')
-    ant.logger.messageOutputLevel = GantState.verbosity
+  private void initializeGantBinding(final Map<String, String> environment = null) {
+    if (environment == null) {
+      //  Do not allow the output of the ant.property call to escape.  If the output is allowed out then Ant,
+      //  Gant, Maven, Eclipse and IntelliJ IDEA all behave slightly differently.  This makes testing nigh on
+      //  impossible.  Also the user doesn't need to know about these.
+      ant.logger.messageOutputLevel = GantState.SILENT
+      ant.property(environment : 'environment')
+      ant.logger.messageOutputLevel = ant.verbosity
+    }
+    else { environment.each { name, value -> ant.project.setProperty('environment.' + name, value) } }
     super.setVariable('includeTargets', new IncludeTargets(this))
     super.setVariable('includeTool', new IncludeTool(this))
     super.setVariable('globalPreHook', null)
@@ -113,6 +392,10 @@ public class GantBinding extends Binding implements Cloneable {
     super.setVariable('terminateHook', {int returnValue, String elapseTime ->
         owner.ant.project.log('\nBUILD ' +(returnValue == 0 ? 'SUCCESSFUL' : 'FAILED'))
         owner.ant.project.log('Total time: ' + elapseTime)
+        if (owner.ant.verbosity >= GantState.VERBOSE) {
+          final summary = owner.resourceSummary()
+          if (summary) { owner.ant.project.log('\nResources used by targets:\n' + summary) }
+        }
       })
     super.setVariable('listOfTargetMapsDeclared', [ ])
     super.setVariable('target', {Map<String, String> map, Closure closure ->
@@ -139,22 +422,9 @@ public class GantBinding extends Binding implements Cloneable {
           targetMap.putAll(map)
         }
         if (! targetName) { throw new RuntimeException('Target specified without a name.') }
-        try {
-          owner.getVariable((String)targetName)
-          //
-          //  Exceptions thrown in this Closure appear not to cause execution to enter an error path.  Must
-          //  find out how to throw an exception from a Closure.
-          //
-          //throw new RuntimeException("Attempt to redefine " + targetName)
-          //
-          owner.binding.ant.project.log('Warning, target causing name overwriting of name ' + targetName, Project.MSG_WARN)
-          //System.exit(-101)
-        }
-        catch (MissingPropertyException mpe) { /* Intentionally empty */ }
         if (targetDescription) { targetDescriptions.put(targetName, targetDescription) }
-        closure.metaClass = new GantMetaClass(closure.metaClass, owner)
-        if (! targetMap.containsKey('prehook')) { targetMap.prehook = [{-> owner.ant.project.log(targetName + ':')}] }
-        if (! targetMap.containsKey('posthook')) { targetMap.posthook = [{-> owner.ant.project.log('------ ' + targetName)}] }
+        //  The metaclass and default hooks are only created for targets that are executed, see below.
+        if (targetMap.containsKey('addprehook') || targetMap.containsKey('addposthook')) { owner.addDefaultHooks(targetMap) }
         if (targetMap.containsKey('addprehook')) {
           if (targetMap.prehook instanceof Closure) { targetMap.prehook = [targetMap.prehook] }
           if (targetMap.addprehook instanceof List) { targetMap.prehook += targetMap.addprehook }
@@ -165,7 +435,17 @@ public class GantBinding extends Binding implements Cloneable {
           if (targetMap.addposthook instanceof List) { targetMap.posthook = targetMap.addposthook + targetMap.posthook }
           else { targetMap.posthook = [targetMap.addposthook] + targetMap.posthook }
         }
+        final checkUpToDate = targetMap.containsKey('inputs') || targetMap.containsKey('outputs')
+        final cached = targetMap.cache as boolean
+        if (cached && ! (targetMap.containsKey('inputs') && targetMap.containsKey('outputs'))) { throw new RuntimeException('Target ' + targetName + ' uses the build cache but does not declare inputs and outputs.') }
+        final GantBinding gantBinding = owner
         final targetClosure =  {
+          synchronized (targetMap) {
+            if (!(closure.metaClass instanceof GantMetaClass)) {
+              closure.metaClass = new GantMetaClass(closure.metaClass, gantBinding)
+              gantBinding.addDefaultHooks(targetMap)
+            }
+          }
           def returnCode = 0
           def runHooks = {hook, String label ->
             if (hook) {
@@ -179,15 +459,42 @@ public class GantBinding extends Binding implements Cloneable {
               else { owner.ant.project.log(label + ' not a closure or list (of closures).', Project.MSG_ERR) }
             }
           }
-          runHooks(owner.globalPreHook, 'Global prehook')
-          runHooks(targetMap.prehook, 'Target prehook')
-          withTargetEvent(targetName, targetDescription) { returnCode = closure(targetMap) }
-          runHooks(targetMap.posthook, 'Target posthook')
-          runHooks(owner.globalPostHook, 'Global posthook')
+          final plan = gantBinding.executionPlan
+          plan?.targetStarted(targetName, targetDescription)
+          try {
+            gantBinding.timeTarget(targetName) {
+              //  Dependencies declared in the map are executed first, so that they are executed even if
+              //  this target turns out to be up to date.
+              if (targetMap.depends) { closure.metaClass.invokeMethod(closure, 'depends', [targetMap.depends] as Object[]) }
+              runHooks(owner.globalPreHook, 'Global prehook')
+              runHooks(targetMap.prehook, 'Target prehook')
+              final upToDate = checkUpToDate && owner.isUpToDate(targetName, targetMap)
+              final cacheKey = cached && ! upToDate ? owner.buildCacheKey(targetName, targetMap) : null
+              final restored = cacheKey != null && owner.restoreFromBuildCache(cacheKey, targetMap)
+              if (upToDate || restored) {
+                plan?.targetUpToDate()
+                final message = upToDate ? ' is up to date.' : owner.ant.dryRun ? ' would be restored from the build cache.' : ' restored from the build cache.'
+                withTargetEvent(targetName, targetDescription, true) { owner.ant.project.log('Target ' + targetName + message) }
+                if (restored) { owner.recordUpToDate(targetName, targetMap) }
+              }
+              else {
+                withTargetEvent(targetName, targetDescription) { returnCode = closure(targetMap) }
+                //  As for dispatch, a target fails if it returns a non-zero number.
+                final succeeded = ! (returnCode instanceof Number) || returnCode.intValue() == 0
+                if (checkUpToDate && succeeded) { owner.recordUpToDate(targetName, targetMap) }
+                if (cacheKey != null && succeeded) { owner.storeInBuildCache(cacheKey, targetMap) }
+              }
+              runHooks(targetMap.posthook, 'Target posthook')
+              runHooks(owner.globalPostHook, 'Global posthook')
+              ! (upToDate || restored)
+            }
+          }
+          finally { plan?.targetCompleted() }
           returnCode
         }
         owner.setVariable((String) targetName, targetClosure)
-        owner.setVariable(targetName + '_description', targetDescription)  //  For backward compatibility.
+        owner.targetNames[targetClosure] = targetName
+        owner.targetMaps[targetName] = targetMap
         owner.getVariable('listOfTargetMapsDeclared') << targetMap
      })
     super.setVariable('setAllPerTargetPreHooks', { item ->
@@ -197,10 +504,16 @@ public class GantBinding extends Binding implements Cloneable {
       for (tgt in listOfTargetMapsDeclared) { tgt.posthook = item }
     })
     super.setVariable('addAllPerTargetPreHooks', { item ->
-      for (tgt in listOfTargetMapsDeclared) { tgt.prehook << item }
+      for (tgt in listOfTargetMapsDeclared) {
+        owner.addDefaultHooks(tgt)
+        tgt.prehook << item
+      }
     })
     super.setVariable('addAllPerTargetPostHooks', { item ->
-      for (tgt in listOfTargetMapsDeclared) { tgt.posthook << item }
+      for (tgt in listOfTargetMapsDeclared) {
+        owner.addDefaultHooks(tgt)
+        tgt.posthook << item
+      }
     })
     super.setVariable('task', {Map<String, String> map, Closure closure ->
       owner.ant.project.log('task has now been removed from Gant, please update your Gant files to use target instead of task.', Project.MSG_ERR)
@@ -215,8 +528,7 @@ public class GantBinding extends Binding implements Cloneable {
     super.setVariable('setDefaultTarget', {defaultTarget -> // Deal with Closure or String arguments.
          switch (defaultTarget.class) {
           case Closure :
-           String defaultTargetName = null
-           owner.variables.each{key, value -> if (value.is(defaultTarget)) { defaultTargetName = key }}
+           final defaultTargetName = owner.targetName(defaultTarget)
            if (defaultTargetName == null) { throw new RuntimeException('Parameter to setDefaultTarget method is not a known target.') }
            else { owner.forcedSettingOfVariable('defaultTarget', defaultTargetName) }
            break
@@ -231,8 +543,7 @@ public class GantBinding extends Binding implements Cloneable {
     super.setVariable('setFinalizeTarget', {finalizeTarget -> // Deal with Closure or String arguments.
          switch (finalizeTarget.class) {
           case Closure :
-           String finalizeTargetName = null
-           owner.variables.each{key, value -> if (value.is(finalizeTarget)) { finalizeTargetName = key }}
+           final finalizeTargetName = owner.targetName(finalizeTarget)
            if (finalizeTargetName == null) { throw new RuntimeException('Parameter to setFinalizeTarget method is not a known target.') }
            else { owner.forcedSettingOfVariable('finalizeTarget', finalizeTargetName) }
            break
@@ -245,7 +556,7 @@ public class GantBinding extends Binding implements Cloneable {
       })
     super.setVariable('finalizeTarget', 'finalize')
     super.setVariable('cacheEnabled', false)
-    final item = System.getenv().GANTLIB ;
+    final item = (environment == null ? System.getenv() : environment).GANTLIB ;
     if (item == null) { gantLib = [] }
     else { gantLib = Arrays.asList(item.split(System.properties.'path.separator')) }
     initializing = false
@@ -254,13 +565,53 @@ public class GantBinding extends Binding implements Cloneable {
    *  The method for getting values from the binding.  Ensures that Ant properties appear to be in the binding object.
    */
   Object getVariable(final String name) {
-    def returnValue
-    try { returnValue = super.getVariable(name) }
-    catch (final MissingPropertyException mpe) {
-      returnValue = super.getVariable('ant')?.project?.getProperty(name)
-      if (returnValue == null) { throw mpe }
+    //  Targets executing in worker threads must each use their own GantBuilder.
+    if (name == 'ant') {
+      final workerBuilder = targetExecutor.workerBuilder
+      if (workerBuilder != null) { return workerBuilder }
+    }
+    //  Look before getting so that getting a defined name does not involve an exception.
+    final variables = getVariables()
+    final value = variables.get(name)
+    if (value != null || variables.containsKey(name)) { return value }
+    //  For backward compatibility the description of target x is available as x_description.
+    if (name.endsWith('_description')) {
+      final targetMap = targetMaps[name[0 ..< -'_description'.length()]]
+      if (targetMap != null) { return targetMap.description }
     }
-    returnValue
+    final property = variables.get('ant')?.project?.getProperty(name)
+    if (property == null) { throw new MissingPropertyException(name, this.getClass()) }
+    property
+  }
+  /**
+   *  Get the closure that is the value of a name, without throwing an exception if there is none.  This
+   *  is the lookup made for every method call in a target, so results are cached until the binding is next
+   *  written.
+   *
+   *  @param name The symbol to look up.
+   *  @return The closure or <code>null</code> if the value of the name is not a closure.
+   */
+  Closure<?> closureVariable(final String name) {
+    final current = generation.get()
+    def lookup = closureLookups[name]
+    if (lookup == null || lookup.generation != current) {
+      final value = getVariables().get(name)
+      lookup = new ClosureLookup(generation: current, closure: value instanceof Closure ? (Closure<?>) value : null)
+      closureLookups[name] = lookup
+    }
+    lookup.closure
+  }
+  /**
+   *  Determine whether a name has a value, in the same way as <code>getVariable</code>, i.e. including
+   *  target descriptions and Ant properties.
+   *
+   *  @param name The symbol to look for.
+   *  @return Whether there is a value for the symbol.
+   */
+  boolean hasVariable(final String name) {
+    if (super.hasVariable(name)) { return true }
+    if (name.endsWith('_description') && targetMaps.containsKey(name[0 ..< -'_description'.length()])) { return true }
+    super.getVariable('ant')?.project?.getProperty(name) != null
   }
   /**
    *  The method for setting values in the binding.  Ensures that read-only values cannot be reset after
@@ -270,25 +621,9 @@ public class GantBinding extends Binding implements Cloneable {
    *  @param value The value to associate with the name.
    */
   void setVariable(final String name, final Object value) {
-    if (! initializing && [
-                            'target',
-                            'message',
-                            'ant',
-                            'includeTargets',
-                            'includeTool',
-                            'targetDescriptions',
-                            'setDefaultTarget',
-                            'initiatingTarget',
-                            'targets',
-                            'defaultTarget',
-                            'finalizeTarget',
-                            'listOfTargetMapsDeclared',
-                            'setAllPerTargetPreHooks',
-                            'setAllPerTargetPostHooks',
-                            'addAllPerTargetPreHooks',
-                            'addAllPerTargetPostHooks'
-                            ].contains(name)) { throw new RuntimeException('Cannot redefine symbol ' + name) }
+    if (! initializing && readOnlyNames.contains(name)) { throw new RuntimeException('Cannot redefine symbol ' + name) }
     super.setVariable(name, value)
+    generation.incrementAndGet()
   }
   /**
    *  <code>setVariable</code> includes tests for certain names so as to make them read only as far as the
@@ -298,9 +633,90 @@ public class GantBinding extends Binding implements Cloneable {
    *
    *  @param ant the <code>GantBuilder</code> to assign to the 'ant' entry in the binding.
    */
-  void forcedSettingOfVariable(final String name, final Object value) { super.setVariable(name, value) }
+  void forcedSettingOfVariable(final String name, final Object value) {
+    super.setVariable(name, value)
+    generation.incrementAndGet()
+  }
   /**
    *  Getter for the list of build listeners.  Used in {@code gant.Gant.withBuildListeners}.
    */
   List<BuildListener> getBuildListeners() { buildListeners }
+  /**
+   *  Getter for the executor of targets.  Used in {@code GantMetaClass} and {@code gant.Gant}.
+   */
+  TargetExecutor getTargetExecutor() { targetExecutor }
+  /**
+   *  Getter for the store of state kept between runs.  Unless set explicitly, the store is the file
+   *  <code>StateStore.defaultLocation</code> in the base directory of the project.
+   */
+  synchronized StateStore getStateStore() {
+    if (stateStore == null) { stateStore = new StateStore(new File(getAntBuilder().project.baseDir, StateStore.defaultLocation)) }
+    stateStore
+  }
+  /**
+   *  Setter for the store of state kept between runs.
+   */
+  synchronized void setStateStore(final StateStore store) { stateStore = store }
+  /**
+   *  Getter for the build cache.  Unless set explicitly, the cache is kept in the default directory of
+   *  <code>LocalBuildCache</code>.
+   */
+  synchronized BuildCache getBuildCache() {
+    if (buildCache == null) { buildCache = new BuildCache(new LocalBuildCache()) }
+    buildCache
+  }
+  /**
+   *  Setter for the build cache, for example to use a cache shared between machines.
+   */
+  synchronized void setBuildCache(final BuildCache cache) { buildCache = cache }
+  /**
+   *  Getter for the plan being made, <code>null</code> unless this is a planning run.
+   */
+  ExecutionPlan getExecutionPlan() { executionPlan }
+  /**
+   *  Setter for the plan being made.  Ant tasks are recorded in the plan rather than executed.
+   */
+  void setExecutionPlan(final ExecutionPlan plan) {
+    executionPlan = plan
+    getAntBuilder().executionPlan = plan
+  }
+  /**
+   *  Getter for the metrics this binding records in, by default <code>GantMetrics.shared</code>.
+   */
+  GantMetrics getMetrics() { metrics }
+  /**
+   *  Setter for the metrics this binding records in, for example to keep the metrics of a build service
+   *  separate from those of other uses of Gant in the same JVM.
+   */
+  void setMetrics(final GantMetrics metrics) { this.metrics = metrics }
+  /**
+   *  Getter for the profiler, <code>null</code> unless profiling.
+   */
+  Profiler getProfiler() { profiler }
+  /**
+   *  Setter for the profiler.  Ant task invocations are recorded as well as targets.
+   */
+  void setProfiler(final Profiler profiler) {
+    this.profiler = profiler
+    getAntBuilder().profiler = profiler
+  }
+  /**
+   *  Getter for the <code>GantBuilder</code> assigned to 'ant', i.e. the one used by the thread executing the
+   *  script rather than that of a worker thread.
+   */
+  GantBuilder getAntBuilder() { (GantBuilder) super.getVariable('ant') }
+  /**
+   *  The result of looking up a closure in the binding, valid until the binding is next written.
+   */
+  private static final class ClosureLookup {
+    long generation
+    Closure<?> closure
+  }
+  /**
+   *  A target being executed by a thread, with the time and resources to exclude from its measurements.
+   */
+  private static final class TargetFrame {
+    long excludedTime = 0L
+    ResourceUsage excludedUsage = ResourceUsage.NONE
+  }
 }
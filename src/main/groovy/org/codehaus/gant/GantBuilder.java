@@ -15,8 +15,10 @@
 package org.codehaus.gant;
 
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 //////////////////////////////////////////////////////////////////////////////////////////////////////////
 //  In Groovy 1.7.x Closure was a type, in Groovy 1.8.x Closure is a parameterized type.
@@ -29,8 +31,11 @@ import groovy.util.AntBuilder;
 
 import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.BuildLogger;
+import org.apache.tools.ant.ComponentHelper;
 import org.apache.tools.ant.Project;
 
+import org.codehaus.gant.jfr.FlightRecorderEvents;
+
 /**
  *  This class is a sub-class of {@code AntBuilder} to provide extra capabilities.  In particular, a
  *  dry-run capability, and things to help support interaction between Gant and the underlying
@@ -39,6 +44,30 @@ import org.apache.tools.ant.Project;
  *  @author Russel Winder
  */
 public class GantBuilder extends AntBuilder {
+  /**
+   *  Whether this is a dry run, i.e. no tasks are actually executed.  Defaults to {@code GantState.dryRun}.
+   */
+  private volatile boolean dryRun = GantState.dryRun;
+  /**
+   *  The verbosity of execution.  Defaults to {@code GantState.verbosity}.
+   */
+  private volatile int verbosity = GantState.verbosity;
+  /**
+   *  The results of {@code isAntTask}.  A name that is a task or type maps to {@code isDefined}, one that
+   *  is not maps to the number of definitions there were when it was looked up: definitions are only ever
+   *  added, by {@code taskdef}, {@code typedef} and the like, so the result stands until that number
+   *  changes.
+   */
+  private final Map<String, Integer> componentLookups = new ConcurrentHashMap<String, Integer>();
+  private static final Integer isDefined = -1;
+  /**
+   *  The plan in which to record tasks during a planning run, {@code null} otherwise.
+   */
+  private volatile ExecutionPlan executionPlan = null;
+  /**
+   *  The profiler in which to record task invocations, {@code null} if not profiling.
+   */
+  private volatile Profiler profiler = null;
   /**
    *  Constructor that uses the default project.
    */
@@ -67,8 +96,22 @@ public class GantBuilder extends AntBuilder {
    *  @return The value returned by the method call or null if no value is returned.
    */
   @Override public Object invokeMethod(final String name, final Object arguments) {
-    if (GantState.dryRun) {
-      if (GantState.verbosity > GantState.SILENT) {
+    if (dryRun && (executionPlan != null)) {
+      final Object[] args = (Object[]) arguments;
+      final Map<String, Object> attributes = new LinkedHashMap<>();
+      if ((args.length > 0) && (args[0] instanceof Map<?,?>)) {
+        for (final Map.Entry<?,?> e : ((Map<?,?>) args[0]).entrySet()) { attributes.put(String.valueOf(e.getKey()), e.getValue()); }
+      }
+      else if ((args.length > 0) && !(args[0] instanceof Closure)) { attributes.put("text", args[0]); }
+      executionPlan.taskStarted(name, attributes);
+      try {
+        if ((args.length > 0) && (args[args.length - 1] instanceof Closure)) { callNested((Closure<?>) args[args.length - 1]); }
+      }
+      finally { executionPlan.taskCompleted(); }
+      return null;
+    }
+    if (dryRun) {
+      if (verbosity > GantState.SILENT) {
         final StringBuilder sb = new StringBuilder();
         int padding = 9 - name.length();
         if (padding < 0) { padding = 0; }
@@ -89,14 +132,96 @@ public class GantBuilder extends AntBuilder {
           }
           sb.append('\n');
           getProject().log(sb.toString());
-          if (args.length == 2) {((Closure<?>) args[1]).call(); }
+          if (args.length == 2) { callNested((Closure<?>) args[1]); }
         }
-        else if (args[0] instanceof Closure) { ((Closure<?>) args[0]).call(); }
+        else if (args[0] instanceof Closure) { callNested((Closure<?>) args[0]); }
         else { throw new RuntimeException("Unexpected type of parameter to method " + name); }
       }
       return null;
     }
-    return super.invokeMethod(name, arguments);
+    final Object event = FlightRecorderEvents.beginTask(name);
+    if ((profiler == null) && (event == null)) { return super.invokeMethod(name, arguments); }
+    final long start = System.nanoTime();
+    try { return super.invokeMethod(name, arguments); }
+    finally {
+      FlightRecorderEvents.end(event);
+      if (profiler != null) { profiler.record(Profiler.TASK, name, start); }
+    }
+  }
+  /**
+   *  Call the closure of nested elements of a task that is not executed.  As when the task is executed, the
+   *  builder is the delegate so that nested elements are found whatever the owner of the closure.
+   */
+  private void callNested(final Closure<?> closure) {
+    closure.setDelegate(this);
+    closure.call();
+  }
+  /**
+   *  Determine whether a name is that of an Ant task or type of the {@code Project}, i.e. whether a call
+   *  of a method of that name can be handled by this builder.
+   *
+   *  @param name The name of the method.
+   *  @return {@code true} if the name is a task or type.
+   */
+  public boolean isAntTask(final String name) {
+    final ComponentHelper helper = ComponentHelper.getComponentHelper(getProject());
+    final Integer definitionCount = helper.getAntTypeTable().size();
+    final Integer known = componentLookups.get(name);
+    if (isDefined.equals(known) || definitionCount.equals(known)) { return isDefined.equals(known); }
+    final boolean defined = helper.getDefinition(name) != null;
+    componentLookups.put(name, defined ? isDefined : definitionCount);
+    return defined;
+  }
+  /**
+   *  Setter for the plan in which to record tasks rather than executing them.  Only used in a dry run.
+   *
+   *  @param executionPlan The plan or {@code null} to stop recording.
+   */
+  public void setExecutionPlan(final ExecutionPlan executionPlan) { this.executionPlan = executionPlan; }
+  /**
+   *  Setter for the profiler in which to record task invocations.
+   *
+   *  @param profiler The profiler or {@code null} to stop recording.
+   */
+  public void setProfiler(final Profiler profiler) { this.profiler = profiler; }
+  /**
+   *  Accessor for whether this is a dry run.
+   *
+   *  @return {@code true} if tasks are not actually executed.
+   */
+  public boolean isDryRun() { return dryRun; }
+  /**
+   *  Setter for whether this is a dry run.
+   *
+   *  @param dryRun {@code true} if tasks are not to be actually executed.
+   */
+  public void setDryRun(final boolean dryRun) { this.dryRun = dryRun; }
+  /**
+   *  Accessor for the verbosity of execution.
+   *
+   *  @return The verbosity, one of the levels defined in {@code GantState}.
+   */
+  public int getVerbosity() { return verbosity; }
+  /**
+   *  Setter for the verbosity of execution.  This does not change the message output level of the logger.
+   *
+   *  @param verbosity The verbosity, one of the levels defined in {@code GantState}.
+   */
+  public void setVerbosity(final int verbosity) { this.verbosity = verbosity; }
+  /**
+   *  Create a {@code GantBuilder} for use by another thread, sharing the {@code Project} and settings of
+   *  this one.  An {@code AntBuilder} holds per-call state so an instance cannot be used by several
+   *  threads at once.
+   *
+   *  @return The new {@code GantBuilder}.
+   */
+  public GantBuilder createWorkerBuilder() {
+    final GantBuilder builder = new GantBuilder(getProject());
+    builder.setDryRun(dryRun);
+    builder.setVerbosity(verbosity);
+    builder.setExecutionPlan(executionPlan);
+    builder.setProfiler(profiler);
+    return builder;
   }
   /**
    *  Accessor for the logger associated with the {@code Project}.
@@ -30,6 +30,11 @@ import org.apache.tools.ant.Task
  */
 public class GantEvent extends BuildEvent {
   private GantBinding binding
+  /**
+   *  Whether the target of this event was skipped because its declared inputs and outputs were unchanged
+   *  since its last successful execution.
+   */
+  boolean upToDate = false
   public GantEvent(final Project project, final GantBinding binding) {
     super(project)
     this.binding = binding
@@ -14,9 +14,12 @@
 
 package org.codehaus.gant;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 //////////////////////////////////////////////////////////////////////////////////////////////////////////
 //  In Groovy 1.7.x Closure was a type, in Groovy 1.8.x Closure is a parameterized type.
@@ -29,12 +32,11 @@ import groovy.lang.DelegatingMetaClass;
 import groovy.lang.GString;
 import groovy.lang.MetaClass;
 import groovy.lang.MissingMethodException;
-import groovy.lang.MissingPropertyException;
 import groovy.lang.Tuple;
 
 import org.codehaus.groovy.runtime.MetaClassHelper;
 
-import org.apache.tools.ant.BuildException;
+import org.codehaus.gant.jfr.FlightRecorderEvents;
 
 /**
  *  This class is the metaclass used for target {@code Closure}s, and any enclosed {@code Closures}.
@@ -47,64 +49,42 @@ import org.apache.tools.ant.BuildException;
  *  @author Russel Winder
  */
 public class GantMetaClass extends DelegatingMetaClass {
-  /**
-   *  The set of all targets that have been called.  This is a global variable shared by all instances of
-   *  {@code GantMetaClass}.
-   *
-   *  <p>TODO : This code is a long way from thread safe, and so it needs fixing.  Should this variable be
-   *  moved to the GantState class, which is the class that holds other bits of the internal shared state?
-   *  Should a different data structure be used, one that is a bit more thread safe?  Arguably it is
-   *  reasonable for this to be a synchronized object.</p>
-   */
-  private static final Set<Closure<?>> methodsInvoked = new HashSet<Closure<?>>();
   /**
    *  The binding (aka global shared state) that is being used.
    */
   private final GantBinding binding;
+  /**
+   *  The names of the methods found to be Ant tasks, calls of which can go straight to the
+   *  {@code GantBuilder} rather than first failing to be found.
+   */
+  private final Set<String> antMethodNames = ConcurrentHashMap.newKeySet();
   /*
    */
   public GantMetaClass(final MetaClass metaClass, final GantBinding binding) {
     super(metaClass);
     this.binding = binding;
   }
-  /**
-   *  Execute a {@code Closure} only if it hasn't been executed previously.  If it is executed, record
-   *  the execution.  Only used for processing a {@code depends} call.
-   *
-   *  @param closure The {@code Closure} to potentially call.
-   *  @return the result of the {@code Closure} call, or {@code null} if the closure was not
-   *  called.
-   */
-  private Object processClosure(final Closure<?> closure) {
-    if (! methodsInvoked.contains(closure)) {
-      methodsInvoked.add(closure);
-      return closure.call();
-    }
-    return null;
-  }
   /**
    *  Process the argument to a {@code depends} call.  If the parameter is a {@code Closure} just
-   *  process it. If it is a {@code String} then do a lookup for the {@code Closure} in the
-   *  binding, and if found process it.
+   *  add it to the list of targets to execute. If it is a {@code String} then do a lookup for the
+   *  {@code Closure} in the binding, and if found add that.
    *
    *  @param argument The argument.
-   *  @return The result of the {@code Closure}.
+   *  @param targets The list of targets to add to.
    */
-  private Object processArgument(final Object argument) {
-    final Object returnObject;
-    if (argument instanceof Closure) { returnObject = processClosure((Closure<?>) argument); }
+  private void processArgument(final Object argument, final List<Closure<?>> targets) {
+    if (argument instanceof Closure) { targets.add((Closure<?>) argument); }
     else {
       final String errorReport = "depends called with an argument (" + argument + ") that is not a known target or list of targets.";
       Object theArgument = argument;
       if (theArgument instanceof GString) { theArgument = theArgument.toString(); }
       if (theArgument instanceof String) {
         final Object entry = binding.getVariable((String) theArgument);
-        if ((entry != null) && (entry instanceof Closure)) { returnObject = processClosure((Closure<?>) entry); }
+        if ((entry != null) && (entry instanceof Closure)) { targets.add((Closure<?>) entry); }
         else { throw new RuntimeException(errorReport); }
       }
       else { throw new RuntimeException(errorReport); }
     }
-    return returnObject;
   }
   /**
    *  Invokes a method on the given object with the given name and arguments. The {@code MetaClass}
@@ -121,38 +101,71 @@ public class GantMetaClass extends DelegatingMetaClass {
   @Override public Object invokeMethod(final Object object, final String methodName, final Object[] arguments) {
     Object returnObject = null;
     if (methodName.equals("depends")) {
+      //  All the targets of the depends are collected before any is executed, they are executed together
+      //  so that independent targets can be executed concurrently.
+      final List<Closure<?>> targets = new ArrayList<Closure<?>>();
       for (final Object argument : arguments) {
         if (argument instanceof List<?>) {
-          for (final Object item : (List<?>) argument) { returnObject = processArgument(item); }
+          for (final Object item : (List<?>) argument) { processArgument(item, targets); }
         }
-        else { returnObject = processArgument(argument); }
+        else { processArgument(argument, targets); }
+      }
+      final ExecutionPlan plan = binding.getExecutionPlan();
+      if (plan != null) { plan.dependencies(targetNames(targets)); }
+      final Object event = FlightRecorderEvents.beginDepends();
+      final long start = System.nanoTime();
+      try { returnObject = binding.getTargetExecutor().depends(targets); }
+      finally {
+        binding.excludeFromTargetDuration(System.nanoTime() - start);
+        if (event != null) { FlightRecorderEvents.endDepends(event, String.join(", ", targetNames(targets))); }
       }
     }
     else {
-      try {
-        returnObject = super.invokeMethod(object, methodName, arguments);
+      final Closure<?> closure = binding.closureVariable(methodName);
+      if ((closure == null) && antMethodNames.contains(methodName)) {
+        returnObject = antBuilder().invokeMethod(methodName, arguments);
+      }
+      else {
         try {
-          final Closure<?> closure = (Closure<?>) binding.getVariable(methodName);
-          if (closure != null) { methodsInvoked.add(closure); }
+          if (closure == null) { returnObject = super.invokeMethod(object, methodName, arguments); }
+          else {
+            final boolean isTarget = binding.isTarget(closure);
+            if (isTarget && (binding.getExecutionPlan() != null)) { binding.getExecutionPlan().dependencies(Collections.singletonList(methodName)); }
+            final long start = System.nanoTime();
+            try {
+              returnObject = binding.getTargetExecutor().call(closure, new Callable<Object>() {
+                  @Override public Object call() { return GantMetaClass.super.invokeMethod(object, methodName, arguments); }
+                });
+            }
+            finally { if (isTarget) { binding.excludeFromTargetDuration(System.nanoTime() - start); } }
+          }
         }
-        catch (final MissingPropertyException mpe) { /* Purposefully empty */ }
-      }
-      catch (final MissingMethodException mme) {
-        try { returnObject = ((GantBuilder)(binding.getVariable("ant"))).invokeMethod(methodName, arguments); }
-        catch (final BuildException be) {
-          //  This BuildException could be a real exception due to a failed execution of a found Ant task
-          //  (in which case it should be propagated), or it could be due to a failed name lookup (in which
-          //  case the MissingMethodException should be propagated).  The big problem is distinguishing the
-          //  various uses of Build Exception here -- for now use string search of the exception message to
-          //  distinguish the cases.  NB GANT-49 and GANT-68 are the main conflicting issues here :-(
-          if (be.getMessage().startsWith("Problem: failed to create task or type")) { throw mme; }
-          else { throw be; }
+        catch (final MissingMethodException mme) {
+          final GantBuilder ant = antBuilder();
+          if (! ant.isAntTask(methodName)) { throw mme; }
+          returnObject = ant.invokeMethod(methodName, arguments);
+          //  Only remember the name if it was this method that was missing and not one called by it.
+          if ((closure == null) && methodName.equals(mme.getMethod())) { antMethodNames.add(methodName); }
         }
-        catch (final Exception e) { throw mme; }
       }
     }
     return returnObject;
   }
+  /**
+   *  The names of those closures that are targets.
+   */
+  private List<String> targetNames(final List<Closure<?>> closures) {
+    final List<String> names = new ArrayList<String>();
+    for (final Closure<?> closure : closures) {
+      final String name = binding.targetName(closure);
+      if (name != null) { names.add(name); }
+    }
+    return names;
+  }
+  /**
+   *  The {@code GantBuilder} of the current thread.
+   */
+  private GantBuilder antBuilder() { return (GantBuilder) binding.getVariable("ant"); }
   /**
    *  Invokes a method on the given object, with the given name and single argument.
    *
@@ -0,0 +1,150 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *  Counters and histograms of the builds run by Gant, for monitoring embedded and long-running uses, for
+ *  example the Ant task and the daemon.  Each {@code GantBinding} records into a {@code GantMetrics},
+ *  by default the one shared by the whole JVM, which is registered with the platform MBean server as
+ *  {@code org.codehaus.gant:type=Metrics}.  Other instances can be registered under their own name.
+ *
+ *  <p>Updates neither lock nor, other than for the first failure of each exception type, allocate.</p>
+ *
+ *  @author Russel Winder
+ */
+public final class GantMetrics implements GantMetricsMXBean {
+  /**
+   *  The domain of the names of the Gant MBeans.
+   */
+  public static final String domain = "org.codehaus.gant";
+  /**
+   *  The metrics shared by the whole JVM, used by default.
+   */
+  public static final GantMetrics shared = new GantMetrics();
+  static { shared.registerShared(); }
+  private final LongAdder buildsRun = new LongAdder();
+  private final LongAdder buildsFailed = new LongAdder();
+  private final Map<String, LongAdder> failuresByType = new ConcurrentHashMap<String, LongAdder>();
+  private final LongAdder targetsExecuted = new LongAdder();
+  private final LongAdder targetsSkipped = new LongAdder();
+  private final LongAdder scriptCacheHits = new LongAdder();
+  private final LongAdder scriptCacheMisses = new LongAdder();
+  private final LongAdder compilationTime = new LongAdder();
+  private final Histogram targetLatency = new Histogram();
+  private final Histogram scriptLoadTime = new Histogram();
+  /**
+   *  Register the shared metrics.  If Gant is loaded by several class loaders, for example by the Ant task,
+   *  each copy registers its metrics distinguished by its class loader.
+   */
+  private void registerShared() {
+    try {
+      try { ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(domain + ":type=Metrics")); }
+      catch (final InstanceAlreadyExistsException iaee) {
+        register("loader-" + Integer.toHexString(System.identityHashCode(GantMetrics.class.getClassLoader())));
+      }
+    }
+    catch (final JMException | SecurityException e) { /* Monitoring is not available, the metrics are still kept. */ }
+  }
+  /**
+   *  Register these metrics with the platform MBean server as {@code org.codehaus.gant:type=Metrics,name=<name>}.
+   *
+   *  @param name The name distinguishing these metrics.
+   *  @return The name registered.
+   *  @throws JMException if the name is not valid or already registered.
+   */
+  public ObjectName register(final String name) throws JMException {
+    final ObjectName objectName = new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+  /**
+   *  Record a completed build.
+   *
+   *  @param failure The exception that failed the build, {@code null} if it did not fail with an exception.
+   *  @param failed Whether the build failed.
+   */
+  public void buildCompleted(final Throwable failure, final boolean failed) {
+    buildsRun.increment();
+    if (failed || (failure != null)) { buildsFailed.increment(); }
+    if (failure != null) {
+      final String type = failure.getClass().getSimpleName();
+      LongAdder count = failuresByType.get(type);
+      if (count == null) { count = failuresByType.computeIfAbsent(type, key -> new LongAdder()); }
+      count.increment();
+    }
+  }
+  /**
+   *  Record the execution of a target.
+   *
+   *  @param executed Whether the target was executed, rather than skipped as up to date.
+   *  @param nanoseconds The duration of the execution.
+   */
+  public void targetCompleted(final boolean executed, final long nanoseconds) {
+    if (executed) { targetsExecuted.increment(); }
+    else { targetsSkipped.increment(); }
+    targetLatency.record(nanoseconds);
+  }
+  /**
+   *  Record the loading of a script or included file.
+   *
+   *  @param cached Whether the compiled script was found in the script cache, {@code null} if no cache was
+   *  used.
+   *  @param nanoseconds The time taken to compile or load the script.
+   */
+  public void scriptLoaded(final Boolean cached, final long nanoseconds) {
+    if (cached != null) {
+      if (cached) { scriptCacheHits.increment(); }
+      else { scriptCacheMisses.increment(); }
+    }
+    compilationTime.add(nanoseconds);
+    scriptLoadTime.record(nanoseconds);
+  }
+  @Override public long getBuildsRun() { return buildsRun.sum(); }
+  @Override public long getBuildsFailed() { return buildsFailed.sum(); }
+  @Override public Map<String, Long> getFailuresByType() {
+    final Map<String, Long> failures = new TreeMap<String, Long>();
+    for (final Map.Entry<String, LongAdder> entry : failuresByType.entrySet()) { failures.put(entry.getKey(), entry.getValue().sum()); }
+    return failures;
+  }
+  @Override public long getTargetsExecuted() { return targetsExecuted.sum(); }
+  @Override public long getTargetsSkipped() { return targetsSkipped.sum(); }
+  @Override public long getScriptCacheHits() { return scriptCacheHits.sum(); }
+  @Override public long getScriptCacheMisses() { return scriptCacheMisses.sum(); }
+  @Override public double getCompilationTime() { return compilationTime.sum() / 1e6; }
+  @Override public Histogram.Snapshot getTargetLatency() { return targetLatency.snapshot(); }
+  @Override public Histogram.Snapshot getScriptLoadTime() { return scriptLoadTime.snapshot(); }
+  @Override public void reset() {
+    buildsRun.reset();
+    buildsFailed.reset();
+    failuresByType.clear();
+    targetsExecuted.reset();
+    targetsSkipped.reset();
+    scriptCacheHits.reset();
+    scriptCacheMisses.reset();
+    compilationTime.reset();
+    targetLatency.reset();
+    scriptLoadTime.reset();
+  }
+}
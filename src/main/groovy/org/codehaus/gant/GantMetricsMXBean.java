@@ -0,0 +1,69 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant;
+
+import java.util.Map;
+
+/**
+ *  The management interface of {@code GantMetrics}, through which the metrics are exposed by JMX.
+ *
+ *  @author Russel Winder
+ */
+public interface GantMetricsMXBean {
+  /**
+   *  @return The number of builds, i.e. executions of targets by a {@code Gant} instance, run.
+   */
+  long getBuildsRun();
+  /**
+   *  @return The number of builds that failed.
+   */
+  long getBuildsFailed();
+  /**
+   *  @return The number of failed builds by the simple name of the type of exception that failed them.
+   */
+  Map<String, Long> getFailuresByType();
+  /**
+   *  @return The number of targets executed.
+   */
+  long getTargetsExecuted();
+  /**
+   *  @return The number of targets skipped as up to date.
+   */
+  long getTargetsSkipped();
+  /**
+   *  @return The number of scripts found compiled in the script cache.
+   */
+  long getScriptCacheHits();
+  /**
+   *  @return The number of scripts compiled because they were not in the script cache.
+   */
+  long getScriptCacheMisses();
+  /**
+   *  @return The total time in milliseconds spent compiling scripts, or loading compiled scripts.
+   */
+  double getCompilationTime();
+  /**
+   *  @return The durations of the executions of targets, including the targets they depend on.
+   */
+  Histogram.Snapshot getTargetLatency();
+  /**
+   *  @return The durations of the compilation, or loading from the cache, of scripts and included files.
+   */
+  Histogram.Snapshot getScriptLoadTime();
+  /**
+   *  Set all the metrics to zero.
+   */
+  void reset();
+}
@@ -69,11 +69,13 @@ public class GantState {
    */
   public static final int DEBUG = Project.MSG_DEBUG;
   /**
-   *  The current state of the verbosity of execution -- default is {@code NORMAL}.
+   *  The verbosity of execution used by new {@code Gant} and {@code GantBuilder} instances -- default is
+   *  {@code NORMAL}.  Each run has its own verbosity, so changing this does not affect runs in progress.
    */
   public static int verbosity = NORMAL;
   /**
-   *  Whether this is a dry drun, i.e. no actual execution occur.
+   *  Whether new {@code GantBuilder} instances perform a dry run, i.e. no actual execution occurs.  Each run
+   *  has its own setting, so changing this does not affect runs in progress.
    */
   public static boolean dryRun = false;
   /**
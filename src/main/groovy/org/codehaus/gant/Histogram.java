@@ -0,0 +1,111 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  A histogram of durations, with buckets whose bounds are the powers of two microseconds.  Recording a
+ *  duration neither locks nor allocates, so a histogram can be updated by any number of threads at once.
+ *  Percentiles are reported as the upper bound of the bucket they fall in, so are accurate to within a
+ *  factor of two.
+ *
+ *  @author Russel Winder
+ */
+public final class Histogram {
+  /**
+   *  Bucket i counts durations of less than 2<sup>i</sup> microseconds, the last bucket everything longer.
+   */
+  private static final int bucketCount = 40;
+  private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong maximum = new AtomicLong();
+  /**
+   *  Record a duration.
+   *
+   *  @param nanoseconds The duration.
+   */
+  public void record(final long nanoseconds) {
+    final long microseconds = Math.max(nanoseconds, 0L) / 1000L;
+    buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(microseconds), bucketCount - 1));
+    count.increment();
+    total.add(nanoseconds);
+    long current = maximum.get();
+    while ((nanoseconds > current) && ! maximum.compareAndSet(current, nanoseconds)) { current = maximum.get(); }
+  }
+  /**
+   *  Discard all recorded durations.
+   */
+  public void reset() {
+    for (int i = 0; i < bucketCount; ++i) { buckets.set(i, 0L); }
+    count.reset();
+    total.reset();
+    maximum.set(0L);
+  }
+  /**
+   *  Get a snapshot of the histogram.  Durations recorded while the snapshot is being taken may be
+   *  partially included.
+   *
+   *  @return The snapshot.
+   */
+  public Snapshot snapshot() {
+    final long[] counts = new long[bucketCount];
+    long n = 0L;
+    for (int i = 0; i < bucketCount; ++i) { counts[i] = buckets.get(i); n += counts[i]; }
+    return new Snapshot(n, n == 0L ? 0.0 : total.sum() / 1e6 / n, maximum.get() / 1e6,
+                        percentile(counts, n, 0.5), percentile(counts, n, 0.95), percentile(counts, n, 0.99));
+  }
+  /**
+   *  The upper bound in milliseconds of the bucket the given fraction of the durations fall within.
+   */
+  private static double percentile(final long[] counts, final long n, final double fraction) {
+    if (n == 0L) { return 0.0; }
+    final long rank = (long) Math.ceil(fraction * n);
+    long seen = 0L;
+    for (int i = 0; i < counts.length; ++i) {
+      seen += counts[i];
+      if (seen >= rank) { return (1L << i) / 1e3; }
+    }
+    return (1L << (counts.length - 1)) / 1e3;
+  }
+  /**
+   *  A summary of a histogram, durations in milliseconds.  Exposed through JMX as composite data.
+   */
+  public static final class Snapshot {
+    private final long count;
+    private final double mean;
+    private final double max;
+    private final double percentile50;
+    private final double percentile95;
+    private final double percentile99;
+    Snapshot(final long count, final double mean, final double max, final double percentile50, final double percentile95, final double percentile99) {
+      this.count = count;
+      this.mean = mean;
+      this.max = max;
+      this.percentile50 = percentile50;
+      this.percentile95 = percentile95;
+      this.percentile99 = percentile99;
+    }
+    public long getCount() { return count; }
+    public double getMean() { return mean; }
+    public double getMax() { return max; }
+    public double getPercentile50() { return percentile50; }
+    public double getPercentile95() { return percentile95; }
+    public double getPercentile99() { return percentile99; }
+  }
+}
@@ -14,6 +14,8 @@
 
 package org.codehaus.gant
 
+import org.codehaus.groovy.control.CompilerConfiguration
+
 /**
  *  An instance of this class is provided to each Gant script for including targets.  Targets can be
  *  provided by Gant (sub)scripts, Groovy classes, or Java classes.
@@ -54,7 +56,8 @@ class IncludeTargets extends AbstractInclude {
       if (binding.cacheEnabled) {
         //  Class name will likely have packages, but this is not acceptable for a single name in the
         //  binding, so convert any dots to underscores.
-        def script = binding.loadClassFromCache.call(className.replaceAll(/\./, '_'), file.lastModified(), file)
+        def script = binding.loadClassFromCache.call(className.replaceAll(/\./, '_'), file.toURI().toURL())
+        binding.scriptLoaded(file.getText(CompilerConfiguration.DEFAULT.sourceEncoding))
         script.binding = binding
         script.run()
       }
@@ -69,7 +72,11 @@ class IncludeTargets extends AbstractInclude {
    *  @param s The <code>String</code> to compile and instantiate.
    *  @return The includer object to allow for << chaining.
    */
-  def leftShift(final String s) { binding.groovyShell.evaluate(s); this }
+  def leftShift(final String s) {
+    binding.scriptLoaded(s)
+    binding.groovyShell.evaluate(s)
+    this
+  }
   /**
    *  Implementation of the * operator taking a <code>Map</code> parameter.  This operator only makes
    *  sense immediately after a ** operator, since only then is there a <code>Class</code> to instantiate.
@@ -77,6 +77,7 @@ class IncludeTool extends AbstractInclude {
     }
     if (!(className in loadedClasses)) {
       loadedClasses << className
+      binding.scriptLoaded(script)
       def theClass = binding.groovyShell.evaluate(script + " ; return ${className}")
       makeBindingEntry(className, createInstance(theClass))
     }
@@ -101,6 +102,10 @@ class IncludeTool extends AbstractInclude {
     }
     this
   }
+  /**
+   *  Files included as tools contain a class.
+   */
+  protected boolean isIncludingClasses() { true }
   /**
    *  Make an entry in the binding for an instance of a class where the entry in the binding is the same as
    *  the name of the class but with an initial lowercase letter instead of uppercase letter.
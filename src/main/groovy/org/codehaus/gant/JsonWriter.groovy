@@ -0,0 +1,84 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+/**
+ *  Render maps, collections, strings, numbers and booleans as indented JSON, for the reports Gant writes.
+ *  Gant does not depend on groovy-json, and only needs to write JSON, never to read it.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class JsonWriter {
+  private JsonWriter() { }
+  /**
+   *  Render a value as JSON.  Map keys are rendered as strings, values of any other type as the string
+   *  returned by their <code>toString</code>.
+   *
+   *  @param value The value to render.
+   *  @return The JSON text, ending with a newline.
+   */
+  static String render(final value) {
+    final buffer = new StringBuilder()
+    write(buffer, value, '')
+    buffer.append('\n').toString()
+  }
+  /**
+   *  Write a value as JSON, with nested structures indented.
+   */
+  private static void write(final StringBuilder buffer, final value, final String indent) {
+    final inner = indent + '  '
+    switch (value) {
+     case null: buffer.append('null') ; break
+     case Boolean: case Number: buffer.append(value.toString()) ; break
+     case Map:
+      if (value.isEmpty()) { buffer.append('{}') ; break }
+      buffer.append('{\n')
+      value.eachWithIndex { entry, i ->
+        buffer.append(inner)
+        write(buffer, entry.key.toString(), inner)
+        buffer.append(': ')
+        write(buffer, entry.value, inner)
+        buffer.append(i < value.size() - 1 ? ',\n' : '\n')
+      }
+      buffer.append(indent).append('}')
+      break
+     case Collection:
+      if (value.isEmpty()) { buffer.append('[]') ; break }
+      buffer.append('[\n')
+      value.eachWithIndex { item, i ->
+        buffer.append(inner)
+        write(buffer, item, inner)
+        buffer.append(i < value.size() - 1 ? ',\n' : '\n')
+      }
+      buffer.append(indent).append(']')
+      break
+     default:
+      buffer.append('"')
+      for (final char c in value.toString().toCharArray()) {
+        switch (c) {
+         case '"': buffer.append('\\"') ; break
+         case '\\': buffer.append('\\\\') ; break
+         case '\n': buffer.append('\\n') ; break
+         case '\r': buffer.append('\\r') ; break
+         case '\t': buffer.append('\\t') ; break
+         default:
+          if (c < (char) 0x20) { buffer.append(String.format('\\u%04x', (int) c)) }
+          else { buffer.append(c) }
+        }
+      }
+      buffer.append('"')
+    }
+  }
+}
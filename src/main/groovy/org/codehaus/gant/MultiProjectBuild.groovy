@@ -0,0 +1,86 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+import gant.Gant
+
+import org.apache.tools.ant.AntClassLoader
+import org.apache.tools.ant.BuildListener
+import org.apache.tools.ant.Project
+
+/**
+ *  Executes the build scripts of subprojects in the JVM executing the build of a root project, instead of
+ *  starting a new Gant process for each.  Each subproject has its own <code>GantBinding</code> and Ant
+ *  <code>Project</code>, with the subproject directory as base directory, so its targets, variables and
+ *  properties are isolated from those of the root project and other subprojects.  The Groovy class loader,
+ *  the compiled scripts, the Ant component definitions and the build listeners of the root project are
+ *  shared, as are its verbosity, dry run setting, build cache, metrics and profiler.
+ *
+ *  <p>A subproject script may execute in the same JVM as others more than once, so it must not rely on
+ *  static state or call <code>System.exit</code>.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class MultiProjectBuild {
+  /**
+   *  The binding of the root project.
+   */
+  final GantBinding root
+  /**
+   *  The compiled scripts of the subprojects.
+   */
+  final ScriptCache scriptCache
+  /**
+   *  Constructor.
+   *
+   *  @param root The binding of the root project.
+   *  @param scriptCache The cache of compiled scripts to use.
+   */
+  MultiProjectBuild(final GantBinding root, final ScriptCache scriptCache = new ScriptCache()) {
+    this.root = root
+    this.scriptCache = scriptCache
+  }
+  /**
+   *  Execute targets of the build script of a subproject.
+   *
+   *  @param directory The directory of the subproject.
+   *  @param targets The targets to execute, the default target if empty.
+   *  @param file The name of the build script in the directory.
+   *  @return The return code, as for the <code>gant</code> command.  Exceptions thrown by the script or
+   *  its targets are not caught.
+   */
+  int execute(final File directory, final List<String> targets, final String file = 'build.gant') {
+    final rootBuilder = root.antBuilder
+    final Project rootProject = rootBuilder.project
+    final project = rootProject.createSubProject()
+    rootProject.initSubProject(project)
+    project.initProperties()
+    project.baseDir = directory
+    rootProject.buildListeners.each { BuildListener listener -> if (! (listener instanceof AntClassLoader)) { project.addBuildListener(listener) } }
+    final binding = new GantBinding(project)
+    binding.buildCache = root.buildCache
+    binding.metrics = root.metrics
+    if (root.profiler != null) { binding.profiler = root.profiler }
+    final rootClassLoader = root.variables.get('classLoader')
+    final gant = new Gant(binding, rootClassLoader instanceof ClassLoader ? (ClassLoader) rootClassLoader : null)
+    gant.scriptCache = scriptCache
+    gant.verbosity = rootBuilder.verbosity
+    gant.dryRun = rootBuilder.dryRun
+    gant.gantLib = (List<String>) root.variables.get('gantLib') ?: []
+    gant.loadScript(new File(directory, file))
+    //  The list is consumed as the targets are executed.
+    gant.processTargets(new ArrayList<String>(targets))
+  }
+}
@@ -0,0 +1,236 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tools.ant.types.selectors.TokenizedPath;
+import org.apache.tools.ant.types.selectors.TokenizedPattern;
+
+/**
+ *  A deleter of files matching Ant patterns and of directory trees, using a fork/join pool to work on
+ *  many directories at once.  The files matching any of a set of patterns are found in a single walk of
+ *  the tree, which does not enter directories that cannot hold a matching file or whose content is
+ *  excluded.  Symbolic links are deleted, never followed.
+ *
+ *  <p>The counts of what has been deleted, and of the bytes freed, accumulate over all the deletions made
+ *  with an instance, as do the paths that could not be deleted.</p>
+ *
+ *  @author Russel Winder
+ */
+public final class ParallelDeleter {
+  private static final AtomicInteger threadCount = new AtomicInteger();
+  /**
+   *  The pool of the deleters not given one.  Deleting is blocking file system I/O, so it is not done in
+   *  the common pool, where it would hold up other users.  The threads of the pool end when it is idle.
+   */
+  private static final ForkJoinPool defaultPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ParallelDeleter::newThread, null, false);
+  private final ForkJoinPool pool;
+  private final LongAdder files = new LongAdder();
+  private final LongAdder directories = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+  /**
+   *  Constructor using a pool dedicated to deleting.
+   */
+  public ParallelDeleter() { this(defaultPool); }
+  /**
+   *  Constructor.
+   *
+   *  @param pool The pool to work in.
+   */
+  public ParallelDeleter(final ForkJoinPool pool) { this.pool = pool; }
+  /**
+   *  Delete the files, and symbolic links, in a directory tree matching any of the include patterns and
+   *  none of the exclude patterns.  As for an Ant fileset, a pattern ending with a separator has
+   *  <code>**</code> appended, and the content of a directory is excluded if an exclude pattern ending
+   *  with <code>**</code> matches the directory, e.g. <code>**&#47;node_modules/</code>.  Directories are
+   *  not deleted.
+   *
+   *  @param base The root of the tree, against which the patterns are matched.
+   *  @param includes The patterns of the files to delete.
+   *  @param excludes The patterns of the files to keep.
+   *  @param skip Directories not to enter, e.g. because they are about to be deleted.
+   */
+  public void deleteMatching(final File base, final Collection<String> includes, final Collection<String> excludes, final Collection<File> skip) {
+    if (includes.isEmpty() || ! base.isDirectory()) { return; }
+    final List<TokenizedPattern> includePatterns = patterns(includes);
+    final List<TokenizedPattern> excludePatterns = patterns(excludes);
+    final List<TokenizedPattern> contentExcludePatterns = new ArrayList<>();
+    for (final TokenizedPattern pattern : excludePatterns) {
+      if (pattern.endsWith("**")) { contentExcludePatterns.add(pattern.withoutLastToken()); }
+    }
+    final Set<Path> skipped = new HashSet<>();
+    for (final File file : skip) { skipped.add(file.toPath().toAbsolutePath().normalize()); }
+    pool.invoke(new MatchingAction(base.toPath().toAbsolutePath().normalize(), TokenizedPath.EMPTY_PATH, includePatterns, excludePatterns, contentExcludePatterns, skipped));
+  }
+  /**
+   *  Delete directory trees, the trees and the subdirectories of each being deleted concurrently.
+   *  Directories that do not exist are ignored.
+   *
+   *  @param roots The roots of the trees.
+   */
+  public void deleteTrees(final Collection<File> roots) {
+    final List<TreeAction> actions = new ArrayList<>();
+    for (final File root : roots) {
+      final Path path = root.toPath().toAbsolutePath().normalize();
+      if (Files.exists(path, LinkOption.NOFOLLOW_LINKS)) { actions.add(new TreeAction(path)); }
+    }
+    if (! actions.isEmpty()) { pool.invoke(new AllAction(actions)); }
+  }
+  /**
+   *  @return The number of files, including symbolic links, deleted.
+   */
+  public long getFiles() { return files.sum(); }
+  /**
+   *  @return The number of directories deleted.
+   */
+  public long getDirectories() { return directories.sum(); }
+  /**
+   *  @return The total size of the files deleted.
+   */
+  public long getBytes() { return bytes.sum(); }
+  /**
+   *  @return The paths that could not be deleted, each with the reason.
+   */
+  public List<String> getFailures() {
+    synchronized (failures) { return new ArrayList<>(failures); }
+  }
+  private static ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("gant-delete-" + threadCount.incrementAndGet());
+    return thread;
+  }
+  private static List<TokenizedPattern> patterns(final Collection<String> patterns) {
+    final List<TokenizedPattern> result = new ArrayList<>();
+    for (final String pattern : patterns) {
+      String normalized = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+      if (normalized.endsWith(File.separator)) { normalized += "**"; }
+      if (! normalized.isEmpty()) { result.add(new TokenizedPattern(normalized)); }
+    }
+    return result;
+  }
+  private static boolean anyMatch(final List<TokenizedPattern> patterns, final TokenizedPath path) {
+    for (final TokenizedPattern pattern : patterns) { if (pattern.matchPath(path, true)) { return true; } }
+    return false;
+  }
+  private void delete(final Path path, final BasicFileAttributes attributes) {
+    try {
+      Files.delete(path);
+      if (attributes.isDirectory()) { directories.increment(); }
+      else {
+        files.increment();
+        bytes.add(attributes.size());
+      }
+    }
+    catch (final IOException ioe) { failures.add(path + ": " + ioe); }
+  }
+  /**
+   *  Delete the matching files in a directory and, concurrently, in its subdirectories.
+   */
+  private final class MatchingAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Path directory;
+    private final TokenizedPath relative;
+    private final List<TokenizedPattern> includes;
+    private final List<TokenizedPattern> excludes;
+    private final List<TokenizedPattern> contentExcludes;
+    private final Set<Path> skipped;
+    MatchingAction(final Path directory, final TokenizedPath relative, final List<TokenizedPattern> includes, final List<TokenizedPattern> excludes, final List<TokenizedPattern> contentExcludes, final Set<Path> skipped) {
+      this.directory = directory;
+      this.relative = relative;
+      this.includes = includes;
+      this.excludes = excludes;
+      this.contentExcludes = contentExcludes;
+      this.skipped = skipped;
+    }
+    @Override protected void compute() {
+      final List<MatchingAction> subdirectories = new ArrayList<>();
+      try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (final Path path : stream) {
+          final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          final TokenizedPath child = new TokenizedPath(relative, path.getFileName().toString());
+          if (attributes.isDirectory()) {
+            if (! skipped.contains(path) && mayHoldMatches(child)) { subdirectories.add(new MatchingAction(path, child, includes, excludes, contentExcludes, skipped)); }
+          }
+          else if (anyMatch(includes, child) && ! anyMatch(excludes, child)) { delete(path, attributes); }
+        }
+      }
+      catch (final IOException ioe) { failures.add(directory + ": " + ioe); }
+      invokeAll(subdirectories);
+    }
+    private boolean mayHoldMatches(final TokenizedPath path) {
+      if (anyMatch(contentExcludes, path)) { return false; }
+      for (final TokenizedPattern pattern : includes) { if (pattern.matchStartOf(path, true)) { return true; } }
+      return false;
+    }
+  }
+  /**
+   *  Delete a directory tree: the files in the directory, then concurrently the subdirectories, then the
+   *  directory itself.
+   */
+  private final class TreeAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Path path;
+    TreeAction(final Path path) { this.path = path; }
+    @Override protected void compute() {
+      final BasicFileAttributes attributes;
+      try { attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS); }
+      catch (final IOException ioe) {
+        failures.add(path + ": " + ioe);
+        return;
+      }
+      if (attributes.isDirectory()) {
+        final List<TreeAction> subdirectories = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+          for (final Path child : stream) {
+            final BasicFileAttributes childAttributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (childAttributes.isDirectory()) { subdirectories.add(new TreeAction(child)); }
+            else { delete(child, childAttributes); }
+          }
+        }
+        catch (final IOException ioe) { failures.add(path + ": " + ioe); }
+        invokeAll(subdirectories);
+      }
+      delete(path, attributes);
+    }
+  }
+  /**
+   *  Execute actions concurrently.
+   */
+  private static final class AllAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final List<? extends RecursiveAction> actions;
+    AllAction(final List<? extends RecursiveAction> actions) { this.actions = actions; }
+    @Override protected void compute() { invokeAll(actions); }
+  }
+}
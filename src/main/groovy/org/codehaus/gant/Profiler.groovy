@@ -0,0 +1,142 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+import java.math.RoundingMode
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ *  The record of where the time of a run goes, made when profiling: a span for the loading, compilation
+ *  and evaluation of the script and each included file, for each execution of a target, and for each Ant
+ *  task invocation.  For a target the time spent executing the targets it depends on or calls is recorded
+ *  separately from its own time.
+ *
+ *  <p>The spans are written as a report summarising the time per target and per task, and as a trace
+ *  in the Chrome trace event format, which can be viewed in <code>chrome://tracing</code> or as a flame
+ *  graph with tools that read that format.  Spans may be recorded by any thread.</p>
+ *
+ *  <p>Nothing is recorded unless a <code>Profiler</code> is set on the <code>GantBinding</code>, so
+ *  profiling costs nothing more than a check for <code>null</code> when it is off.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class Profiler {
+  /**
+   *  The category of the spans for loading, compiling and evaluating scripts.
+   */
+  public static final String SCRIPT = 'script'
+  /**
+   *  The category of the spans for executing targets.
+   */
+  public static final String TARGET = 'target'
+  /**
+   *  The category of the spans for invoking Ant tasks, and the nested elements of tasks.
+   */
+  public static final String TASK = 'task'
+  /**
+   *  The name of the directory, relative to the project base directory, the profile is written to by
+   *  default.
+   */
+  public static final String defaultLocation = '.gant/profile'
+  /**
+   *  The time, from <code>System.nanoTime</code>, at which profiling started.
+   */
+  private final long origin = System.nanoTime()
+  /**
+   *  The spans recorded so far.
+   */
+  private final Queue<Span> spans = new ConcurrentLinkedQueue<Span>()
+  /**
+   *  Record a span that ends now.
+   *
+   *  @param category The category of the span.
+   *  @param name The name of the thing executed.
+   *  @param start The time the span started, from <code>System.nanoTime</code>.
+   *  @param dependencies The time spent within the span executing other targets, in nanoseconds.
+   */
+  void record(final String category, final String name, final long start, final long dependencies = 0L) {
+    final thread = Thread.currentThread()
+    spans << new Span(category: category, name: name, start: start - origin, duration: System.nanoTime() - start,
+                      dependencies: dependencies, threadId: thread.id, threadName: thread.name)
+  }
+  /**
+   *  Get the report: the total duration, the script spans in order, and the targets and tasks with the
+   *  number of times each was executed and the time taken, targets in decreasing order of own time, tasks
+   *  in decreasing order of time.  The time of a task includes that of its nested elements.  Times are in
+   *  milliseconds.
+   */
+  Map<String, Object> getReport() {
+    final duration = System.nanoTime() - origin
+    final byCategory = spans.groupBy { span -> span.category }
+    [
+      duration: milliseconds(duration),
+      script: (byCategory[SCRIPT] ?: []).sort { span -> span.start }.collect { span -> [name: span.name, duration: milliseconds(span.duration)] },
+      targets: (byCategory[TARGET] ?: []).groupBy { span -> span.name }.collect { name, executions ->
+          final total = executions.sum { span -> span.duration }
+          final dependencies = executions.sum { span -> span.dependencies }
+          [name: name, count: executions.size(), duration: total, ownDuration: total - dependencies, dependenciesDuration: dependencies]
+        }.sort { a, b -> b.ownDuration <=> a.ownDuration }.each { target ->
+          ['duration', 'ownDuration', 'dependenciesDuration'].each { key -> target[key] = milliseconds(target[key]) }
+        },
+      tasks: (byCategory[TASK] ?: []).groupBy { span -> span.name }.collect { name, invocations ->
+          [name: name, count: invocations.size(), duration: invocations.sum { span -> span.duration }]
+        }.sort { a, b -> b.duration <=> a.duration }.each { task -> task.duration = milliseconds(task.duration) },
+    ]
+  }
+  /**
+   *  Get the trace: the spans as Chrome trace events, with the names of the threads.
+   */
+  Map<String, Object> getTrace() {
+    final events = spans.collect { span -> [
+        name: span.name,
+        cat: span.category,
+        ph: 'X',
+        ts: span.start.intdiv(1000L),
+        dur: span.duration.intdiv(1000L),
+        pid: 1,
+        tid: span.threadId,
+        args: span.category == TARGET ? [dependencies: milliseconds(span.dependencies)] : [:],
+      ] }
+    spans.collectEntries { span -> [span.threadId, span.threadName] }.each { id, name ->
+      events << [name: 'thread_name', ph: 'M', pid: 1, tid: id, args: [name: name]]
+    }
+    [traceEvents: events, displayTimeUnit: 'ms']
+  }
+  /**
+   *  Write the report as <code>profile.json</code> and the trace as <code>trace.json</code>.
+   *
+   *  @param directory The directory to write to, created if need be.
+   */
+  void write(final File directory) {
+    directory.mkdirs()
+    new File(directory, 'profile.json').setText(JsonWriter.render(report), 'UTF-8')
+    new File(directory, 'trace.json').setText(JsonWriter.render(trace), 'UTF-8')
+  }
+  private static BigDecimal milliseconds(final long nanoseconds) {
+    new BigDecimal(nanoseconds).movePointLeft(6).setScale(3, RoundingMode.HALF_UP)
+  }
+  /**
+   *  A recorded span, times in nanoseconds, the start relative to the origin.
+   */
+  private static final class Span {
+    String category
+    String name
+    long start
+    long duration
+    long dependencies
+    long threadId
+    String threadName
+  }
+}
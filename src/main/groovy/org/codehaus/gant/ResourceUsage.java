@@ -0,0 +1,105 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ *  The resources used by a thread: its CPU time and the bytes it allocated, together with the time spent
+ *  in, and number of, garbage collections.  Garbage collection is not attributable to a thread, the
+ *  figures are for the whole JVM.  Measures the JVM does not support are always zero.
+ *
+ *  <p>Usage is measured as the difference between two snapshots of the same thread.</p>
+ *
+ *  @author Russel Winder
+ */
+public final class ResourceUsage {
+  /**
+   *  No usage at all.
+   */
+  public static final ResourceUsage NONE = new ResourceUsage(0L, 0L, 0L, 0L);
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final boolean cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+  private static final com.sun.management.ThreadMXBean allocations = allocationsBean();
+  private static final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+  /**
+   *  The CPU time in nanoseconds.
+   */
+  public final long cpuTime;
+  /**
+   *  The number of bytes allocated.
+   */
+  public final long allocatedBytes;
+  /**
+   *  The time spent in garbage collection in milliseconds.
+   */
+  public final long gcTime;
+  /**
+   *  The number of garbage collections.
+   */
+  public final long gcCount;
+  private ResourceUsage(final long cpuTime, final long allocatedBytes, final long gcTime, final long gcCount) {
+    this.cpuTime = cpuTime;
+    this.allocatedBytes = allocatedBytes;
+    this.gcTime = gcTime;
+    this.gcCount = gcCount;
+  }
+  /**
+   *  The per-thread allocation measure is a HotSpot extension, which other JVMs may not have.
+   */
+  private static com.sun.management.ThreadMXBean allocationsBean() {
+    try {
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) { return bean; }
+      }
+    }
+    catch (final LinkageError le) { /* Not a HotSpot JVM. */ }
+    return null;
+  }
+  /**
+   *  Take a snapshot of the usage of the current thread so far.
+   *
+   *  @return The snapshot.
+   */
+  public static ResourceUsage current() {
+    long gcTime = 0L;
+    long gcCount = 0L;
+    for (final GarbageCollectorMXBean collector : collectors) {
+      gcTime += Math.max(collector.getCollectionTime(), 0L);
+      gcCount += Math.max(collector.getCollectionCount(), 0L);
+    }
+    return new ResourceUsage(cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0L,
+                             allocations != null ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0L,
+                             gcTime, gcCount);
+  }
+  /**
+   *  @param other The usage to add.
+   *  @return The sum of this usage and another.
+   */
+  public ResourceUsage plus(final ResourceUsage other) {
+    return new ResourceUsage(cpuTime + other.cpuTime, allocatedBytes + other.allocatedBytes, gcTime + other.gcTime, gcCount + other.gcCount);
+  }
+  /**
+   *  @param other The usage to subtract, e.g. an earlier snapshot.
+   *  @return The difference between this usage and another.
+   */
+  public ResourceUsage minus(final ResourceUsage other) {
+    return new ResourceUsage(cpuTime - other.cpuTime, allocatedBytes - other.allocatedBytes, gcTime - other.gcTime, gcCount - other.gcCount);
+  }
+}
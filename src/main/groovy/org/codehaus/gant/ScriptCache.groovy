@@ -0,0 +1,169 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+import java.lang.ref.WeakReference
+import java.nio.file.FileAlreadyExistsException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+
+import org.codehaus.gant.jfr.FlightRecorderEvents
+
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+
+/**
+ *  A cache of compiled Gant scripts.  Scripts are identified by a hash of their content, the class name,
+ *  the Groovy version and the compiler configuration, so a script is recompiled exactly when something
+ *  affecting its compiled form changes and never because a file was merely touched.  Included files are
+ *  loaded through the cache as well, each checked against its own content.
+ *
+ *  <p>Compiled scripts are held in memory by each instance for repeat loads through it, so that they, and
+ *  the class loaders of the runs that used them, can be collected with the instance.  If a directory is
+ *  given the classes are also kept on disk, in a subdirectory per hash that is written completely before
+ *  being moved into place, so concurrent processes sharing the directory never see a partially written
+ *  entry.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class ScriptCache {
+  /**
+   *  The compiled scripts held in memory, keyed by the location of the script and the name of the class.
+   *  Only the latest version of each script is held.
+   */
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>()
+  /**
+   *  The classes loaded from directories, keyed by the directory, the hash and the parent class loader, so
+   *  that instances sharing a directory load a script once for a parent rather than each defining another
+   *  class.  A script class is referred to by its call sites, and so by the bindings of the runs that used
+   *  it until another run uses it.  The classes are only weakly referenced, they go with the last instance
+   *  and run using them.
+   */
+  private static final Map<String, WeakReference<Class<?>>> loadedClasses = new ConcurrentHashMap<String, WeakReference<Class<?>>>()
+  /**
+   *  The directory holding the compiled scripts, or <code>null</code> if they are held only in memory.
+   */
+  final File directory
+  /**
+   *  The configuration used for compiling scripts.
+   */
+  final CompilerConfiguration configuration
+  /**
+   *  Constructor.
+   *
+   *  @param directory The directory to keep the compiled scripts in, or <code>null</code> to keep them only
+   *  in memory.
+   *  @param configuration The configuration to compile scripts with.
+   */
+  ScriptCache(final File directory = null, final CompilerConfiguration configuration = new CompilerConfiguration()) {
+    this.directory = directory
+    this.configuration = configuration
+  }
+  /**
+   *  Get the compiled script class for a script, compiling it if there is no class for its current
+   *  content.
+   *
+   *  @param url The location of the script.
+   *  @param className The name of the script class.
+   *  @param parent The class loader for the classes used by the script.
+   *  @param metrics The metrics to record the cache hit or miss in, or <code>null</code>.
+   *  @return The class of the script.
+   */
+  Class<?> classFor(final URL url, final String className, final ClassLoader parent, final GantMetrics metrics = null) {
+    final start = System.nanoTime()
+    final text = url.getText(configuration.sourceEncoding)
+    final hash = hashOf(text, className)
+    final location = url.toString() + '#' + className
+    final entry = entries[location]
+    if (entry != null && entry.hash == hash && entry.parent.is(parent)) {
+      metrics?.scriptLoaded(true, System.nanoTime() - start)
+      return entry.scriptClass
+    }
+    final cached = directory != null && new File(directory, hash).isDirectory()
+    final event = FlightRecorderEvents.beginCompilation(url.toString())
+    Class<?> scriptClass = null
+    try { scriptClass = directory == null ? compile(text, className, parent) : load(hash, text, className, parent) }
+    finally { FlightRecorderEvents.end(event) }
+    entries[location] = new Entry(hash: hash, parent: parent, scriptClass: scriptClass)
+    metrics?.scriptLoaded(cached, System.nanoTime() - start)
+    scriptClass
+  }
+  /**
+   *  Remove all the compiled scripts held in memory.  Those on disk are kept.
+   */
+  void clear() { entries.clear() }
+  /**
+   *  Compute the key for a script: everything that affects the compiled classes goes into the hash.
+   */
+  private String hashOf(final String text, final String className) {
+    Fingerprint.keyOf([GroovySystem.version, configuration.targetBytecode, configuration.sourceEncoding, configuration.scriptBaseClass ?: '', className, text])
+  }
+  /**
+   *  Compile a script in memory.
+   */
+  private Class<?> compile(final String text, final String className, final ClassLoader parent) {
+    new GroovyClassLoader(parent, configuration).parseClass(new GroovyCodeSource(text, className, GroovyShell.DEFAULT_CODE_BASE))
+  }
+  /**
+   *  Load a script from its directory on disk, using the class already loaded for the parent by any
+   *  instance if it has not been collected.
+   */
+  private Class<?> load(final String hash, final String text, final String className, final ClassLoader parent) {
+    final key = directory.absolutePath + File.separator + hash + '#' + System.identityHashCode(parent)
+    final loaded = loadedClasses[key]?.get()
+    if (loaded != null && loaded.classLoader.parent.is(parent)) { return loaded }
+    final scriptClass = loadOrCompile(hash, text, className, parent)
+    loadedClasses.values().removeIf { WeakReference<Class<?>> reference -> reference.get() == null }
+    loadedClasses[key] = new WeakReference<Class<?>>(scriptClass)
+    scriptClass
+  }
+  /**
+   *  Load a script from its directory on disk, compiling it into place first if the directory does not
+   *  exist.  A directory from which the class cannot be loaded is taken to be damaged and is replaced.
+   */
+  private Class<?> loadOrCompile(final String hash, final String text, final String className, final ClassLoader parent) {
+    final entryDirectory = new File(directory, hash)
+    if (entryDirectory.isDirectory()) {
+      try { return loadFrom(entryDirectory, className, parent) }
+      catch (final ClassNotFoundException | LinkageError e) { entryDirectory.deleteDir() }
+    }
+    directory.mkdirs()
+    final temporary = Files.createTempDirectory(directory.toPath(), hash + '-').toFile()
+    try {
+      final compilerConfiguration = new CompilerConfiguration(configuration)
+      compilerConfiguration.targetDirectory = temporary
+      final unit = new CompilationUnit(compilerConfiguration, null, new GroovyClassLoader(parent, configuration))
+      unit.addSource(className, text)
+      unit.compile()
+      try { Files.move(temporary.toPath(), entryDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE) }
+      catch (final FileAlreadyExistsException faee) { /* Another process compiled the same script. */ }
+      catch (final IOException ioe) { if (! entryDirectory.isDirectory()) { throw ioe } }
+    }
+    finally { if (temporary.exists()) { temporary.deleteDir() } }
+    loadFrom(entryDirectory, className, parent)
+  }
+  private static Class<?> loadFrom(final File entryDirectory, final String className, final ClassLoader parent) {
+    new URLClassLoader([entryDirectory.toURI().toURL()] as URL[], parent).loadClass(className)
+  }
+  /**
+   *  A compiled script together with the hash it was compiled from and the class loader it was loaded for.
+   */
+  private static final class Entry {
+    String hash
+    ClassLoader parent
+    Class<?> scriptClass
+  }
+}
@@ -0,0 +1,96 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant
+
+/**
+ *  A persistent store of the state Gant keeps between runs for a project, for example the fingerprints of
+ *  the inputs and outputs of targets from their last successful execution.  The state is held as a
+ *  properties file, by default <code>.gant/state.properties</code> in the project base directory.  Every
+ *  change is written straight through so that the state survives a failed or interrupted run.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class StateStore {
+  /**
+   *  The name of the file, relative to the project base directory, used by default.
+   */
+  public static final String defaultLocation = '.gant/state.properties'
+  /**
+   *  The file holding the state.
+   */
+  final File file
+  /**
+   *  The state, loaded on first use.
+   */
+  private Properties state = null
+  /**
+   *  Constructor.
+   *
+   *  @param file The file holding the state, it need not exist.
+   */
+  StateStore(final File file) { this.file = file }
+  /**
+   *  Get a value from the store.
+   *
+   *  @param key The key of the value.
+   *  @return The value or <code>null</code> if there is no value for the key.
+   */
+  synchronized String get(final String key) { loaded().getProperty(key) }
+  /**
+   *  Put a value into the store, or remove the key if the value is <code>null</code>.
+   *
+   *  @param key The key of the value.
+   *  @param value The value.
+   */
+  synchronized void put(final String key, final String value) {
+    final previous = value == null ? loaded().remove(key) : loaded().setProperty(key, value)
+    if (previous != value) { save() }
+  }
+  /**
+   *  Put several values into the store, writing the file once.  The file is written even if no value
+   *  changes when it does not yet exist, so this can be used to create the store.
+   *
+   *  @param values The values keyed by their keys.
+   */
+  synchronized void putAll(final Map<String, String> values) {
+    final properties = loaded()
+    def changed = ! file.isFile()
+    values.each { key, value -> if (properties.setProperty(key, value) != value) { changed = true } }
+    if (changed) { save() }
+  }
+  /**
+   *  Get the state, loading it if this has not already been done.  An unreadable file is treated as
+   *  empty, the state is a cache and can always be recreated.
+   */
+  private Properties loaded() {
+    if (state == null) {
+      state = new Properties()
+      if (file.isFile()) {
+        try { file.withInputStream { stream -> state.load(stream) } }
+        catch (final IOException ioe) { state.clear() }
+      }
+    }
+    state
+  }
+  /**
+   *  Write the state to a temporary file and then move it into place, so the file is never seen partially
+   *  written.
+   */
+  private void save() {
+    Fingerprint.writeAtomically(file) { File temporary ->
+      temporary.withOutputStream { stream -> state.store(stream, 'Gant state, this file is maintained by Gant.') }
+    }
+  }
+}
@@ -0,0 +1,360 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import groovy.lang.Closure;
+
+/**
+ *  This class executes targets on behalf of {@code depends} calls and direct calls of targets, ensuring
+ *  that a target requested via {@code depends} is executed at most once in a run.
+ *
+ *  <p>With a parallelism of 1, the default, all targets are executed in the calling thread in the order
+ *  they are named, which is the traditional Gant behaviour.  With a parallelism greater than 1 the targets
+ *  named in a single {@code depends} call are taken to be independent branches of the dependency graph,
+ *  and are executed concurrently using at most the given number of threads, the calling thread included.
+ *  Gant only discovers the dependency graph as the targets execute, so the graph is built up by the
+ *  {@code depends} calls themselves: a target already claimed by another branch is waited for rather than
+ *  executed again.</p>
+ *
+ *  <p>Circular dependencies are allowed in Gant (cf. GANT-9), a target that is in the process of being
+ *  executed is treated as having been executed.  The same rule is applied across threads: a thread never
+ *  waits for a target whose completion depends, directly or transitively, on the waiting thread.</p>
+ *
+ *  <p>Worker threads get their own {@code GantBuilder} sharing the {@code Project} and settings of the main
+ *  one, in the same way that Ant's {@code parallel} task shares the project between its threads, since an
+ *  {@code AntBuilder} holds per-call state and cannot be used by several threads at once.</p>
+ *
+ *  @author Russel Winder
+ */
+public class TargetExecutor {
+  /**
+   *  The binding (aka global shared state) that is being used.
+   */
+  private final GantBinding binding;
+  /**
+   *  The record of all the targets that have been executed or claimed for execution.
+   */
+  private final Map<Closure<?>, FutureTask<Object>> claims = new ConcurrentHashMap<Closure<?>, FutureTask<Object>>();
+  /**
+   *  The record of each target currently being executed.  Used to detect waits that would otherwise
+   *  deadlock.
+   */
+  private final Map<Closure<?>, Running> runners = new ConcurrentHashMap<Closure<?>, Running>();
+  /**
+   *  The target each blocked thread is waiting on.  Guarded by itself.  Waiting threads wait on it and are
+   *  notified whenever a target completes or a wait is abandoned.
+   */
+  private final Map<Thread, Closure<?>> waiting = new HashMap<Thread, Closure<?>>();
+  /**
+   *  The source of the start sequence numbers of target executions.
+   */
+  private final AtomicLong startCount = new AtomicLong();
+  /**
+   *  The {@code GantBuilder} to use in each worker thread.
+   */
+  private final ThreadLocal<GantBuilder> workerBuilder = new ThreadLocal<GantBuilder>();
+  /**
+   *  The maximum number of threads executing targets.
+   */
+  private int parallelism = 1;
+  /**
+   *  The pool of worker threads, created on first use.
+   */
+  private ExecutorService pool = null;
+  /**
+   *  Permits for submission to the pool.  There are never more submitted targets than worker threads, so
+   *  a submitted target never waits in a queue behind targets that are waiting on it.
+   */
+  private Semaphore availableWorkers = null;
+  /**
+   *  Constructor.
+   *
+   *  @param binding The {@code GantBinding} to associate with.
+   */
+  public TargetExecutor(final GantBinding binding) { this.binding = binding; }
+  /**
+   *  Get the maximum number of threads used for executing targets.
+   *
+   *  @return the parallelism.
+   */
+  public synchronized int getParallelism() { return parallelism; }
+  /**
+   *  Set the maximum number of threads used for executing targets.  1 means sequential execution.
+   *
+   *  @param n the parallelism.
+   */
+  public synchronized void setParallelism(final int n) {
+    if (n < 1) { throw new IllegalArgumentException("Parallelism must be a positive integer, not " + n + '.'); }
+    if (n != parallelism) {
+      shutdown();
+      parallelism = n;
+    }
+  }
+  /**
+   *  Get the {@code GantBuilder} for the current thread if it is a worker thread.
+   *
+   *  @return the {@code GantBuilder} for this worker thread or {@code null} if this is not a worker thread.
+   */
+  public GantBuilder getWorkerBuilder() { return workerBuilder.get(); }
+  /**
+   *  Execute the targets of a {@code depends} call.  Targets already executed, or being executed, are not
+   *  executed again.
+   *
+   *  @param targets The target {@code Closure}s in the order named.
+   *  @return the result of executing the last target, or {@code null} if the last target was not executed
+   *  by this call.
+   */
+  public Object depends(final List<Closure<?>> targets) {
+    final int count = targets.size();
+    final List<FutureTask<Object>> submitted = new ArrayList<FutureTask<Object>>(Collections.<FutureTask<Object>>nCopies(count, null));
+    final Semaphore workers = workersIfParallel(count);
+    if (workers != null) {
+      //  The first target not yet claimed is left for this thread, as many as possible of the others are
+      //  handed to worker threads.
+      boolean reserved = false;
+      for (int i = 0; i < count; ++i) {
+        final Closure<?> target = targets.get(i);
+        if (claims.containsKey(target)) { continue; }
+        if (! reserved) { reserved = true ; continue; }
+        if (! workers.tryAcquire()) { break; }
+        final FutureTask<Object> task = new Execution(target);
+        if (claims.putIfAbsent(target, task) == null) {
+          submit(task, workers);
+          submitted.set(i, task);
+        }
+        else { workers.release(); }
+      }
+    }
+    Throwable failure = null;
+    Object returnObject = null;
+    for (int i = 0; i < count; ++i) {
+      final Closure<?> target = targets.get(i);
+      try {
+        if (submitted.get(i) != null) { returnObject = await(target, submitted.get(i)); }
+        else if (failure == null) { returnObject = execute(target); }
+      }
+      catch (final Throwable t) { if (failure == null) { failure = t; } }
+    }
+    if (failure != null) { throw TargetExecutor.<RuntimeException>rethrow(failure); }
+    return returnObject;
+  }
+  /**
+   *  Execute a direct call of a target.  Direct calls always execute the target, but a successful call is
+   *  recorded as an execution so that a later {@code depends} does not execute it again.  If no other thread has
+   *  claimed the target, it is claimed for the duration of the call so that a concurrent {@code depends}
+   *  waits for this call to complete instead of executing the target a second time.
+   *
+   *  @param target The target {@code Closure}.
+   *  @param call The actual call of the target.
+   *  @return the result of the call.
+   */
+  public Object call(final Closure<?> target, final Callable<Object> call) {
+    final FutureTask<Object> task = new Execution(target, call);
+    if (claims.putIfAbsent(target, task) != null) {
+      try { return call.call(); }
+      catch (final Exception e) { throw TargetExecutor.<RuntimeException>rethrow(e); }
+    }
+    task.run();
+    //  A failed call does not count as an execution, as was always the case.
+    if (failureOf(task) != null) { claims.remove(target, task); }
+    return resultOf(task);
+  }
+  /**
+   *  Shut down the worker threads, if any.  They are recreated if needed.
+   */
+  public synchronized void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+      availableWorkers = null;
+    }
+  }
+  /**
+   *  Get the permits for the worker threads, creating the pool of worker threads if necessary.
+   *
+   *  @param count The number of targets to be executed.
+   *  @return the permits or {@code null} if execution is sequential.
+   */
+  private synchronized Semaphore workersIfParallel(final int count) {
+    if ((parallelism < 2) || (count < 2)) { return null; }
+    if (pool == null) {
+      final GantBuilder builder = binding.getAntBuilder();
+      final AtomicInteger threadCount = new AtomicInteger();
+      pool = Executors.newFixedThreadPool(parallelism - 1, new ThreadFactory() {
+          @Override public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override public void run() {
+                  workerBuilder.set(builder.createWorkerBuilder());
+                  runnable.run();
+                }
+              }, "gant-target-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+      availableWorkers = new Semaphore(parallelism - 1);
+    }
+    return availableWorkers;
+  }
+  /**
+   *  Submit a claimed target to the pool of worker threads.  The permit is released as soon as the target
+   *  has been executed.
+   */
+  private void submit(final FutureTask<Object> task, final Semaphore workers) {
+    pool.execute(new Runnable() {
+        @Override public void run() {
+          try { task.run(); }
+          finally { workers.release(); }
+        }
+      });
+  }
+  /**
+   *  Execute a target in this thread unless it has already been claimed.  If it has been claimed by another
+   *  thread and not yet completed, wait for it to complete.
+   *
+   *  @return the result of the target or {@code null} if it was not executed by this call.
+   */
+  private Object execute(final Closure<?> target) {
+    final FutureTask<Object> task = new Execution(target);
+    final FutureTask<Object> existing = claims.putIfAbsent(target, task);
+    if (existing == null) {
+      task.run();
+      return resultOf(task);
+    }
+    if (! existing.isDone()) { await(target, existing); }
+    return null;
+  }
+  /**
+   *  Wait for a claimed target to complete.  If waiting would complete a cycle of threads, each waiting on a
+   *  target being executed by the next, then the wait on the target of the cycle that started first is
+   *  abandoned.  That target is an ancestor in the dependency graph of all the others and, being in the
+   *  process of being executed, a sequential execution would have treated it as executed.
+   *
+   *  @return the result of the target or {@code null} if the wait was abandoned.
+   */
+  private Object await(final Closure<?> target, final FutureTask<Object> task) {
+    final Thread self = Thread.currentThread();
+    synchronized (waiting) {
+      Thread waiter = self;
+      Thread outermostWaiter = null;
+      long outermostStart = Long.MAX_VALUE;
+      Running running = runners.get(target);
+      while (running != null) {
+        if (running.start < outermostStart) {
+          outermostStart = running.start;
+          outermostWaiter = waiter;
+        }
+        if (running.thread == self) {
+          if (outermostWaiter == self) { return null; }
+          waiting.remove(outermostWaiter);
+          waiting.notifyAll();
+          break;
+        }
+        waiter = running.thread;
+        final Closure<?> next = waiting.get(waiter);
+        if (next == null) { break; }
+        running = runners.get(next);
+      }
+      waiting.put(self, target);
+      try {
+        while (! task.isDone()) {
+          if (waiting.get(self) != target) { return null; }
+          waiting.wait();
+        }
+      }
+      catch (final InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException("Interrupted whilst waiting for a target to complete.");
+      }
+      finally { waiting.remove(self); }
+    }
+    return resultOf(task);
+  }
+  /**
+   *  The record of a target being executed: the executing thread and the sequence number of the start.
+   */
+  private static final class Running {
+    final Thread thread;
+    final long start;
+    Running(final Thread thread, final long start) {
+      this.thread = thread;
+      this.start = start;
+    }
+  }
+  /**
+   *  The execution of a target.  A record of the executing thread is kept whilst executing, and waiting
+   *  threads are notified on completion.
+   */
+  private final class Execution extends FutureTask<Object> {
+    private final Closure<?> target;
+    Execution(final Closure<?> target, final Callable<Object> call) {
+      super(call);
+      this.target = target;
+    }
+    Execution(final Closure<?> target) {
+      this(target, new Callable<Object>() {
+          @Override public Object call() { return target.call(); }
+        });
+    }
+    @Override public void run() {
+      runners.put(target, new Running(Thread.currentThread(), startCount.incrementAndGet()));
+      try { super.run(); }
+      finally { runners.remove(target); }
+    }
+    @Override protected void done() { synchronized (waiting) { waiting.notifyAll(); } }
+  }
+  /**
+   *  Get the result of a completed or running task, rethrowing whatever the target threw.
+   */
+  private static Object resultOf(final FutureTask<Object> task) {
+    try { return task.get(); }
+    catch (final ExecutionException ee) { throw TargetExecutor.<RuntimeException>rethrow(ee.getCause()); }
+    catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new CancellationException("Interrupted whilst waiting for a target to complete.");
+    }
+  }
+  /**
+   *  Get whatever a completed task threw, if anything.
+   */
+  private static Throwable failureOf(final FutureTask<Object> task) {
+    try { resultOf(task); }
+    catch (final Throwable t) { return t; }
+    return null;
+  }
+  /**
+   *  Rethrow a {@code Throwable} unchanged: Groovy code can throw checked exceptions without declaring
+   *  them and the error reporting depends on the exceptions reaching {@code gant.Gant} as thrown.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T extends Throwable> T rethrow(final Throwable t) throws T { throw (T) t; }
+}
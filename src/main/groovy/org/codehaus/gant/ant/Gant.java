@@ -32,6 +32,7 @@ import org.apache.tools.ant.Task;
 
 import org.codehaus.gant.GantBinding;
 import org.codehaus.gant.GantBuilder;
+import org.codehaus.gant.ScriptCache;
 
 /**
  *  Execute a Gant script.
@@ -95,6 +96,11 @@ public class Gant extends Task {
    *  A list of targets to be achieved by the Gant instance.
    */
   private final List<GantTarget> targets = new ArrayList<GantTarget>();
+  /**
+   *  The compiled Gant files, shared by all executions of the task so that a Gant file executed several
+   *  times in a build is compiled only once, or again if it changes.
+   */
+  private static final ScriptCache scriptCache = new ScriptCache();
   /**
    *  Set the name of the build file to use.  This path is relative to the basedir of the Ant project if it
    *  is set, or the directory in which the job was started if the basedir is not set.
@@ -157,8 +163,11 @@ public class Gant extends Task {
     //  NB As this class is called Gant, we have to use fully qualified name to get to the Gant main class.
     //
     final Project antProject =  getOwningTarget().getProject();
-    final Project newProject = new Project();
-    newProject.init();
+    //  The new Project instance is initialized as a subproject, as the Ant task does, so that it shares
+    //  the task and type definitions of the calling instance rather than loading them all again.
+    final Project newProject = antProject.createSubProject();
+    antProject.initSubProject(newProject);
+    newProject.initProperties();
     //  Deal with GANT-80 by getting all the the loggers from the Ant instance Project object and adding
     //  them to the new Project Object.  This was followed up by GANT-91 so the code was amended to copying
     //  over all listeners except the class loader if present.
@@ -186,6 +195,7 @@ public class Gant extends Task {
       ant.invokeMethod("property", new Object[] { definitionParameter });
     }
     final gant.Gant gant = new gant.Gant(binding);
+    gant.setScriptCache(scriptCache);
     gant.loadScript(gantFile);
     final List<String> targetsAsStrings = new ArrayList<String>();
     for (final GantTarget g : targets) { targetsAsStrings.add(g.getValue()); }
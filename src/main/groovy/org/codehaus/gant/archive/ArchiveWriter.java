@@ -0,0 +1,438 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ *  A writer of ZIP archives, e.g. jars and wars, compressing entries concurrently.  Entries are read
+ *  straight from the files added, there is no staging directory, and written in order of name, except
+ *  that the manifest comes first as required for jars.  At most a few entries per thread are held in
+ *  memory at once.
+ *
+ *  <p>An entry whose content is the same as that of the entry of the same name in the archive being
+ *  replaced, as written by this class with the same compression level, is copied from it without being
+ *  compressed again.  Contents are compared by SHA-256, kept in an extra field of the central directory.
+ *  If the archive is reproducible every entry has the same fixed timestamp, so the archive depends only
+ *  on the names and contents of the entries.</p>
+ *
+ *  <p>ZIP64 is not supported: archives are limited to 65535 entries and 4GB.</p>
+ *
+ *  @author Russel Winder
+ */
+public final class ArchiveWriter {
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+  private static final int UTF8_NAMES = 0x0800;
+  /**
+   *  The identifier of the extra field holding the SHA-256 of the content of an entry, in the range not
+   *  reserved by the ZIP specification.
+   */
+  private static final int HASH_FIELD = 0x4753;
+  private static final int HASH_LENGTH = 32;
+  /**
+   *  The DOS date and time of 1980-01-01T00:00, the earliest representable, used for reproducible archives.
+   */
+  private static final int FIXED_DOS_TIME = (((1 << 5) | 1) << 16);
+  private static final String MANIFEST_DIRECTORY = "META-INF/";
+  private static final String MANIFEST = "META-INF/MANIFEST.MF";
+  private final File destination;
+  private final int threads;
+  private final boolean reproducible;
+  private final int level;
+  private final Map<String, Source> entries = new TreeMap<>();
+  private int reusedEntries = 0;
+  /**
+   *  Constructor.
+   *
+   *  @param destination The archive to write.
+   *  @param threads The number of threads compressing entries.
+   *  @param reproducible Whether all entries have a fixed timestamp.
+   *  @param level The compression level, as for {@code Deflater}.
+   */
+  public ArchiveWriter(final File destination, final int threads, final boolean reproducible, final int level) {
+    this.destination = destination;
+    this.threads = Math.max(1, threads);
+    this.reproducible = reproducible;
+    this.level = level;
+  }
+  /**
+   *  Constructor for an archive that is not reproducible, compressed with the default level using as many
+   *  threads as there are processors.
+   *
+   *  @param destination The archive to write.
+   */
+  public ArchiveWriter(final File destination) {
+    this(destination, Runtime.getRuntime().availableProcessors(), false, Deflater.DEFAULT_COMPRESSION);
+  }
+  /**
+   *  Add the files and directories in a directory.  An entry replaces any entry of the same name already
+   *  added.
+   *
+   *  @param directory The directory.
+   *  @param prefix The prefix of the names of the entries, empty or ending with <code>/</code>.
+   */
+  public void addDirectory(final File directory, final String prefix) {
+    addParentDirectories(prefix, directory.lastModified());
+    final File[] files = directory.listFiles();
+    if (files == null) { return; }
+    for (final File file : files) {
+      if (file.isDirectory()) {
+        entries.put(prefix + file.getName() + "/", new Source(null, null, file.lastModified()));
+        addDirectory(file, prefix + file.getName() + "/");
+      }
+      else { entries.put(prefix + file.getName(), new Source(file, null, file.lastModified())); }
+    }
+  }
+  /**
+   *  Add a file.
+   *
+   *  @param name The name of the entry.
+   *  @param file The file.
+   */
+  public void addFile(final String name, final File file) {
+    addParentDirectories(name, file.lastModified());
+    entries.put(name, new Source(file, null, file.lastModified()));
+  }
+  /**
+   *  Add an entry with the given content.
+   *
+   *  @param name The name of the entry.
+   *  @param content The content.
+   */
+  public void addContent(final String name, final byte[] content) {
+    final long now = System.currentTimeMillis();
+    addParentDirectories(name, now);
+    entries.put(name, new Source(null, content, now));
+  }
+  /**
+   *  Determine whether an entry has been added.
+   *
+   *  @param name The name of the entry.
+   *  @return <code>true</code> if the entry has been added.
+   */
+  public boolean contains(final String name) { return entries.containsKey(name); }
+  /**
+   *  Get the number of entries copied from the previous archive by the last {@link #write}.
+   *
+   *  @return The number of entries.
+   */
+  public int getReusedEntries() { return reusedEntries; }
+  private void addParentDirectories(final String name, final long time) {
+    for (int i = name.indexOf('/'); i >= 0 && i < name.length() - 1; i = name.indexOf('/', i + 1)) {
+      final String parent = name.substring(0, i + 1);
+      if (! entries.containsKey(parent)) { entries.put(parent, new Source(null, null, time)); }
+    }
+  }
+  /**
+   *  Write the archive.  It is written to a temporary file which then replaces the destination, so the
+   *  destination is never partially written.
+   *
+   *  @return The number of entries written.
+   *  @throws IOException if a file cannot be read or the archive cannot be written.
+   */
+  public int write() throws IOException {
+    final List<String> names = new ArrayList<>(entries.keySet());
+    if (names.remove(MANIFEST)) { names.add(0, MANIFEST); }
+    if (names.remove(MANIFEST_DIRECTORY)) { names.add(0, MANIFEST_DIRECTORY); }
+    if (names.size() > 0xFFFF) { throw new IOException(destination + " would have more than 65535 entries, ZIP64 is not supported."); }
+    final File directory = destination.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    final File temporary = File.createTempFile(destination.getName(), ".tmp", directory);
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+        final Thread thread = new Thread(runnable, "gant-archive-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    reusedEntries = 0;
+    try (final PreviousArchive previous = PreviousArchive.open(destination, comment())) {
+      try (final CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+        final List<Entry> written = new ArrayList<>(names.size());
+        final Deque<Future<Entry>> pending = new ArrayDeque<>();
+        for (final String name : names) {
+          final Source source = entries.get(name);
+          pending.add(executor.submit(() -> prepare(name, source, previous)));
+          if (pending.size() >= 4 * threads) { written.add(writeEntry(output, get(pending.poll()))); }
+        }
+        while (! pending.isEmpty()) { written.add(writeEntry(output, get(pending.poll()))); }
+        writeCentralDirectory(output, written);
+      }
+    }
+    catch (final IOException | RuntimeException e) {
+      temporary.delete();
+      throw e;
+    }
+    finally { executor.shutdownNow(); }
+    Files.move(temporary.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return names.size();
+  }
+  private static Entry get(final Future<Entry> future) throws IOException {
+    try { return future.get(); }
+    catch (final InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted writing archive.", ie);
+    }
+    catch (final ExecutionException ee) {
+      if (ee.getCause() instanceof IOException) { throw (IOException) ee.getCause(); }
+      throw new IOException(ee.getCause());
+    }
+  }
+  /**
+   *  The archive comment, identifying the archives whose compressed entries can be reused.
+   */
+  private String comment() { return "Written by Gant, compression level " + level + "."; }
+  /**
+   *  Read and compress an entry, or copy it from the previous archive if its content is unchanged.
+   */
+  private Entry prepare(final String name, final Source source, final PreviousArchive previous) throws IOException {
+    final Entry entry = new Entry();
+    entry.name = name.getBytes(StandardCharsets.UTF_8);
+    entry.dosTime = reproducible ? FIXED_DOS_TIME : dosTime(source.time);
+    entry.directory = source.file == null && source.content == null;
+    if (entry.directory) {
+      entry.method = STORED;
+      entry.data = new byte[0];
+      return entry;
+    }
+    final byte[] content = source.content != null ? source.content : Files.readAllBytes(source.file.toPath());
+    final CRC32 crc = new CRC32();
+    crc.update(content);
+    entry.crc = crc.getValue();
+    entry.size = content.length;
+    entry.hash = sha256(content);
+    if (previous != null && previous.copy(name, entry)) {
+      synchronized (this) { ++reusedEntries; }
+      return entry;
+    }
+    final Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(content);
+      deflater.finish();
+      final byte[] buffer = new byte[Math.max(64, content.length + content.length / 1000 + 64)];
+      int length = 0;
+      while (! deflater.finished() && length < content.length) { length += deflater.deflate(buffer, length, buffer.length - length); }
+      if (deflater.finished() && length < content.length) {
+        entry.method = DEFLATED;
+        entry.data = Arrays.copyOf(buffer, length);
+      }
+      else {
+        entry.method = STORED;
+        entry.data = content;
+      }
+    }
+    finally { deflater.end(); }
+    return entry;
+  }
+  private static byte[] sha256(final byte[] content) {
+    try { return MessageDigest.getInstance("SHA-256").digest(content); }
+    catch (final NoSuchAlgorithmException nsae) { throw new IllegalStateException(nsae); }
+  }
+  private static int dosTime(final long time) {
+    final LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+    if (t.getYear() < 1980) { return FIXED_DOS_TIME; }
+    return ((t.getYear() - 1980) << 25) | (t.getMonthValue() << 21) | (t.getDayOfMonth() << 16) | (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+  }
+  private static Entry writeEntry(final CountingOutputStream output, final Entry entry) throws IOException {
+    entry.offset = output.count;
+    final ByteBuffer header = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(0x04034b50).putShort((short) 20).putShort((short) UTF8_NAMES).putShort((short) entry.method).putInt(entry.dosTime);
+    header.putInt((int) entry.crc).putInt(entry.data.length).putInt((int) entry.size).putShort((short) entry.name.length).putShort((short) 0);
+    output.write(header.array());
+    output.write(entry.name);
+    output.write(entry.data);
+    entry.compressedSize = entry.data.length;
+    entry.data = null;
+    if (output.count > 0xFFFFFFFFL) { throw new IOException("Archive larger than 4GB, ZIP64 is not supported."); }
+    return entry;
+  }
+  private void writeCentralDirectory(final CountingOutputStream output, final List<Entry> written) throws IOException {
+    final long start = output.count;
+    for (final Entry entry : written) {
+      final ByteBuffer header = ByteBuffer.allocate(46).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(0x02014b50).putShort((short) 20).putShort((short) 20).putShort((short) UTF8_NAMES).putShort((short) entry.method).putInt(entry.dosTime);
+      header.putInt((int) entry.crc).putInt((int) entry.compressedSize).putInt((int) entry.size).putShort((short) entry.name.length);
+      header.putShort((short) (entry.hash == null ? 0 : 4 + HASH_LENGTH)).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(entry.directory ? 0x10 : 0).putInt((int) entry.offset);
+      output.write(header.array());
+      output.write(entry.name);
+      if (entry.hash != null) {
+        output.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putShort((short) HASH_FIELD).putShort((short) HASH_LENGTH).array());
+        output.write(entry.hash);
+      }
+    }
+    final byte[] comment = comment().getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+    end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) written.size()).putShort((short) written.size());
+    end.putInt((int) (output.count - start)).putInt((int) start).putShort((short) comment.length);
+    output.write(end.array());
+    output.write(comment);
+  }
+  /**
+   *  The content of an entry to be written: a file, given content or, if neither, a directory.
+   */
+  private static final class Source {
+    final File file;
+    final byte[] content;
+    final long time;
+    Source(final File file, final byte[] content, final long time) {
+      this.file = file;
+      this.content = content;
+      this.time = time;
+    }
+  }
+  /**
+   *  An entry ready to be written, and once written the information for the central directory.
+   */
+  static final class Entry {
+    byte[] name;
+    int method;
+    int dosTime;
+    long crc;
+    long size;
+    long compressedSize;
+    long offset;
+    boolean directory;
+    byte[] hash;
+    byte[] data;
+  }
+  /**
+   *  An output stream counting the bytes written.
+   */
+  private static final class CountingOutputStream extends OutputStream {
+    private final OutputStream output;
+    long count = 0;
+    CountingOutputStream(final OutputStream output) { this.output = output; }
+    @Override public void write(final int b) throws IOException {
+      output.write(b);
+      ++count;
+    }
+    @Override public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+      output.write(bytes, offset, length);
+      count += length;
+    }
+    @Override public void close() throws IOException { output.close(); }
+  }
+  /**
+   *  The archive being replaced, from which unchanged compressed entries are copied.  Reads are positional
+   *  so entries can be copied by several threads at once.
+   */
+  private static final class PreviousArchive implements AutoCloseable {
+    private final FileChannel channel;
+    private final Map<String, long[]> entries = new HashMap<>();
+    private final Map<String, byte[]> hashes = new HashMap<>();
+    private PreviousArchive(final FileChannel channel) { this.channel = channel; }
+    /**
+     *  Open the previous archive, if there is one with the given comment, i.e. written by this class with
+     *  the same compression level.
+     *
+     *  @return The previous archive or <code>null</code>.
+     */
+    static PreviousArchive open(final File file, final String comment) {
+      if (! file.isFile()) { return null; }
+      FileChannel channel = null;
+      try {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        final byte[] commentBytes = comment.getBytes(StandardCharsets.UTF_8);
+        final long endOffset = channel.size() - 22 - commentBytes.length;
+        if (endOffset < 0) { throw new IOException("Not an archive."); }
+        final ByteBuffer end = read(channel, endOffset, 22 + commentBytes.length);
+        if (end.getInt(0) != 0x06054b50 || ! comment.equals(new String(end.array(), 22, commentBytes.length, StandardCharsets.UTF_8))) { throw new IOException("Not an archive written by Gant."); }
+        final int count = end.getShort(10) & 0xFFFF;
+        final ByteBuffer directory = read(channel, end.getInt(16) & 0xFFFFFFFFL, (int) (end.getInt(12) & 0xFFFFFFFFL));
+        final PreviousArchive archive = new PreviousArchive(channel);
+        int position = 0;
+        for (int i = 0; i < count; ++i) {
+          if (directory.getInt(position) != 0x02014b50) { throw new IOException("Damaged central directory."); }
+          final int method = directory.getShort(position + 10) & 0xFFFF;
+          final long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+          final long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+          final long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+          final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+          final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+          final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+          final long offset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+          final String name = new String(directory.array(), position + 46, nameLength, StandardCharsets.UTF_8);
+          archive.entries.put(name, new long[] { method, crc, compressedSize, size, offset + 30 + nameLength });
+          for (int field = position + 46 + nameLength; field + 4 <= position + 46 + nameLength + extraLength; field += 4 + (directory.getShort(field + 2) & 0xFFFF)) {
+            if ((directory.getShort(field) & 0xFFFF) == HASH_FIELD && (directory.getShort(field + 2) & 0xFFFF) == HASH_LENGTH) {
+              archive.hashes.put(name, Arrays.copyOfRange(directory.array(), field + 4, field + 4 + HASH_LENGTH));
+            }
+          }
+          position += 46 + nameLength + extraLength + commentLength;
+        }
+        return archive;
+      }
+      catch (final IOException | RuntimeException e) {
+        if (channel != null) {
+          try { channel.close(); }
+          catch (final IOException ioe) { /* Nothing can be done. */ }
+        }
+        return null;
+      }
+    }
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+      final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, position + buffer.position()) < 0) { throw new IOException("Unexpected end of archive."); }
+      }
+      return buffer;
+    }
+    /**
+     *  Copy the compressed data of an entry, if there is one of the name with the same content: the same
+     *  size, CRC and SHA-256.
+     *
+     *  @return <code>true</code> if the data was copied into the entry.
+     */
+    boolean copy(final String name, final Entry entry) throws IOException {
+      final long[] previous = entries.get(name);
+      if (previous == null || previous[1] != entry.crc || previous[3] != entry.size || ! Arrays.equals(hashes.get(name), entry.hash)) { return false; }
+      entry.method = (int) previous[0];
+      entry.data = read(channel, previous[4], (int) previous[2]).array();
+      return true;
+    }
+    @Override public void close() throws IOException { channel.close(); }
+  }
+}
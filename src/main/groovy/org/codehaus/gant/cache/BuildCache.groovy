@@ -0,0 +1,148 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.cache
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
+
+import org.apache.tools.ant.Project
+
+import org.codehaus.gant.Fingerprint
+
+/**
+ *  A build cache: the outputs of targets stored by a key computed from their inputs, so that a target
+ *  whose inputs are the same as those of an earlier execution, on any branch, in any checkout or on any
+ *  machine sharing the backend, can have its outputs restored instead of being executed.
+ *
+ *  <p>The key of a target is a hash of its name, the Gant and Groovy versions, the sources of the build
+ *  script and the scripts it includes, and the content and paths, relative to the project base directory,
+ *  of its declared inputs.  Precompiled build scripts and classes have no source so, unless they are among
+ *  the declared inputs, the build cache must be cleared when they change.  An entry is a zip file of the files of
+ *  the declared outputs, by path relative to the project base directory.  Failures of the backend are
+ *  logged and treated as a miss: the target is executed.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class BuildCache {
+  /**
+   *  The storage of the entries.
+   */
+  final BuildCacheBackend backend
+  /**
+   *  Constructor.
+   *
+   *  @param backend The storage of the entries.
+   */
+  BuildCache(final BuildCacheBackend backend) { this.backend = backend }
+  /**
+   *  Compute the key for the outputs of a target.
+   *
+   *  @param project The <code>Project</code> the inputs are resolved against.
+   *  @param targetName The name of the target.
+   *  @param inputs The declared inputs of the target.
+   *  @param gantVersion The version of Gant, <code>null</code> if unknown.
+   *  @param scriptHashes The hashes of the sources of the scripts defining the target.
+   *  @return The key.
+   */
+  String keyFor(final Project project, final String targetName, final inputs, final String gantVersion, final Collection<String> scriptHashes = []) {
+    Fingerprint.keyOf([targetName, gantVersion ?: '', GroovySystem.version, Fingerprint.ofContent(project, inputs)] + (scriptHashes as List))
+  }
+  /**
+   *  Determine whether there is an entry for a key.
+   */
+  boolean contains(final Project project, final String key) {
+    try { backend.contains(key) }
+    catch (final IOException ioe) {
+      project.log('Cannot query the build cache: ' + ioe.message, Project.MSG_WARN)
+      false
+    }
+  }
+  /**
+   *  Replace the outputs of a target with those of the entry for a key.
+   *
+   *  @param project The <code>Project</code> the outputs are resolved against.
+   *  @param key The key.
+   *  @param outputs The declared outputs of the target, the files of which are deleted first.
+   *  @return Whether the outputs were restored.
+   */
+  boolean restore(final Project project, final String key, final outputs) {
+    final entry = File.createTempFile('gant-build-cache-', '.zip')
+    try {
+      if (! backend.load(key, entry)) { return false }
+      Fingerprint.files(project, outputs).each { File file -> file.delete() }
+      unpack(entry, project.baseDir)
+      true
+    }
+    catch (final IOException ioe) {
+      project.log('Cannot restore from the build cache: ' + ioe.message, Project.MSG_WARN)
+      false
+    }
+    finally { entry.delete() }
+  }
+  /**
+   *  Store the outputs of a target as the entry for a key.  Outputs not under the project base directory
+   *  cannot be restored in another checkout, so a target having them is not stored.
+   *
+   *  @param project The <code>Project</code> the outputs are resolved against.
+   *  @param key The key.
+   *  @param outputs The declared outputs of the target.
+   */
+  void store(final Project project, final String key, final outputs) {
+    final files = Fingerprint.files(project, outputs)
+    final Map<String, File> entries = new TreeMap<String, File>()
+    for (file in files) {
+      final path = Fingerprint.relativePath(project, file)
+      if (path == null) {
+        project.log('Not storing in the build cache, ' + file + ' is not in the project directory.', Project.MSG_WARN)
+        return
+      }
+      entries[path] = file
+    }
+    final entry = File.createTempFile('gant-build-cache-', '.zip')
+    try {
+      entry.withOutputStream { stream ->
+        new ZipOutputStream(new BufferedOutputStream(stream)).withCloseable { zip ->
+          entries.each { path, file ->
+            zip.putNextEntry(new ZipEntry(path))
+            file.withInputStream { input -> zip << input }
+            zip.closeEntry()
+          }
+        }
+      }
+      backend.store(key, entry)
+    }
+    catch (final IOException ioe) { project.log('Cannot store in the build cache: ' + ioe.message, Project.MSG_WARN) }
+    finally { entry.delete() }
+  }
+  /**
+   *  Extract the files of an entry.  Paths leading out of the directory are rejected.
+   */
+  private static void unpack(final File entry, final File directory) {
+    final base = directory.toPath().toAbsolutePath().normalize()
+    entry.withInputStream { stream ->
+      new ZipInputStream(new BufferedInputStream(stream)).withCloseable { zip ->
+        for (ZipEntry item = zip.nextEntry; item != null; item = zip.nextEntry) {
+          final path = base.resolve(item.name).normalize()
+          if (! path.startsWith(base)) { throw new IOException('Invalid path in build cache entry: ' + item.name) }
+          if (item.directory) { continue }
+          final file = path.toFile()
+          file.parentFile.mkdirs()
+          file.withOutputStream { output -> output << zip }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.cache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *  The storage of a build cache: entries, each a file, keyed by a hex string.  An implementation may keep
+ *  the entries anywhere, for example in a local directory or on a shared server, and may be used by several
+ *  threads, and several processes, at once.  An entry once stored for a key is never changed, so storing
+ *  an entry for a key already present may be ignored.
+ *
+ *  @author Russel Winder
+ */
+public interface BuildCacheBackend {
+  /**
+   *  Determine whether there is an entry for a key.
+   *
+   *  @param key The key.
+   *  @return Whether there is an entry.
+   */
+  boolean contains(String key) throws IOException;
+  /**
+   *  Copy the entry for a key to a file.
+   *
+   *  @param key The key.
+   *  @param destination The file to write the entry to, it exists and is to be overwritten.
+   *  @return Whether there is an entry, if not the destination is unchanged.
+   */
+  boolean load(String key, File destination) throws IOException;
+  /**
+   *  Store an entry for a key.
+   *
+   *  @param key The key.
+   *  @param entry The file holding the entry, it is deleted by the caller afterwards.
+   */
+  void store(String key, File entry) throws IOException;
+}
@@ -0,0 +1,55 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.cache
+
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardCopyOption
+
+import org.codehaus.gant.Fingerprint
+
+/**
+ *  A build cache backend keeping the entries as files in a local directory, by default
+ *  <code>.gant/build-cache</code> in the home directory of the user so that it is shared by all the
+ *  checkouts of all projects.  Entries are written to a temporary file and then moved into place, so
+ *  concurrent processes sharing the directory never see a partially written entry.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class LocalBuildCache implements BuildCacheBackend {
+  /**
+   *  The directory holding the entries.
+   */
+  final File directory
+  /**
+   *  Constructor.
+   *
+   *  @param directory The directory to hold the entries, it is created when the first entry is stored.
+   */
+  LocalBuildCache(final File directory = new File(System.getProperty('user.home'), '.gant/build-cache')) { this.directory = directory }
+  @Override boolean contains(final String key) { fileFor(key).isFile() }
+  @Override boolean load(final String key, final File destination) {
+    final file = fileFor(key)
+    try { Files.copy(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING) }
+    catch (final NoSuchFileException nsfe) { return false }
+    true
+  }
+  @Override void store(final String key, final File entry) {
+    final file = fileFor(key)
+    if (file.isFile()) { return }
+    Fingerprint.writeAtomically(file) { File temporary -> Files.copy(entry.toPath(), temporary.toPath(), StandardCopyOption.REPLACE_EXISTING) }
+  }
+  private File fileFor(final String key) { new File(directory, key + '.zip') }
+}
@@ -0,0 +1,153 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.compile
+
+import groovy.io.FileType
+
+import org.codehaus.gant.Fingerprint
+
+/**
+ *  An index of the classes in a set of class file directories: the hash of each class file and the
+ *  classes each class refers to.  Comparing the index with one made earlier gives the classes that have
+ *  changed, and from the references the classes that reach them, directly or indirectly, can be found,
+ *  e.g. the tests that may be affected by a change.
+ *
+ *  <p>Class names are internal names, e.g. <code>org/codehaus/gant/GantBinding</code>.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class ClassDependencyIndex {
+  /**
+   *  The key of the configuration the index was made with, indexes with different keys are not comparable.
+   */
+  final String settings
+  /**
+   *  The hash of each class file, keyed by class name.
+   */
+  final Map<String, String> hashes = new TreeMap<String, String>()
+  /**
+   *  The classes each class refers to, keyed by class name.
+   */
+  final Map<String, Set<String>> references = new TreeMap<String, Set<String>>()
+  /**
+   *  Constructor.
+   *
+   *  @param settings The key of the configuration.
+   */
+  ClassDependencyIndex(final String settings) { this.settings = settings }
+  /**
+   *  Index the class files in directories.  The references of a class whose class file is unchanged since
+   *  a previous index are taken from that index rather than read again.
+   *
+   *  @param directories The directories holding the class files, those that do not exist are ignored.
+   *  @param settings The key of the configuration.
+   *  @param previous A previous index or <code>null</code>.
+   *  @return The index.
+   */
+  static ClassDependencyIndex build(final List<File> directories, final String settings, final ClassDependencyIndex previous = null) {
+    final index = new ClassDependencyIndex(settings)
+    directories.findAll { File directory -> directory.isDirectory() }.each { File directory ->
+      final root = directory.absoluteFile.toPath()
+      directory.eachFileRecurse(FileType.FILES) { File file ->
+        if (! file.name.endsWith('.class')) { return }
+        final relative = root.relativize(file.absoluteFile.toPath()).toString().replace(File.separatorChar, (char) '/')
+        final name = relative[0 ..< -'.class'.length()]
+        final hash = Fingerprint.hashOf(file)
+        index.hashes[name] = hash
+        index.references[name] = previous != null && previous.hashes[name] == hash ? previous.references[name] : new TreeSet<String>(ClassFileInfo.read(file).references)
+      }
+    }
+    index
+  }
+  /**
+   *  The classes that are new, removed or have different class files compared with an earlier index.
+   *
+   *  @param earlier The earlier index.
+   *  @return The names of the classes.
+   */
+  Set<String> changedSince(final ClassDependencyIndex earlier) {
+    final Set<String> changed = new TreeSet<String>(hashes.keySet().findAll { String name -> earlier.hashes[name] != hashes[name] })
+    changed.addAll(earlier.hashes.keySet().findAll { String name -> ! hashes.containsKey(name) })
+    changed
+  }
+  /**
+   *  Select the classes that are changed or reach a changed class through their references, directly or
+   *  indirectly.
+   *
+   *  @param candidates The names of the classes to select from.
+   *  @param changed The names of the changed classes.
+   *  @return The names of the selected classes.
+   */
+  Set<String> reaching(final Collection<String> candidates, final Set<String> changed) {
+    final Map<String, Boolean> reaches = new HashMap<String, Boolean>()
+    changed.each { String name -> reaches[name] = true }
+    final Set<String> selected = new TreeSet<String>()
+    candidates.each { String candidate ->
+      final Set<String> visited = new HashSet<String>([candidate])
+      final Deque<String> pending = new ArrayDeque<String>([candidate])
+      boolean found = false
+      while (! pending.empty && ! found) {
+        final name = pending.pop()
+        final known = reaches[name]
+        if (known == null) { references[name]?.each { String reference -> if (visited.add(reference)) { pending.push(reference) } } }
+        else if (known) { found = true }
+      }
+      if (found) { selected << candidate }
+      else { visited.each { String name -> reaches[name] = false } }
+    }
+    selected
+  }
+  /**
+   *  Load an index.
+   *
+   *  @return The index or <code>null</code> if there is none or it cannot be read.
+   */
+  static ClassDependencyIndex load(final File file) {
+    if (! file.isFile()) { return null }
+    try {
+      ClassDependencyIndex index = null
+      Set<String> current = null
+      file.eachLine('UTF-8') { String line ->
+        final fields = line.split(' ')
+        switch (fields[0]) {
+          case 'settings': index = new ClassDependencyIndex(fields[1]) ; break
+          case 'class':
+            index.hashes[fields[1]] = fields[2]
+            current = index.references[fields[1]] = new TreeSet<String>()
+            break
+          case 'reference': current << fields[1] ; break
+          default: throw new IOException('Unknown index line: ' + line)
+        }
+      }
+      index
+    }
+    catch (final Exception e) { null }
+  }
+  /**
+   *  Save the index, writing a temporary file and moving it into place so the file is never seen partially
+   *  written.
+   */
+  void save(final File file) {
+    Fingerprint.writeAtomically(file) { File temporary ->
+      temporary.withWriter('UTF-8') { Writer writer ->
+        writer << 'settings ' << settings << '\n'
+        hashes.each { String name, String hash ->
+          writer << 'class ' << name << ' ' << hash << '\n'
+          references[name].each { writer << 'reference ' << it << '\n' }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.compile;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ *  What the incremental compiler needs to know about a class file: the name of the class, the source file
+ *  it was compiled from, the classes it refers to and whether it declares compile time constants, which
+ *  compilers copy into the classes using them.  The references are those of the constant pool, both class
+ *  entries and the class names in descriptors and signatures, so they include every class the class file
+ *  could depend on and possibly a few more.
+ *
+ *  @author Russel Winder
+ */
+public final class ClassFileInfo {
+  /**
+   *  The internal name of the class, e.g. <code>org/codehaus/gant/GantBinding</code>.
+   */
+  public final String name;
+  /**
+   *  The name, without directory, of the source file, or <code>null</code> if the class file does not
+   *  record it.
+   */
+  public final String sourceFile;
+  /**
+   *  The internal names of the classes referred to, other than this class.
+   */
+  public final Set<String> references;
+  /**
+   *  Whether the class declares a field initialized with a compile time constant.
+   */
+  public final boolean declaresConstants;
+  private ClassFileInfo(final String name, final String sourceFile, final Set<String> references, final boolean declaresConstants) {
+    this.name = name;
+    this.sourceFile = sourceFile;
+    this.references = Collections.unmodifiableSet(references);
+    this.declaresConstants = declaresConstants;
+  }
+  /**
+   *  Read a class file.
+   *
+   *  @param file The class file.
+   *  @return The information about the class.
+   *  @throws IOException if the file cannot be read or is not a class file.
+   */
+  public static ClassFileInfo read(final File file) throws IOException {
+    try (final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (input.readInt() != 0xCAFEBABE) { throw new IOException(file + " is not a class file."); }
+      input.readUnsignedShort();
+      input.readUnsignedShort();
+      final int poolSize = input.readUnsignedShort();
+      final String[] utf8 = new String[poolSize];
+      final int[] classNameIndex = new int[poolSize];
+      for (int i = 1; i < poolSize; ++i) {
+        final int tag = input.readUnsignedByte();
+        switch (tag) {
+          case 1: utf8[i] = input.readUTF(); break;
+          case 7: classNameIndex[i] = input.readUnsignedShort(); break;
+          case 8: case 16: case 19: case 20: input.readUnsignedShort(); break;
+          case 15: input.skipBytes(3); break;
+          case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: input.skipBytes(4); break;
+          case 5: case 6: input.skipBytes(8); ++i; break;
+          default: throw new IOException(file + " has an unknown constant pool entry.");
+        }
+      }
+      input.readUnsignedShort();
+      final String name = utf8[classNameIndex[input.readUnsignedShort()]];
+      input.readUnsignedShort();
+      input.skipBytes(2 * input.readUnsignedShort());
+      boolean declaresConstants = false;
+      final int fieldCount = input.readUnsignedShort();
+      for (int i = 0; i < fieldCount; ++i) {
+        input.skipBytes(6);
+        final int attributeCount = input.readUnsignedShort();
+        for (int j = 0; j < attributeCount; ++j) {
+          if ("ConstantValue".equals(utf8[input.readUnsignedShort()])) { declaresConstants = true; }
+          input.skipBytes(input.readInt());
+        }
+      }
+      final int methodCount = input.readUnsignedShort();
+      for (int i = 0; i < methodCount; ++i) {
+        input.skipBytes(6);
+        final int attributeCount = input.readUnsignedShort();
+        for (int j = 0; j < attributeCount; ++j) {
+          input.readUnsignedShort();
+          input.skipBytes(input.readInt());
+        }
+      }
+      String sourceFile = null;
+      final int attributeCount = input.readUnsignedShort();
+      for (int i = 0; i < attributeCount; ++i) {
+        final String attributeName = utf8[input.readUnsignedShort()];
+        final int length = input.readInt();
+        if ("SourceFile".equals(attributeName)) {
+          sourceFile = utf8[input.readUnsignedShort()];
+          input.skipBytes(length - 2);
+        }
+        else { input.skipBytes(length); }
+      }
+      final Set<String> references = new TreeSet<>();
+      for (int i = 1; i < poolSize; ++i) {
+        if (classNameIndex[i] != 0) { addClassName(utf8[classNameIndex[i]], references); }
+        else if (utf8[i] != null) { addDescriptorClassNames(utf8[i], references); }
+      }
+      references.remove(name);
+      return new ClassFileInfo(name, sourceFile, references, declaresConstants);
+    }
+  }
+  /**
+   *  Add the class named by a class entry, which for an array class is the descriptor of the array.
+   */
+  private static void addClassName(final String className, final Set<String> references) {
+    if (className.startsWith("[")) { addDescriptorClassNames(className, references); }
+    else { references.add(className); }
+  }
+  /**
+   *  Add the classes named in a descriptor or signature, i.e. the <code>L</code><i>name</i><code>;</code>
+   *  and, for generic signatures, <code>L</code><i>name</i><code>&lt;</code> parts.
+   */
+  private static void addDescriptorClassNames(final String descriptor, final Set<String> references) {
+    int start = descriptor.indexOf('L');
+    while (start >= 0) {
+      if (start == 0 || "([);<>:*+-^".indexOf(descriptor.charAt(start - 1)) >= 0) {
+        int end = start + 1;
+        while (end < descriptor.length() && ";<.".indexOf(descriptor.charAt(end)) < 0) { ++end; }
+        if (end < descriptor.length() && end > start + 1) { references.add(descriptor.substring(start + 1, end)); }
+        start = descriptor.indexOf('L', end);
+      }
+      else { start = descriptor.indexOf('L', start + 1); }
+    }
+  }
+}
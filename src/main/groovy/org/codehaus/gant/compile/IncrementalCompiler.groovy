@@ -0,0 +1,372 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.compile
+
+import java.nio.file.Files
+
+import javax.tools.ToolProvider
+
+import groovy.io.FileType
+
+import org.codehaus.gant.Fingerprint
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.tools.javac.JavaAwareCompilationUnit
+import org.codehaus.groovy.tools.javac.JavaCompiler
+import org.codehaus.groovy.tools.javac.JavaCompilerFactory
+
+/**
+ *  An incremental compiler of Java and Groovy source, compiling in-process with <code>javax.tools</code>
+ *  and the Groovy <code>CompilationUnit</code>, using joint compilation when there are both.
+ *
+ *  <p>An analysis file records, for each source file, the hash of its content, the class files compiled
+ *  from it and the classes of other source files it refers to.  A compilation compiles only the source
+ *  files that are new or have changed, or whose class files have gone, together with all the source files
+ *  depending on them directly or indirectly, having first deleted their class files and those of source
+ *  files that have been removed.  Everything is compiled if there is no analysis, if the compiler options
+ *  or the classpath, including the content of its directories, have changed, or if a changed source file
+ *  declares compile time constants, since these are copied into the classes using them.  The class files are those a compilation of all the
+ *  source files would produce.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+class IncrementalCompiler {
+  /**
+   *  The directories holding the source files.
+   */
+  final List<File> sourceDirectories
+  /**
+   *  The directory the class files are written to.
+   */
+  final File destination
+  /**
+   *  The classpath for compiling, excluding the destination.
+   */
+  final List<File> classpath
+  /**
+   *  The file holding the analysis.
+   */
+  final File analysisFile
+  /**
+   *  The options for <code>javac</code>, other than the classpath and destination.
+   */
+  final List<String> javacOptions
+  /**
+   *  The encoding of the source files.
+   */
+  final String encoding
+  /**
+   *  Constructor.
+   *
+   *  @param sourceDirectories The directories holding the source files, those that do not exist are ignored.
+   *  @param destination The directory to write the class files to.
+   *  @param classpath The classpath for compiling.
+   *  @param analysisFile The file holding the analysis.
+   *  @param javacOptions The options for <code>javac</code>.
+   *  @param encoding The encoding of the source files.
+   */
+  IncrementalCompiler(final List<File> sourceDirectories, final File destination, final List<File> classpath, final File analysisFile, final List<String> javacOptions = [], final String encoding = 'UTF-8') {
+    this.sourceDirectories = sourceDirectories
+    this.destination = destination
+    this.classpath = classpath
+    this.analysisFile = analysisFile
+    this.javacOptions = javacOptions
+    this.encoding = encoding
+  }
+  /**
+   *  Compile the source files that need compiling.
+   *
+   *  @return The source files compiled.
+   */
+  List<File> compile() {
+    final selection = select()
+    def analysis = selection.analysis
+    if (selection.full) {
+      analysis?.entries?.values()?.each { Analysis.Entry entry -> deleteClassFiles(entry) }
+      analysis = new Analysis(selection.settings)
+    }
+    else { selection.removed.each { String path -> deleteClassFiles(analysis.entries.remove(path)) } }
+    selection.toCompile.each { String path -> deleteClassFiles(analysis.entries.remove(path)) }
+    analysis.save(analysisFile)
+    if (selection.toCompile) {
+      final files = selection.toCompile.collect { String path -> selection.sources[path] }
+      destination.mkdirs()
+      compileFiles(files)
+      record(analysis, files, selection.hashes)
+      analysis.save(analysisFile)
+      return files
+    }
+    []
+  }
+  /**
+   *  Determine the source files that need compiling, changing nothing.
+   *
+   *  @return The source files a compilation would compile.
+   */
+  List<File> outOfDate() {
+    final selection = select()
+    selection.toCompile.collect { String path -> selection.sources[path] }
+  }
+  /**
+   *  Determine what a compilation has to do from the source files and the analysis.
+   */
+  private Selection select() {
+    final selection = new Selection(settings: settingsKey(), analysis: Analysis.load(analysisFile))
+    sourceDirectories.findAll { File directory -> directory.isDirectory() }.each { File directory ->
+      directory.eachFileRecurse(FileType.FILES) { File file ->
+        if (file.name.endsWith('.java') || file.name.endsWith('.groovy')) { selection.sources[file.absolutePath] = file.absoluteFile }
+      }
+    }
+    selection.hashes.putAll(selection.sources.collectEntries { path, file -> [(path): Fingerprint.hashOf(file)] })
+    final analysis = selection.analysis
+    if (analysis == null || analysis.settings != selection.settings) { selection.full = true }
+    else {
+      final changed = selection.sources.keySet().findAll { String path ->
+        final entry = analysis.entries[path]
+        entry == null || entry.hash != selection.hashes[path] || ! entry.classFiles.every { String classFile -> new File(destination, classFile).isFile() }
+      } as Set<String>
+      selection.removed.addAll(analysis.entries.keySet().findAll { String path -> ! selection.sources.containsKey(path) })
+      if ((changed + selection.removed).any { String path -> analysis.entries[path]?.declaresConstants }) { selection.full = true }
+      else {
+        selection.toCompile.addAll(changed)
+        selection.toCompile.addAll(analysis.dependents(changed + selection.removed).findAll { String path -> selection.sources.containsKey(path) })
+      }
+    }
+    if (selection.full) { selection.toCompile.addAll(selection.sources.keySet()) }
+    selection
+  }
+  private void deleteClassFiles(final Analysis.Entry entry) {
+    entry?.classFiles?.each { String classFile -> new File(destination, classFile).delete() }
+  }
+  /**
+   *  The key of everything other than the source files that affects the class files.
+   */
+  private String settingsKey() {
+    final items = [GroovySystem.version, System.getProperty('java.version'), encoding, *javacOptions]
+    classpath.each { File file ->
+      items.addAll([file.absolutePath, file.isFile() ? file.length() + ':' + file.lastModified() : file.isDirectory() ? directoryKey(file) : ''])
+    }
+    Fingerprint.keyOf(items)
+  }
+  /**
+   *  The key of the content of a directory on the classpath, for example the class files of another
+   *  compilation.  When any of its files changes everything is compiled, since class files compiled
+   *  against it may use members that have gone or have copies of constants that have changed.
+   */
+  private static String directoryKey(final File directory) {
+    final root = directory.absoluteFile.toPath()
+    final entries = new TreeSet<String>()
+    directory.eachFileRecurse(FileType.FILES) { File file ->
+      entries << root.relativize(file.absoluteFile.toPath()).toString().replace(File.separatorChar, (char) '/') + ' ' + Fingerprint.hashOf(file)
+    }
+    Fingerprint.keyOf(entries)
+  }
+  /**
+   *  Compile source files, with <code>javac</code> if they are all Java, otherwise with the Groovy
+   *  compiler, jointly with <code>javac</code> if some are Java.
+   */
+  private void compileFiles(final List<File> files) {
+    final javaFiles = files.findAll { File file -> file.name.endsWith('.java') }
+    final groovyFiles = files.findAll { File file -> file.name.endsWith('.groovy') }
+    if (! groovyFiles) {
+      javac(javaFiles*.path, [destination] + classpath)
+      return
+    }
+    final configuration = new CompilerConfiguration()
+    configuration.targetDirectory = destination
+    configuration.sourceEncoding = encoding
+    configuration.classpathList = ([destination] + classpath)*.path
+    final loader = new GroovyClassLoader(getClass().classLoader, configuration)
+    if (! javaFiles) {
+      final unit = new CompilationUnit(configuration, null, loader)
+      unit.addSources(groovyFiles as File[])
+      unit.compile()
+      return
+    }
+    final stubDirectory = Files.createTempDirectory('gant-stubs-').toFile()
+    try {
+      configuration.jointCompilationOptions = [stubDir: stubDirectory]
+      final unit = new JavaAwareCompilationUnit(configuration, loader)
+      final groovyLocation = new File(GroovyObject.protectionDomain.codeSource.location.toURI())
+      unit.compilerFactory = { CompilerConfiguration c ->
+        { List<String> sourceFiles, CompilationUnit compilationUnit -> javac(sourceFiles, [destination] + classpath + [groovyLocation], stubDirectory) } as JavaCompiler
+      } as JavaCompilerFactory
+      unit.addSources(groovyFiles as File[])
+      unit.addSources(javaFiles as File[])
+      unit.compile()
+    }
+    finally { stubDirectory.deleteDir() }
+  }
+  /**
+   *  Compile Java source files in-process.  The source path, if given, is used only to find the types of
+   *  source files not being compiled, e.g. the stubs of Groovy classes.
+   */
+  private void javac(final List<String> files, final List<File> path, final File sourcePath = null) {
+    final compiler = ToolProvider.systemJavaCompiler
+    if (compiler == null) { throw new RuntimeException('No Java compiler is available, Gant must be run using a JDK.') }
+    final fileManager = compiler.getStandardFileManager(null, null, null)
+    try {
+      final options = javacOptions + ['-encoding', encoding, '-implicit:none', '-d', destination.path, '-classpath', path*.path.join(File.pathSeparator)]
+      if (sourcePath != null) { options.addAll(['-sourcepath', sourcePath.path]) }
+      if (! compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjectsFromStrings(files)).call()) {
+        throw new RuntimeException('Compilation failed.')
+      }
+    }
+    finally { fileManager.close() }
+  }
+  /**
+   *  Record the class files of the compiled source files, found from the source file named in each class
+   *  file not already accounted for, and the classes of other source files they refer to.
+   */
+  private void record(final Analysis analysis, final List<File> files, final Map<String, String> hashes) {
+    final known = analysis.entries.values().collectMany { Analysis.Entry entry -> entry.classFiles } as Set<String>
+    final Map<String, Analysis.Entry> compiled = files.collectEntries { File file -> [(file.path): new Analysis.Entry(hash: hashes[file.path])] }
+    final Map<String, List<ClassFileInfo>> infos = [:]
+    final root = destination.absoluteFile.toPath()
+    destination.eachFileRecurse(FileType.FILES) { File file ->
+      if (! file.name.endsWith('.class')) { return }
+      final relative = root.relativize(file.absoluteFile.toPath()).toString().replace(File.separatorChar, (char) '/')
+      if (relative in known) { return }
+      final info = ClassFileInfo.read(file)
+      final source = sourceOf(info, files)
+      if (source == null) { return }
+      compiled[source.path].classFiles << relative
+      compiled[source.path].classNames << info.name
+      compiled[source.path].declaresConstants |= info.declaresConstants
+      infos.get(source.path, []) << info
+    }
+    analysis.entries.putAll(compiled)
+    final Map<String, String> owners = [:]
+    analysis.entries.each { String path, Analysis.Entry entry -> entry.classNames.each { String name -> owners[name] = path } }
+    infos.each { String path, List<ClassFileInfo> classInfos ->
+      final references = classInfos.collectMany { ClassFileInfo info -> info.references } as Set<String>
+      compiled[path].references.addAll(references.findAll { String name -> owners.containsKey(name) && owners[name] != path })
+    }
+  }
+  /**
+   *  Find which of the source files compiled a class file was compiled from: the one with the name given in
+   *  the class file, preferring one in the directory matching the package.
+   */
+  private static File sourceOf(final ClassFileInfo info, final List<File> files) {
+    if (info.sourceFile == null) { return null }
+    final candidates = files.findAll { File file -> file.name == info.sourceFile }
+    if (candidates.size() < 2) { return candidates ? candidates[0] : null }
+    final packagePath = info.name.contains('/') ? info.name.substring(0, info.name.lastIndexOf('/') + 1) : ''
+    candidates.find { File file -> file.path.replace(File.separatorChar, (char) '/').endsWith('/' + packagePath + info.sourceFile) } ?: candidates[0]
+  }
+  /**
+   *  What a compilation has to do: the source files to compile, whether everything is compiled and the
+   *  source files removed since the analysis.
+   */
+  private static final class Selection {
+    String settings
+    Analysis analysis
+    Map<String, File> sources = new TreeMap<String, File>()
+    Map<String, String> hashes = [:]
+    boolean full = false
+    Set<String> removed = new TreeSet<String>()
+    Set<String> toCompile = new TreeSet<String>()
+  }
+  /**
+   *  The persisted record of the source files compiled, their class files and the references between them.
+   */
+  static final class Analysis {
+    /**
+     *  The key of the settings the analysis was made with.
+     */
+    final String settings
+    /**
+     *  The entries keyed by the absolute path of the source file.
+     */
+    final Map<String, Entry> entries = new TreeMap<String, Entry>()
+    Analysis(final String settings) { this.settings = settings }
+    /**
+     *  The source files depending, directly or indirectly, on those given.
+     */
+    Set<String> dependents(final Set<String> paths) {
+      final Map<String, String> owners = [:]
+      entries.each { String path, Entry entry -> entry.classNames.each { String name -> owners[name] = path } }
+      final Map<String, Set<String>> dependents = [:]
+      entries.each { String path, Entry entry ->
+        entry.references.each { String name -> if (owners.containsKey(name)) { dependents.get(owners[name], [] as Set) << path } }
+      }
+      final Set<String> result = new TreeSet<String>()
+      final Deque<String> pending = new ArrayDeque<String>(paths)
+      while (! pending.empty) {
+        dependents[pending.pop()]?.each { String path -> if (result.add(path)) { pending.push(path) } }
+      }
+      result.removeAll(paths)
+      result
+    }
+    /**
+     *  Load an analysis.
+     *
+     *  @return The analysis or <code>null</code> if there is none or it cannot be read.
+     */
+    static Analysis load(final File file) {
+      if (! file.isFile()) { return null }
+      try {
+        Analysis analysis = null
+        Entry entry = null
+        file.eachLine('UTF-8') { String line ->
+          final space = line.indexOf(' ')
+          final kind = line.substring(0, space)
+          final value = line.substring(space + 1)
+          switch (kind) {
+            case 'settings': analysis = new Analysis(value) ; break
+            case 'source':
+              final fields = value.split(' ', 3)
+              entry = new Entry(hash: fields[0], declaresConstants: fields[1] == 'true')
+              analysis.entries[fields[2]] = entry
+              break
+            case 'classFile': entry.classFiles << value ; break
+            case 'class': entry.classNames << value ; break
+            case 'reference': entry.references << value ; break
+            default: throw new IOException('Unknown analysis line: ' + line)
+          }
+        }
+        analysis
+      }
+      catch (final Exception e) { null }
+    }
+    /**
+     *  Save the analysis, writing a temporary file and moving it into place so the file is never seen
+     *  partially written.
+     */
+    void save(final File file) {
+      Fingerprint.writeAtomically(file) { File temporary ->
+        temporary.withWriter('UTF-8') { Writer writer ->
+          writer << 'settings ' << settings << '\n'
+          entries.each { String path, Entry entry ->
+            writer << 'source ' << entry.hash << ' ' << entry.declaresConstants << ' ' << path << '\n'
+            entry.classFiles.each { writer << 'classFile ' << it << '\n' }
+            entry.classNames.each { writer << 'class ' << it << '\n' }
+            entry.references.each { writer << 'reference ' << it << '\n' }
+          }
+        }
+      }
+    }
+    /**
+     *  What is recorded about a source file.
+     */
+    static final class Entry {
+      String hash
+      boolean declaresConstants = false
+      Set<String> classFiles = new TreeSet<String>()
+      Set<String> classNames = new TreeSet<String>()
+      Set<String> references = new TreeSet<String>()
+    }
+  }
+}
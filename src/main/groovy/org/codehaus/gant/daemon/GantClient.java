@@ -0,0 +1,349 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ *  The client for the Gant daemon, a long-lived process that executes Gant runs with warm caches and a warm
+ *  JIT.  Invoked with the {@code --daemon} option, the client forwards the arguments and environment to the
+ *  daemon for the current directory, starting one if necessary, and relays the output and exit code.
+ *  Without that option, or when the daemon cannot be used, Gant is executed in this process.
+ *
+ *  <p>This class deliberately uses nothing but the Java platform, so that using a daemon does not pay for
+ *  initializing Groovy in the client.</p>
+ *
+ *  <p>There is one daemon per working directory, Java installation, JVM options and classpath, and values
+ *  of the environment variables inherited by the processes runs start, {@code PATH}, {@code LANG} and
+ *  {@code LC_ALL}; a change to any of these, including a change to a jar on the classpath, leads to a new
+ *  daemon.  The rest of the environment is sent with each request and is seen by the run as the
+ *  {@code environment.*} Ant properties, so variables that differ between shells or jobs do not lead to new
+ *  daemons.  An unused daemon exits after the idle time given by the {@code gant.daemon.idleTimeout} system
+ *  property, in minutes, default 180.  The daemon listens only on the loopback interface and requires a
+ *  secret token read from a file only the user can read, in {@code ~/.gant/daemon} unless the
+ *  {@code gant.daemon.directory} system property gives another directory.</p>
+ *
+ *  <p>Runs reading the script from standard input, and runs changing the classpath with {@code -L} or
+ *  {@code -P}, are always executed in this process.</p>
+ *
+ *  @author Russel Winder
+ */
+public final class GantClient {
+  /**
+   *  Frame type for bytes written to standard output.
+   */
+  static final int OUTPUT = 1;
+  /**
+   *  Frame type for bytes written to standard error.
+   */
+  static final int ERROR = 2;
+  /**
+   *  Frame type for the exit code of the run.
+   */
+  static final int EXIT = 3;
+  /**
+   *  Request to execute a run.
+   */
+  static final String RUN = "run";
+  /**
+   *  Request to stop the daemon.
+   */
+  static final String STOP = "stop";
+  /**
+   *  How long to wait for a newly started daemon to become available, in milliseconds.
+   */
+  private static final long startTimeout = 30000;
+  /**
+   *  The longest string accepted in a request, a guard against reading garbage.
+   */
+  private static final int maximumStringLength = 1 << 24;
+  /**
+   *  The environment variables that are part of the key of a daemon rather than sent with each request,
+   *  since the daemon inherits them from the client that starts it and processes started by runs inherit
+   *  them from the daemon.
+   */
+  private static final List<String> keyEnvironment = Arrays.asList("PATH", "LANG", "LC_ALL");
+  /**
+   *  We never want an instance of this class, so the constructor is made private.
+   */
+  private GantClient() { }
+  /**
+   *  The entry point for command line invocation.
+   *
+   *  @param args The command line arguments.
+   */
+  public static void main(final String[] args) {
+    final long startTime = System.nanoTime();
+    final List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+    final boolean useDaemon = arguments.remove("--daemon");
+    final boolean stopDaemon = arguments.remove("--stop-daemon");
+    final String[] forwarded = arguments.toArray(new String[0]);
+    if (stopDaemon) { System.exit(stop()); }
+    if (useDaemon && ! mustExecuteInProcess(arguments)) {
+      try {
+        final Integer returnCode = execute(forwarded);
+        if (returnCode != null) { System.exit(returnCode); }
+      }
+      catch (final IOException ioe) { System.err.println("Gant daemon failed: " + ioe.getMessage()); }
+      System.err.println("Executing without the Gant daemon.");
+    }
+    System.exit(new gant.Gant().processCommandLine(forwarded, startTime));
+  }
+  /**
+   *  Determine whether the arguments require the run to be in this process: reading the script from
+   *  standard input cannot be forwarded and classpath changes cannot be undone in a shared process.
+   */
+  private static boolean mustExecuteInProcess(final List<String> arguments) {
+    for (int i = 0; i < arguments.size(); ++i) {
+      final String argument = arguments.get(i);
+      if (argument.equals("-f-") || argument.equals("--file=-")) { return true; }
+      if ((argument.equals("-f") || argument.equals("--file")) && (i + 1 < arguments.size()) && arguments.get(i + 1).equals("-")) { return true; }
+      if (argument.startsWith("-L") || argument.startsWith("--lib") || argument.startsWith("-P") || argument.startsWith("--classpath")) { return true; }
+    }
+    return false;
+  }
+  /**
+   *  Execute a run using the daemon, starting the daemon if necessary.
+   *
+   *  @return the exit code of the run or {@code null} if no daemon could be started.
+   */
+  private static Integer execute(final String[] args) throws IOException {
+    final String key = daemonKey();
+    Socket socket = connect(key);
+    if (socket == null) {
+      startDaemon(key);
+      final long deadline = System.currentTimeMillis() + startTimeout;
+      while ((socket = connect(key)) == null && System.currentTimeMillis() < deadline) {
+        try { Thread.sleep(100); }
+        catch (final InterruptedException ie) { Thread.currentThread().interrupt(); return null; }
+      }
+      if (socket == null) { return null; }
+    }
+    try { return request(socket, key, RUN, args); }
+    finally { socket.close(); }
+  }
+  /**
+   *  Stop the daemon for this directory, if there is one.
+   *
+   *  @return the exit code.
+   */
+  private static int stop() {
+    try {
+      final String key = daemonKey();
+      final Socket socket = connect(key);
+      if (socket == null) {
+        System.out.println("No Gant daemon is running for this directory.");
+        return 0;
+      }
+      try { return request(socket, key, STOP, new String[0]); }
+      finally { socket.close(); }
+    }
+    catch (final IOException ioe) {
+      System.err.println("Could not stop the Gant daemon: " + ioe.getMessage());
+      return -1;
+    }
+  }
+  /**
+   *  Send a request to the daemon and relay the responses until the exit code arrives.
+   */
+  private static int request(final Socket socket, final String key, final String command, final String[] args) throws IOException {
+    final Properties registration = registration(key);
+    if (registration == null) { throw new IOException("The Gant daemon is no longer registered."); }
+    final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    writeString(output, registration.getProperty("token"));
+    writeString(output, command);
+    writeString(output, new File(".").getCanonicalPath());
+    output.writeInt(args.length);
+    for (final String arg : args) { writeString(output, arg); }
+    final Map<String, String> environment = System.getenv();
+    output.writeInt(environment.size());
+    for (final Map.Entry<String, String> entry : environment.entrySet()) {
+      writeString(output, entry.getKey());
+      writeString(output, entry.getValue());
+    }
+    output.flush();
+    final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    try {
+      while (true) {
+        final int type = input.readByte();
+        if (type == EXIT) {
+          System.out.flush();
+          System.err.flush();
+          return input.readInt();
+        }
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        if (type == OUTPUT) { System.out.write(bytes); System.out.flush(); }
+        else { System.err.write(bytes); System.err.flush(); }
+      }
+    }
+    catch (final EOFException eofe) { throw new IOException("The Gant daemon closed the connection without completing the run."); }
+  }
+  /**
+   *  Connect to the daemon for the key.
+   *
+   *  @return the socket or {@code null} if there is no daemon running for the key.
+   */
+  private static Socket connect(final String key) {
+    final Properties registration = registration(key);
+    if (registration == null) { return null; }
+    try { return new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(registration.getProperty("port"))); }
+    catch (final IOException ioe) { return null; }
+    catch (final NumberFormatException nfe) { return null; }
+  }
+  /**
+   *  Start a daemon for the key in a new JVM with the same Java installation, JVM options and classpath as
+   *  this one.
+   */
+  private static void startDaemon(final String key) throws IOException {
+    final List<String> command = new ArrayList<String>();
+    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    command.add("-Dgant.daemon.directory=" + registryDirectory().getPath());
+    command.add("-cp");
+    command.add(classpath());
+    command.add(GantDaemon.class.getName());
+    command.add(key);
+    final File log = new File(registryDirectory(), key + ".log");
+    log.getParentFile().mkdirs();
+    new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+  }
+  /**
+   *  The classpath of this process, including that of the class loader used to launch Gant, which for the
+   *  command line is a {@code RootLoader} configured by {@code gant-starter.conf}.
+   */
+  private static String classpath() {
+    final StringBuilder classpath = new StringBuilder();
+    for (final String element : classpathElements()) {
+      if (classpath.length() > 0) { classpath.append(File.pathSeparatorChar); }
+      classpath.append(element);
+    }
+    return classpath.toString();
+  }
+  /**
+   *  The elements of the classpath of this process.
+   */
+  private static List<String> classpathElements() {
+    final List<String> elements = new ArrayList<String>();
+    for (ClassLoader loader = GantClient.class.getClassLoader(); loader != null; loader = loader.getParent()) {
+      if (loader instanceof URLClassLoader) {
+        for (final URL url : ((URLClassLoader) loader).getURLs()) {
+          if (url.getProtocol().equals("file")) {
+            final String path = new File(url.getPath()).getPath();
+            if (! elements.contains(path)) { elements.add(path); }
+          }
+        }
+      }
+    }
+    for (final String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (! path.isEmpty() && ! elements.contains(path)) { elements.add(path); }
+    }
+    return elements;
+  }
+  /**
+   *  Compute the key identifying the daemon for this directory, Java installation, JVM options, classpath,
+   *  including the state of the classpath elements, and the environment variables inherited by processes.
+   */
+  private static String daemonKey() throws IOException {
+    final StringBuilder identity = new StringBuilder();
+    identity.append(new File(".").getCanonicalPath()).append('\n');
+    identity.append(System.getProperty("java.home")).append('\n');
+    identity.append(ManagementFactory.getRuntimeMXBean().getInputArguments()).append('\n');
+    for (final String name : keyEnvironment) { identity.append(name).append('=').append(System.getenv(name)).append('\n'); }
+    for (final String element : classpathElements()) {
+      final File file = new File(element);
+      identity.append(element).append(' ').append(file.lastModified()).append(' ').append(file.length()).append('\n');
+    }
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.toString().getBytes(StandardCharsets.UTF_8));
+      final StringBuilder key = new StringBuilder();
+      for (int i = 0; i < 16; ++i) { key.append(String.format("%02x", digest[i])); }
+      return key.toString();
+    }
+    catch (final NoSuchAlgorithmException nsae) { throw new IOException(nsae); }
+  }
+  /**
+   *  The directory holding the registration files and logs of the daemons.
+   */
+  static File registryDirectory() {
+    final String directory = System.getProperty("gant.daemon.directory");
+    return directory != null ? new File(directory) : new File(new File(System.getProperty("user.home"), ".gant"), "daemon");
+  }
+  /**
+   *  Read the registration of the daemon for the key.
+   *
+   *  @return the registration or {@code null} if there is none.
+   */
+  static Properties registration(final String key) {
+    final File file = new File(registryDirectory(), key + ".properties");
+    if (! file.isFile()) { return null; }
+    final Properties properties = new Properties();
+    try {
+      final InputStream stream = new FileInputStream(file);
+      try { properties.load(stream); }
+      finally { stream.close(); }
+    }
+    catch (final IOException ioe) { return null; }
+    return properties;
+  }
+  /**
+   *  Write a string as a length prefixed sequence of UTF-8 bytes, {@code writeUTF} is limited to 64k.
+   */
+  static void writeString(final DataOutputStream output, final String s) throws IOException {
+    final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+  /**
+   *  Read a string written by {@code writeString}.
+   */
+  static String readString(final DataInputStream input) throws IOException {
+    final int length = input.readInt();
+    if ((length < 0) || (length > maximumStringLength)) { throw new IOException("Invalid string length " + length + '.'); }
+    final byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  /**
+   *  Read the environment sent with a request.
+   */
+  static Map<String, String> readEnvironment(final DataInputStream input) throws IOException {
+    final Map<String, String> environment = new LinkedHashMap<String, String>();
+    for (int count = input.readInt(); count > 0; --count) { environment.put(readString(input), readString(input)); }
+    return environment;
+  }
+}
@@ -0,0 +1,248 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.daemon
+
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+import gant.Gant
+
+import org.codehaus.gant.Fingerprint
+import org.codehaus.gant.GantBinding
+import org.codehaus.gant.ScriptCache
+
+/**
+ *  The Gant daemon: a long-lived process executing Gant runs on behalf of <code>GantClient</code>.  The
+ *  JVM, the Groovy runtime and the compiled scripts are kept between runs, each run otherwise starts from
+ *  a new <code>GantBinding</code> as for a command line invocation.  Compiled scripts are recompiled when
+ *  the script file changes.
+ *
+ *  <p>Output of a run, including that of the threads it starts, is sent to its client.  Standard input is
+ *  not forwarded, runs that need it must not use the daemon.  The environment of the client is sent with
+ *  each request and replaces that of the daemon as the <code>environment.*</code> Ant properties and
+ *  <code>GANTLIB</code> of the run.  Processes started by a run inherit the environment of the daemon, the
+ *  variables they depend on are part of the key so that they have the values of the client.</p>
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class GantDaemon {
+  /**
+   *  The key identifying this daemon, as computed by the client.
+   */
+  final String key
+  /**
+   *  The secret a client must present.
+   */
+  private final String token
+  /**
+   *  How long the daemon waits for a request before exiting, in milliseconds.
+   */
+  private final long idleTimeout = Long.getLong('gant.daemon.idleTimeout', 180L) * 60L * 1000L
+  /**
+   *  The compiled scripts shared by all the runs.
+   */
+  private final ScriptCache scriptCache = new ScriptCache()
+  /**
+   *  The threads handling requests.
+   */
+  private final ExecutorService handlers
+  /**
+   *  The number of requests being handled.
+   */
+  private final AtomicInteger activeRequests = new AtomicInteger()
+  /**
+   *  The server socket, set when serving.
+   */
+  private ServerSocket server = null
+  /**
+   *  The <code>System.out</code> and <code>System.err</code> replacements directing output to clients.
+   */
+  private ThreadOutputStream output
+  private ThreadOutputStream error
+  /**
+   *  Constructor.
+   *
+   *  @param key The key identifying this daemon.
+   */
+  GantDaemon(final String key) {
+    this.key = key
+    final bytes = new byte[32]
+    new SecureRandom().nextBytes(bytes)
+    token = bytes.encodeHex().toString()
+    final threadCount = new AtomicInteger()
+    handlers = Executors.newCachedThreadPool({ Runnable runnable ->
+        final thread = new Thread(runnable, 'gant-daemon-request-' + threadCount.incrementAndGet())
+        thread.daemon = true
+        thread
+      } as ThreadFactory)
+  }
+  /**
+   *  The entry point of the daemon process.
+   *
+   *  @param args The key identifying the daemon.
+   */
+  static void main(final String[] args) {
+    new GantDaemon(args[0]).serve()
+    System.exit(0)
+  }
+  /**
+   *  Accept and handle requests until stopped or idle for too long.
+   */
+  void serve() {
+    final originalOut = System.out
+    final originalErr = System.err
+    output = new ThreadOutputStream(originalOut)
+    error = new ThreadOutputStream(originalErr)
+    System.setOut(new PrintStream(output, true))
+    System.setErr(new PrintStream(error, true))
+    server = new ServerSocket(0, 50, InetAddress.loopbackAddress)
+    server.soTimeout = (int) Math.min(idleTimeout, 60000L)
+    final registration = register()
+    try {
+      def lastActivity = System.currentTimeMillis()
+      while (! server.closed) {
+        try {
+          final socket = server.accept()
+          handlers.execute { handle(socket) }
+          lastActivity = System.currentTimeMillis()
+        }
+        catch (final SocketTimeoutException ste) {
+          if (activeRequests.get() > 0) { lastActivity = System.currentTimeMillis() }
+          else if (System.currentTimeMillis() - lastActivity >= idleTimeout) { stop() }
+        }
+        catch (final SocketException se) { if (! server.closed) { throw se } }
+      }
+    }
+    finally {
+      registration.delete()
+      handlers.shutdown()
+      System.setOut(originalOut)
+      System.setErr(originalErr)
+    }
+  }
+  /**
+   *  Stop accepting requests.
+   */
+  void stop() { server.close() }
+  /**
+   *  Write the registration file from which clients learn the port and token.  It is readable only by the
+   *  user where the file system supports it.
+   *
+   *  @return The registration file.
+   */
+  private File register() {
+    final file = new File(GantClient.registryDirectory(), key + '.properties')
+    final properties = new Properties()
+    properties.port = server.localPort.toString()
+    properties.token = token
+    properties.directory = new File('.').canonicalPath
+    Fingerprint.writeAtomically(file) { File temporary ->
+      try { Files.setPosixFilePermissions(temporary.toPath(), PosixFilePermissions.fromString('rw-------')) }
+      catch (final UnsupportedOperationException uoe) { /* Not a POSIX file system. */ }
+      temporary.withOutputStream { stream -> properties.store(stream, 'Gant daemon registration.') }
+    }
+    file.deleteOnExit()
+    file
+  }
+  /**
+   *  Handle a request.
+   */
+  private void handle(final Socket socket) {
+    activeRequests.incrementAndGet()
+    try {
+      socket.withCloseable {
+        final input = new DataInputStream(new BufferedInputStream(socket.inputStream))
+        final responses = new DataOutputStream(new BufferedOutputStream(socket.outputStream))
+        if (! MessageDigest.isEqual(GantClient.readString(input).getBytes('UTF-8'), token.getBytes('UTF-8'))) { return }
+        final command = GantClient.readString(input)
+        final directory = GantClient.readString(input)
+        final args = (0 ..< input.readInt()).collect { GantClient.readString(input) } as String[]
+        final environment = GantClient.readEnvironment(input)
+        def returnCode
+        if (command == GantClient.STOP) {
+          returnCode = 0
+          stop()
+        }
+        else if (directory != new File('.').canonicalPath) {
+          new FrameOutputStream(responses, GantClient.ERROR).write("Gant daemon for ${new File('.').canonicalPath} cannot execute in ${directory}.\n".getBytes('UTF-8'))
+          returnCode = -1
+        }
+        else { returnCode = execute(args, environment, responses) }
+        synchronized (responses) {
+          responses.writeByte(GantClient.EXIT)
+          responses.writeInt(returnCode)
+          responses.flush()
+        }
+      }
+    }
+    catch (final IOException ioe) { /* The client has gone away, nothing can be reported to it. */ }
+    finally { activeRequests.decrementAndGet() }
+  }
+  /**
+   *  Execute a run, sending its output to the client.
+   */
+  private int execute(final String[] args, final Map<String, String> environment, final DataOutputStream responses) {
+    final startTime = System.nanoTime()
+    output.setTarget(new FrameOutputStream(responses, GantClient.OUTPUT))
+    error.setTarget(new FrameOutputStream(responses, GantClient.ERROR))
+    try {
+      final gant = new Gant(new GantBinding(environment))
+      gant.scriptCache = scriptCache
+      gant.processCommandLine(args, startTime)
+    }
+    catch (final Throwable t) {
+      t.printStackTrace()
+      -1
+    }
+    finally {
+      System.out.flush()
+      System.err.flush()
+      output.setTarget(null)
+      error.setTarget(null)
+    }
+  }
+  /**
+   *  An <code>OutputStream</code> sending each write to the client as a frame.  Writes after the client
+   *  has gone away, for example by threads that outlive the run, are discarded.
+   */
+  private static final class FrameOutputStream extends OutputStream {
+    private final DataOutputStream responses
+    private final int type
+    private boolean closed = false
+    FrameOutputStream(final DataOutputStream responses, final int type) {
+      this.responses = responses
+      this.type = type
+    }
+    @Override void write(final int b) { write([(byte) b] as byte[], 0, 1) }
+    @Override void write(final byte[] bytes, final int offset, final int length) {
+      synchronized (responses) {
+        if (closed || length == 0) { return }
+        try {
+          responses.writeByte(type)
+          responses.writeInt(length)
+          responses.write(bytes, offset, length)
+          responses.flush()
+        }
+        catch (final IOException ioe) { closed = true }
+      }
+    }
+  }
+}
@@ -0,0 +1,59 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.daemon;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ *  An {@code OutputStream} that writes to a stream chosen per thread, for use as {@code System.out} and
+ *  {@code System.err} in the Gant daemon where several runs may be executing at once.  Threads started by
+ *  a thread inherit its choice, so the output of the worker threads of a run goes to the client of the
+ *  run.
+ *
+ *  @author Russel Winder
+ */
+final class ThreadOutputStream extends OutputStream {
+  /**
+   *  The stream written to by threads that have not chosen one.
+   */
+  private final OutputStream fallback;
+  /**
+   *  The stream chosen by each thread.
+   */
+  private final InheritableThreadLocal<OutputStream> target = new InheritableThreadLocal<OutputStream>();
+  /**
+   *  Constructor.
+   *
+   *  @param fallback The stream for threads that have not chosen one.
+   */
+  ThreadOutputStream(final OutputStream fallback) { this.fallback = fallback; }
+  /**
+   *  Choose the stream for this thread, and threads subsequently started by it.
+   *
+   *  @param stream The stream or {@code null} to use the fallback stream.
+   */
+  void setTarget(final OutputStream stream) {
+    if (stream == null) { target.remove(); }
+    else { target.set(stream); }
+  }
+  private OutputStream current() {
+    final OutputStream stream = target.get();
+    return stream == null ? fallback : stream;
+  }
+  @Override public void write(final int b) throws IOException { current().write(b); }
+  @Override public void write(final byte[] bytes, final int offset, final int length) throws IOException { current().write(bytes, offset, length); }
+  @Override public void flush() throws IOException { current().flush(); }
+}
@@ -0,0 +1,33 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *  The compilation, or loading of the compiled classes, of a Gant script or included file.
+ *
+ *  @author Russel Winder
+ */
+@Name("org.codehaus.gant.Compilation")
+@Label("Script Compilation")
+@Category("Gant")
+@Description("The compilation or loading of a Gant script or included file.")
+final class CompilationEvent extends jdk.jfr.Event {
+  @Label("Script") String script;
+}
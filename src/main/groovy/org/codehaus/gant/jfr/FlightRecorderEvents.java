@@ -0,0 +1,132 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.jfr;
+
+import org.codehaus.gant.ResourceUsage;
+
+/**
+ *  The Java Flight Recorder events emitted by Gant.  The {@code begin} methods return {@code null} if the
+ *  JVM has no Flight Recorder or the event is not enabled in any recording, so an event costs little more
+ *  than a check for {@code null} when not being recorded.  The events are typed {@code Object} here so
+ *  that the callers, and this class, can be loaded by JVMs without the {@code jdk.jfr} API.
+ *
+ *  @author Russel Winder
+ */
+public final class FlightRecorderEvents {
+  /**
+   *  Whether the JVM has the Flight Recorder API.
+   */
+  public static final boolean available = isAvailable();
+  private FlightRecorderEvents() { }
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    }
+    catch (final ClassNotFoundException | LinkageError e) { return false; }
+  }
+  /**
+   *  Begin the event for the execution of a target.
+   *
+   *  @param name The name of the target.
+   *  @return The event, or {@code null} if it is not recorded.
+   */
+  public static Object beginTarget(final String name) {
+    if (! available) { return null; }
+    final TargetEvent event = new TargetEvent();
+    if (! event.isEnabled()) { return null; }
+    event.name = name;
+    event.begin();
+    return event;
+  }
+  /**
+   *  End and commit the event for the execution of a target.
+   *
+   *  @param event The event from {@code beginTarget}, possibly {@code null}.
+   *  @param upToDate Whether the target was skipped as up to date.
+   *  @param usage The resources used by the target.
+   */
+  public static void endTarget(final Object event, final boolean upToDate, final ResourceUsage usage) {
+    if (event == null) { return; }
+    final TargetEvent targetEvent = (TargetEvent) event;
+    targetEvent.end();
+    targetEvent.upToDate = upToDate;
+    targetEvent.cpuTime = usage.cpuTime;
+    targetEvent.allocatedBytes = usage.allocatedBytes;
+    targetEvent.gcTime = usage.gcTime;
+    targetEvent.gcCount = usage.gcCount;
+    targetEvent.commit();
+  }
+  /**
+   *  Begin the event for a {@code depends} call.
+   *
+   *  @return The event, or {@code null} if it is not recorded.
+   */
+  public static Object beginDepends() {
+    if (! available) { return null; }
+    final DependsEvent event = new DependsEvent();
+    if (! event.isEnabled()) { return null; }
+    event.begin();
+    return event;
+  }
+  /**
+   *  End and commit the event for a {@code depends} call.
+   *
+   *  @param event The event from {@code beginDepends}, possibly {@code null}.
+   *  @param targets The names of the targets depended on.
+   */
+  public static void endDepends(final Object event, final String targets) {
+    if (event == null) { return; }
+    final DependsEvent dependsEvent = (DependsEvent) event;
+    dependsEvent.targets = targets;
+    dependsEvent.commit();
+  }
+  /**
+   *  Begin the event for the invocation of an Ant task.
+   *
+   *  @param name The name of the task.
+   *  @return The event, or {@code null} if it is not recorded.
+   */
+  public static Object beginTask(final String name) {
+    if (! available) { return null; }
+    final TaskEvent event = new TaskEvent();
+    if (! event.isEnabled()) { return null; }
+    event.name = name;
+    event.begin();
+    return event;
+  }
+  /**
+   *  Begin the event for the compilation of a script.
+   *
+   *  @param script The name of the script.
+   *  @return The event, or {@code null} if it is not recorded.
+   */
+  public static Object beginCompilation(final String script) {
+    if (! available) { return null; }
+    final CompilationEvent event = new CompilationEvent();
+    if (! event.isEnabled()) { return null; }
+    event.script = script;
+    event.begin();
+    return event;
+  }
+  /**
+   *  Commit an event that needs nothing more recording.
+   *
+   *  @param event The event from a {@code begin} method, possibly {@code null}.
+   */
+  public static void end(final Object event) {
+    if (event != null) { ((jdk.jfr.Event) event).commit(); }
+  }
+}
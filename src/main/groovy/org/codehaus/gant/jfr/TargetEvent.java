@@ -0,0 +1,41 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ *  The execution of a target, with the resources it used itself, i.e. excluding the targets it depends on
+ *  executed by the same thread.
+ *
+ *  @author Russel Winder
+ */
+@Name("org.codehaus.gant.Target")
+@Label("Target")
+@Category("Gant")
+@Description("The execution of a Gant target.")
+final class TargetEvent extends jdk.jfr.Event {
+  @Label("Target") String name;
+  @Label("Up To Date") @Description("Whether the target was skipped as up to date.") boolean upToDate;
+  @Label("CPU Time") @Timespan(Timespan.NANOSECONDS) long cpuTime;
+  @Label("Allocated") @DataAmount(DataAmount.BYTES) long allocatedBytes;
+  @Label("GC Time") @Description("The time spent in garbage collection by the JVM while executing the target.") @Timespan(Timespan.MILLISECONDS) long gcTime;
+  @Label("GC Count") long gcCount;
+}
@@ -114,4 +114,56 @@ target(${targetName}: '') { println(cleanDirectory) }
     assertEquals(resultString(targetName, '[target]\n'), output)
     assertEquals('', error)
   }
+  private File createTree() {
+    final directory = File.createTempFile('gant-cleanTest-', '-directory')
+    directory.delete()
+    ['a.txt', 'a.txt~', 'src/b.bak', 'src/deep/c.txt~', '.git/d.txt~', 'build/classes/e.class', 'target/f.jar'].each { path ->
+      final file = new File(directory, path)
+      file.parentFile.mkdirs()
+      file.text = 'content'
+    }
+    directory
+  }
+  private Integer executeClean(final File directory, final String settings, final String targetName = 'clean') {
+    script = """
+ant.project.baseDir = new File('${escapeWindowsPath(directory.absolutePath)}')
+includeTargets << gant.targets.Clean
+${settings}
+"""
+    processCmdLineTargets(targetName)
+  }
+  void testCleanDeletesMatchingFilesAndDirectories() {
+    final directory = createTree()
+    try {
+      assertEquals(0, executeClean(directory, "cleanPattern << ['**/*~', '**/*.bak']\ncleanExcludePattern << '**/.git/'\ncleanDirectory << 'build'"))
+      assertEquals(['.git', '.git/d.txt~', 'a.txt', 'src', 'src/deep', 'target', 'target/f.jar'], relativePaths(directory))
+      assertTrue(output.contains('Deleted 4 files and 2 directories, freeing 28 bytes.'))
+      assertEquals('', error)
+    }
+    finally { directory.deleteDir() }
+  }
+  void testClobberDeletesAfterCleaning() {
+    final directory = createTree()
+    try {
+      assertEquals(0, executeClean(directory, "cleanPattern << 'src/**/*~ *.txt~'\nclobberDirectory << ['target', 'build', 'missing']", 'clobber'))
+      assertEquals(['.git', '.git/d.txt~', 'a.txt', 'src', 'src/b.bak', 'src/deep'], relativePaths(directory))
+      assertTrue(output.contains('Deleted 2 files and 0 directories, freeing 14 bytes.'))
+      assertTrue(output.contains('Deleted 2 files and 3 directories, freeing 14 bytes.'))
+    }
+    finally { directory.deleteDir() }
+  }
+  void testNothingDeletedIsNotReported() {
+    final directory = createTree()
+    try {
+      assertEquals(0, executeClean(directory, "cleanPattern << '**/*.none'\ncleanDirectory << 'missing'"))
+      assertFalse(output.contains('Deleted'))
+      assertEquals('', error)
+    }
+    finally { directory.deleteDir() }
+  }
+  private List<String> relativePaths(final File directory) {
+    final paths = []
+    directory.eachFileRecurse { file -> paths << directory.toURI().relativize(file.toURI()).path.replaceAll('/$', '') }
+    paths.sort()
+  }
 }
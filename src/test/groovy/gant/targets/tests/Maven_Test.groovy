@@ -14,8 +14,11 @@
 
 package gant.targets.tests
 
+import gant.Gant
+
 import org.codehaus.gant.GantBuilder
 import org.codehaus.gant.GantState
+import org.codehaus.gant.StateStore
 
 import org.codehaus.gant.tests.GantTestCase
 
@@ -179,4 +182,306 @@ target(${targetName}, '') { println('Hello.') }
 		assertEquals('', output)
 		assertEquals('Standard input, line 3 -- Error evaluating Gantfile: No such property: sayHello for class: standard_input\n', error)
 	}
+
+	private String classpathCacheScript(final File directory, final String classpath) { """
+ant.project.baseDir = new File('${escapeWindowsPath(directory.absolutePath)}')
+includeTargets ** gant.targets.Maven * [ compileDependencies: [[ groupId: 'org.example', artifactId: 'example', version: '1.0' ]] ]
+binding.stateStore.putAll([ 'maven.dependencies.key': maven.dependenciesKey(), 'maven.dependencies.compileClasspath': '${escapeWindowsPath(classpath)}', 'maven.dependencies.testClasspath': '' ])
+target(showClasspath: '') {
+  depends(initialize)
+  println('classpath: ' + ant.project.getReference(maven.compileDependenciesClasspathId))
+}
+"""
+	}
+
+	void testResolvedClasspathIsTakenFromTheCache() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		directory.mkdirs()
+		try {
+			final jar = new File(directory, 'example-1.0.jar')
+			jar.text = ''
+			script = classpathCacheScript(directory, jar.absolutePath)
+			assertEquals(0, processCmdLineTargets('showClasspath'))
+			assertTrue(output.contains('classpath: ' + jar.absolutePath + '\n'))
+			assertEquals('', error)
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testRefreshDependenciesForcesResolution() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		directory.mkdirs()
+		try {
+			final jar = new File(directory, 'example-1.0.jar')
+			jar.text = ''
+			script = classpathCacheScript(directory, jar.absolutePath)
+			assertFalse(processCmdLineTargets(['-DrefreshDependencies=true', 'showClasspath']) == 0)
+			assertFalse(output.contains('classpath: '))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testEmptyRecordedClasspathForcesResolution() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		directory.mkdirs()
+		try {
+			script = classpathCacheScript(directory, '')
+			assertFalse(processCmdLineTargets('showClasspath') == 0)
+			assertFalse(output.contains('classpath: '))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testUnresolvedClasspathsAreNotRecorded() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		directory.mkdirs()
+		try {
+			final recordScript = """
+ant.project.baseDir = new File('${escapeWindowsPath(directory.absolutePath)}')
+includeTargets ** gant.targets.Maven * [ compileDependencies: [[ groupId: 'org.example', artifactId: 'example', version: '1.0' ]] ]
+target(record: '') { maven.storeClasspaths() }
+"""
+			script = recordScript
+			assertEquals(0, gant.processArgs([ '-n', '-f', '-', 'record' ] as String[]))
+			gant = new Gant()
+			gant.buildClassName = 'standard_input'
+			script = recordScript
+			assertEquals(0, processCmdLineTargets('record'))
+			assertNull(new StateStore(new File(directory, StateStore.defaultLocation)).get('maven.dependencies.key'))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testMissingClasspathFileForcesResolution() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		directory.mkdirs()
+		try {
+			script = classpathCacheScript(directory, new File(directory, 'example-1.0.jar').absolutePath)
+			assertFalse(processCmdLineTargets('showClasspath') == 0)
+			assertFalse(output.contains('classpath: '))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	private String incrementalCompilationScript(final File directory, final String targetPath) { """
+includeTargets ** gant.targets.Maven * [
+	sourcePath: '${escapeWindowsPath(new File(directory, 'src').absolutePath)}',
+	targetPath: '${escapeWindowsPath(new File(directory, targetPath).absolutePath)}',
+	incrementalCompilation: true,
+]
+"""
+	}
+
+	void testIncrementalCompilationCompilesChangedSourcesAndTheirDependents() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		final javaDirectory = new File(directory, 'src/main/java/p')
+		final groovyDirectory = new File(directory, 'src/main/groovy/p')
+		javaDirectory.mkdirs()
+		groovyDirectory.mkdirs()
+		final compile = { String targetPath, boolean dryRun = false ->
+			final start = output.length()
+			gant = new Gant()
+			gant.buildClassName = 'standard_input'
+			script = incrementalCompilationScript(directory, targetPath)
+			assertEquals(0, dryRun ? gant.processArgs([ '-n', '-f', '-', 'compile' ] as String[]) : processCmdLineTargets('compile'))
+			output.substring(start)
+		}
+		try {
+			new File(javaDirectory, 'A.java').text = 'package p; public class A { public int f() { return 1; } public static class Inner { } }'
+			new File(groovyDirectory, 'B.groovy').text = 'package p\nclass B { int g() { new A().f() } }\n'
+			new File(javaDirectory, 'C.java').text = 'package p; public class C { public int h() { return new B().g(); } }'
+			new File(javaDirectory, 'D.java').text = 'package p; public class D { }'
+			assertTrue(compile('target').contains('Compiled 4 source files to '))
+			assertTrue(new File(directory, 'target/classes/p/A$Inner.class').isFile())
+			assertFalse(compile('target').contains('Compiled '))
+			new File(javaDirectory, 'A.java').text = 'package p; public class A { public int f() { return 2; } }'
+			new File(javaDirectory, 'D.java').delete()
+			assertTrue(compile('target', true).contains('Would compile 3 source files to '))
+			assertTrue(new File(directory, 'target/classes/p/D.class').isFile())
+			assertTrue(compile('target').contains('Compiled 3 source files to '))
+			assertFalse(new File(directory, 'target/classes/p/A$Inner.class').exists())
+			assertFalse(new File(directory, 'target/classes/p/D.class').exists())
+			compile('clean')
+			final classes = { String targetPath ->
+				final root = new File(directory, targetPath + '/classes')
+				final files = [:]
+				root.eachFileRecurse(groovy.io.FileType.FILES) { file -> files[root.toPath().relativize(file.toPath()).toString()] = file.bytes.encodeHex().toString() }
+				files
+			}
+			assertEquals(classes('clean'), classes('target'))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testIncrementalTestCompilationFollowsChangesToTheMainClasses() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		final mainDirectory = new File(directory, 'src/main/java/p')
+		final testDirectory = new File(directory, 'src/test/java/p')
+		mainDirectory.mkdirs()
+		testDirectory.mkdirs()
+		final compile = {
+			final start = output.length()
+			gant = new Gant()
+			gant.buildClassName = 'standard_input'
+			script = incrementalCompilationScript(directory, 'target')
+			assertEquals(0, processCmdLineTargets('test-compile'))
+			output.substring(start)
+		}
+		try {
+			new File(mainDirectory, 'A.java').text = 'package p; public class A { public static final int X = 1; }'
+			new File(testDirectory, 'ATest.java').text = 'package p; public class ATest { public int x() { return A.X; } }'
+			compile()
+			assertFalse(compile().contains('Compiled '))
+			final testClass = new File(directory, 'target/test-classes/p/ATest.class')
+			final before = testClass.bytes
+			new File(mainDirectory, 'A.java').text = 'package p; public class A { public static final int X = 2; }'
+			assertTrue(compile().contains('Compiled 1 source file to ' + new File(directory, 'target/test-classes').absolutePath))
+			assertFalse(Arrays.equals(before, testClass.bytes))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testShardsAreBalancedByDuration() {
+		final durations = [ a: 10.0d, b: 6.0d, c: 5.0d, d: 4.0d, e: 1.0d ]
+		assertEquals([ [ 'a', 'e' ], [ 'b', 'd' ], [ 'f', 'c' ] ], gant.targets.Maven.shardTests([ 'a', 'b', 'c', 'd', 'e', 'f' ], durations, 3))
+		assertEquals([ [ 'a', 'b' ] ], gant.targets.Maven.shardTests([ 'b', 'a' ], [:], 1))
+		assertEquals([ [ 'a' ], [ 'b' ] ], gant.targets.Maven.shardTests([ 'b', 'a' ], [:], 4))
+	}
+
+	void testShardedTestsRunInSeveralJVMs() {
+		try { Class.forName('org.apache.tools.ant.taskdefs.optional.junit.JUnitTask') }
+		catch (final ClassNotFoundException cnfe) {
+			System.err.println('testShardedTestsRunInSeveralJVMs not run since the Ant JUnit task is not available.')
+			return
+		}
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		final testDirectory = new File(directory, 'src/test/java/p')
+		testDirectory.mkdirs()
+		new File(directory, 'src/main/java').mkdirs()
+		try {
+			[ 'A', 'B', 'C' ].each { name ->
+				new File(testDirectory, name + 'Test.java').text = "package p; public class ${name}Test extends junit.framework.TestCase { public void testIt() { assertTrue(${name != 'B'}); } }"
+			}
+			final junitLocation = new File(junit.framework.TestCase.protectionDomain.codeSource.location.toURI()).absolutePath
+			script = """
+ant.project.baseDir = new File('${escapeWindowsPath(directory.absolutePath)}')
+includeTargets ** gant.targets.Maven * [
+	sourcePath: '${escapeWindowsPath(new File(directory, 'src').absolutePath)}',
+	targetPath: '${escapeWindowsPath(new File(directory, 'target').absolutePath)}',
+	testClasspath: [ '${escapeWindowsPath(junitLocation)}' ],
+	incrementalCompilation: true,
+	testForks: 2,
+]
+"""
+			assertEquals(-13, processCmdLineTargets('test'))
+			assertTrue(error.contains('Tests failed, execution terminating.'))
+			[ 'A', 'B', 'C' ].each { name ->
+				assertTrue(new File(directory, "target/test-reports/TEST-p.${name}Test.xml").isFile())
+				assertTrue(new File(directory, "target/test-reports/TEST-p.${name}Test.txt").isFile())
+			}
+			final state = new Properties()
+			new File(directory, '.gant/state.properties').withInputStream { state.load(it) }
+			assertEquals([ 'p.ATest', 'p.BTest', 'p.CTest' ].collect { 'maven.testDuration.' + it } as Set, state.stringPropertyNames().findAll { it.startsWith('maven.testDuration.') })
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testImpactAnalysisRunsOnlyAffectedTests() {
+		try { Class.forName('org.apache.tools.ant.taskdefs.optional.junit.JUnitTask') }
+		catch (final ClassNotFoundException cnfe) {
+			System.err.println('testImpactAnalysisRunsOnlyAffectedTests not run since the Ant JUnit task is not available.')
+			return
+		}
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		final mainDirectory = new File(directory, 'src/main/java/p')
+		final testDirectory = new File(directory, 'src/test/java/p')
+		mainDirectory.mkdirs()
+		testDirectory.mkdirs()
+		final junitLocation = new File(junit.framework.TestCase.protectionDomain.codeSource.location.toURI()).absolutePath
+		final test = { int expectedReturnCode, boolean dryRun = false ->
+			final start = output.length()
+			gant = new Gant()
+			gant.buildClassName = 'standard_input'
+			script = """
+includeTargets ** gant.targets.Maven * [
+	sourcePath: '${escapeWindowsPath(new File(directory, 'src').absolutePath)}',
+	targetPath: '${escapeWindowsPath(new File(directory, 'target').absolutePath)}',
+	testClasspath: [ '${escapeWindowsPath(junitLocation)}' ],
+	incrementalCompilation: true,
+	testImpactAnalysis: true,
+]
+"""
+			assertEquals(expectedReturnCode, dryRun ? gant.processArgs([ '-n', '-f', '-', 'test' ] as String[]) : processCmdLineTargets('test'))
+			output.substring(start)
+		}
+		try {
+			new File(mainDirectory, 'A.java').text = 'package p; public class A { public int f() { return 1; } }'
+			new File(mainDirectory, 'B.java').text = 'package p; public class B { public int g() { return 2; } }'
+			new File(testDirectory, 'ATest.java').text = 'package p; public class ATest extends junit.framework.TestCase { public void testIt() { assertEquals(1, new A().f()); } }'
+			new File(testDirectory, 'BTest.java').text = 'package p; public class BTest extends junit.framework.TestCase { public void testIt() { assertEquals(2, new B().g()); } }'
+			assertFalse(test(0).contains('Test impact analysis selected'))
+			assertTrue(test(0).contains('Test impact analysis selected 0 of 2 test classes.'))
+			new File(mainDirectory, 'B.java').text = 'package p; public class B { public int g() { return 3; } }'
+			assertFalse(test(0, true).contains('Test impact analysis selected'))
+			assertTrue(test(-13).contains('Test impact analysis selected 1 of 2 test classes.'))
+			assertFalse(new File(directory, 'target/analysis/test-impact').exists())
+			new File(mainDirectory, 'B.java').text = 'package p; public class B { public int g() { return 2; } }'
+			assertFalse(test(0).contains('Test impact analysis selected'))
+			new File(mainDirectory, 'A.java').text = 'package p; public class A { public int f() { return 1 + 0; } public int h() { return 0; } }'
+			assertTrue(test(0).contains('Test impact analysis selected 1 of 2 test classes.'))
+		}
+		finally { directory.deleteDir() }
+	}
+
+	void testParallelPackagingOfAWar() {
+		final directory = File.createTempFile('gant-mavenTest-', '')
+		directory.delete()
+		new File(directory, 'src/main/java/p').mkdirs()
+		new File(directory, 'src/main/webapp/WEB-INF').mkdirs()
+		new File(directory, 'src/main/java/p/A.java').text = 'package p; public class A { }'
+		new File(directory, 'src/main/webapp/index.html').text = '<html/>'
+		new File(directory, 'src/main/webapp/WEB-INF/web.xml').text = '<web-app/>'
+		final archive = new File(directory, 'target/example-1.0.war')
+		final packageIt = { boolean dryRun = false ->
+			gant = new Gant()
+			gant.buildClassName = 'standard_input'
+			script = """
+includeTargets ** gant.targets.Maven * [
+	groupId: 'org.example',
+	artifactId: 'example',
+	version: '1.0',
+	packaging: 'war',
+	sourcePath: '${escapeWindowsPath(new File(directory, 'src').absolutePath)}',
+	targetPath: '${escapeWindowsPath(new File(directory, 'target').absolutePath)}',
+	incrementalCompilation: true,
+	parallelPackaging: true,
+	reproducibleArchives: true,
+]
+"""
+			assertEquals(0, dryRun ? gant.processArgs([ '-n', '-f', '-', 'package' ] as String[]) : processCmdLineTargets('package'))
+			dryRun ? null : archive.bytes
+		}
+		try {
+			packageIt(true)
+			assertTrue(output.contains("Would package ${archive.absolutePath}"))
+			assertFalse(archive.exists())
+			final first = packageIt()
+			assertTrue(output.contains("Packaged 8 entries in ${archive.absolutePath}, 0 reused from the previous archive."))
+			new java.util.zip.ZipFile(archive).withCloseable { zip ->
+				assertEquals([ 'META-INF/', 'META-INF/MANIFEST.MF', 'WEB-INF/', 'WEB-INF/classes/', 'WEB-INF/classes/p/', 'WEB-INF/classes/p/A.class', 'WEB-INF/web.xml', 'index.html' ], zip.entries()*.name)
+			}
+			assertEquals(first as List, packageIt() as List)
+			assertTrue(output.contains("Packaged 8 entries in ${archive.absolutePath}, 4 reused from the previous archive."))
+		}
+		finally { directory.deleteDir() }
+	}
 }
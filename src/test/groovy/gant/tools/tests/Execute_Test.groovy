@@ -14,6 +14,9 @@
 
 package gant.tools.tests
 
+import gant.tools.Execute
+
+import org.codehaus.gant.GantBinding
 import org.codehaus.gant.tests.GantTestCase
 
 /**
@@ -71,6 +74,16 @@ target(${targetName}: '') { assert execute.executable('false') == 1 }
       assertEquals('', error)
     }
   }
+  void testOutputIsProcessedByThreadsOfTheCaller() {
+    final command = isWindows ? 'cmd /c echo 1': 'echo 1'
+    final caller = new InheritableThreadLocal<String>()
+    ['first', 'second'].each { build ->
+      caller.set(build)
+      final processedFor = []
+      assertEquals(0, new Execute(new GantBinding()).executable(command, outProcessing: { processedFor << caller.get() }))
+      assertEquals([build], processedFor)
+    }
+  }
   void testParameterizedUsage() {
     script = """includeTool ** gant.tools.Execute * [ command: 'echo 1' ]
 target(${targetName}: '') { execute.shell('echo 1') }
@@ -79,4 +92,38 @@ target(${targetName}: '') { execute.shell('echo 1') }
     assertEquals(resultString(targetName, '    [shell] echo 1\n1\n'), output)
     assertEquals('', error)
   }
+  void testBatchReturnCodesInCommandOrder() {
+    if (! isWindows) {
+      script = """includeTool << gant.tools.Execute
+target(${targetName}: '') { println(execute.batch([[shell: 'sleep 0.2 ; exit 3'], 'echo 1', ['echo', '2']], threads: 3)) }
+"""
+      assertEquals(0, processCmdLineTargets(targetName))
+      assertTrue(output.contains('  [execute] echo 1\n1\n'))
+      assertTrue(output.contains('  [execute] [echo, 2]\n2\n'))
+      assertTrue(output.contains('    [shell] sleep 0.2 ; exit 3\n'))
+      assertTrue(output.contains('[3, 0, 0]\n'))
+      assertEquals('', error)
+    }
+  }
+  void testBatchOutputOfEachCommandIsNotInterleaved() {
+    if (! isWindows) {
+      script = """includeTool << gant.tools.Execute
+target(${targetName}: '') {
+  execute.batch(['a', 'b', 'c'].collect { [shell: 'for i in 1 2 3 ; do echo ' + it + '\$i ; sleep 0.05 ; done'] })
+}
+"""
+      assertEquals(0, processCmdLineTargets(targetName))
+      ['a', 'b', 'c'].each { assertTrue(output.contains(it + '1\n' + it + '2\n' + it + '3\n')) }
+    }
+  }
+  void testBatchFailFastStopsTheBatch() {
+    if (! isWindows) {
+      script = """includeTool << gant.tools.Execute
+target(${targetName}: '') { println(execute.batch([[shell: 'exit 1'], 'echo never'], threads: 1, failFast: true)) }
+"""
+      assertEquals(0, processCmdLineTargets(targetName))
+      assertTrue(output.contains('[1, null]\n'))
+      assertFalse(output.contains('never'))
+    }
+  }
 }
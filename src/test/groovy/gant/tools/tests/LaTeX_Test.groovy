@@ -125,15 +125,103 @@ laTeX.intermediateExtensions.each { extension -> cleanPattern << '*' + extension
       final extension = '.ltx'
       final filename = File.createTempFile('gantLaTeXTest_', extension, new File('.'))
       script = buildScript.replace('TESTFILENAME', filename.name.replaceAll(extension, ''))
-      assertEquals(0, processCmdLineTargets('pdf'))
-      assertTrue(output.contains('[execute] [pdflatex, -interaction=nonstopmode, -halt-on-error, gantLaTeXTest_'))
+      assertEquals(-13, processCmdLineTargets('pdf'))
+      assertTrue(output.contains('[execute] [pdflatex, -interaction=nonstopmode, -halt-on-error, -recorder, gantLaTeXTest_'))
       assertTrue(output.contains('!  ==> Fatal error occurred, no output PDF file produced!'))
-      assertEquals('', error)
+      assertTrue(error.contains('failed with return code'))
       assertEquals(0, processCmdLineTargets('clean'))
       filename.delete()
     }
     else { System.err.println('testEmptyFile not run since pdflatex executable is not available.') }
   }
+  /**
+   *  Create a directory with a stand-in for LaTeX: the first line of a document is the number of passes
+   *  after which the auxiliary file stops changing, a document containing "fail" fails.  Each document
+   *  reads chapter.tex, and the number of passes made is counted in the file job.passes.
+   */
+  private File createDocumentDirectory() {
+    final directory = File.createTempFile('gantLaTeXTest_', '')
+    directory.delete()
+    directory.mkdirs()
+    final latex = new File(directory, 'latex.sh')
+    latex.text = '''#!/bin/sh
+out=.
+for arg in "$@" ; do
+  case "$arg" in
+    -output-directory=*) out="${arg#-output-directory=}" ;;
+    -*) ;;
+    *) source="$arg" ;;
+  esac
+done
+job=`basename "$source" .tex`
+passes=`cat "$out/$job.passes" 2>/dev/null || echo 0`
+passes=`expr $passes + 1`
+echo $passes > "$out/$job.passes"
+grep -q fail "$source" && exit 1
+stable=`head -1 "$source"`
+[ $passes -lt $stable ] && state=$passes || state=$stable
+echo "state $state" > "$out/$job.aux"
+printf 'PWD %s\\nINPUT %s\\nINPUT %s\\nOUTPUT %s\\n' "`pwd`" "$source" "`dirname "$source"`/chapter.tex" "$out/$job.aux" > "$out/$job.fls"
+echo pdf > "$out/$job.pdf"
+'''
+    latex.executable = true
+    new File(directory, 'chapter.tex').text = 'chapter'
+    directory
+  }
+  private String documentGantFile(final File directory, final String root) { """
+includeTool << gant.tools.LaTeX
+target(pdf: '') { laTeX.generatePDF(latexCommand: '${escapeWindowsPath(new File(directory, 'latex.sh').absolutePath)}', root: ${root}, outputDirectory: '${escapeWindowsPath(new File(directory, 'build').absolutePath)}') }
+"""
+  }
+  private int passes(final File directory, final String name) { new File(directory, name).text.trim().toInteger() }
+  void testPassesStopWhenAuxiliaryFilesAreStable() {
+    if (isWindows) { return }
+    final directory = createDocumentDirectory()
+    try {
+      new File(directory, 'a.tex').text = '2\n'
+      final rootName = "'${escapeWindowsPath(new File(directory, 'a').absolutePath)}'"
+      script = documentGantFile(directory, rootName)
+      assertEquals(0, processCmdLineTargets('pdf'))
+      assertEquals(3, passes(directory, 'build/a.passes'))
+      assertTrue(new File(directory, 'build/a.pdf').exists())
+      assertTrue(new File(directory, 'build/a.fls').exists())
+      script = documentGantFile(directory, rootName)
+      assertEquals(0, processCmdLineTargets('pdf'))
+      assertEquals(3, passes(directory, 'build/a.passes'))
+      new File(directory, 'chapter.tex').text = 'changed chapter'
+      script = documentGantFile(directory, rootName)
+      assertEquals(0, processCmdLineTargets('pdf'))
+      assertEquals(4, passes(directory, 'build/a.passes'))
+    }
+    finally { directory.deleteDir() }
+  }
+  void testFailureOfLaTeXFailsTheTarget() {
+    if (isWindows) { return }
+    final directory = createDocumentDirectory()
+    try {
+      new File(directory, 'a.tex').text = 'fail\n'
+      script = documentGantFile(directory, "'${escapeWindowsPath(new File(directory, 'a').absolutePath)}'")
+      assertEquals(-13, processCmdLineTargets('pdf'))
+      assertTrue(error.contains('LaTeX processing of ' + new File(directory, 'a.tex').absolutePath + ' failed with return code 1.'))
+      assertFalse(new File(directory, 'build/a.dependencies').exists())
+    }
+    finally { directory.deleteDir() }
+  }
+  void testDocumentsAreProcessedConcurrently() {
+    if (isWindows) { return }
+    final directory = createDocumentDirectory()
+    try {
+      new File(directory, 'a.tex').text = '1\n'
+      new File(directory, 'b.tex').text = '3\n'
+      script = documentGantFile(directory, ['a', 'b'].collect { "'${escapeWindowsPath(new File(directory, it).absolutePath)}'" }.toString())
+      assertEquals(0, processCmdLineTargets('pdf'))
+      assertEquals(2, passes(directory, 'build/a/a.passes'))
+      assertEquals(4, passes(directory, 'build/b/b.passes'))
+      assertTrue(new File(directory, 'build/a/a.pdf').exists())
+      assertTrue(new File(directory, 'build/b/b.pdf').exists())
+    }
+    finally { directory.deleteDir() }
+  }
   void testInitialized() {
     final targetName = 'test'
     script = """
@@ -0,0 +1,87 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package gant.tools.tests
+
+import org.codehaus.gant.tests.GantTestCase
+
+/**
+ *  A test to ensure that the Subdirectories tool is not broken.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class Subdirectories_Test extends GantTestCase {
+  final targetName = 'testing'
+  private File directory
+  void setUp() {
+    super.setUp()
+    directory = File.createTempFile('gant-subdirectoriesTest-', '-directory')
+    directory.delete()
+    ['a', 'b', 'c'].each { name -> new File(directory, name).mkdirs() }
+    new File(directory, 'b/fail').text = ''
+    //  The command prints a lot to both streams, a process whose error stream is not drained while its
+    //  output stream is would block.
+    new File(directory, 'chatty.sh').text = 'for i in $(seq 1 10000) ; do echo out$i ; echo err$i 1>&2 ; done ; test ! -f fail\n'
+  }
+  void tearDown() {
+    directory.deleteDir()
+    super.tearDown()
+  }
+  private String buildScript(final String call) {
+    """includeTool << gant.tools.Subdirectories
+target(${targetName}: '') {
+  final results = ${call}
+  println(results.results.collect { it.directory.name + '=' + it.returnCode }.join(' '))
+  println('failed: ' + results.failed*.name)
+}
+"""
+  }
+  private final command = 'sh ../chatty.sh'
+  void testRunSubprocessDrainsBothStreams() {
+    if (! isWindows) {
+      script = """includeTool << gant.tools.Subdirectories
+target(${targetName}: '') { println('returnCode: ' + subdirectories.runSubprocess('${command}', new File('${escapeWindowsPath(directory.absolutePath)}', 'a')).returnCode) }
+"""
+      assertEquals(0, processCmdLineTargets(targetName))
+      assertTrue(output.contains('out10000\nreturnCode: 0\n'))
+      assertTrue(error.contains('err10000\n'))
+    }
+  }
+  void testParallelRunCollectsResultsInDirectoryOrder() {
+    if (! isWindows) {
+      script = buildScript("subdirectories.forAllSubdirectoriesRunParallel('${command}', directory: '${escapeWindowsPath(directory.absolutePath)}', threads: 2)")
+      assertEquals(0, processCmdLineTargets(targetName))
+      assertTrue(output.contains('a=0 b=1 c=0\n'))
+      assertTrue(output.contains('failed: [b]\n'))
+      assertEquals(3, output.readLines().count { it == 'out10000' })
+      assertEquals(3, error.readLines().count { it == 'err10000' })
+      assertTrue(error.contains('Failed in: b'))
+    }
+  }
+  void testParallelOutputOfEachDirectoryIsNotInterleaved() {
+    if (! isWindows) {
+      script = buildScript("subdirectories.forAllSubdirectoriesRunParallel('${command}', directory: '${escapeWindowsPath(directory.absolutePath)}')")
+      assertEquals(0, processCmdLineTargets(targetName))
+      final lines = output.readLines().findAll { it.startsWith('out') }
+      assertEquals((1 .. 10000).collect { 'out' + it } * 3, lines)
+    }
+  }
+  void testParallelRunFailOnError() {
+    if (! isWindows) {
+      script = buildScript("subdirectories.forAllSubdirectoriesRunParallel('test ! -f fail', directory: '${escapeWindowsPath(directory.absolutePath)}', failOnError: true)")
+      assertEquals(-13, processCmdLineTargets(targetName))
+      assertTrue(error.contains('Command test ! -f fail failed in: b'))
+    }
+  }
+}
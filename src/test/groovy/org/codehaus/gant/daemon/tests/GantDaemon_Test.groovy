@@ -0,0 +1,195 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+
+package org.codehaus.gant.daemon.tests
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+import org.codehaus.gant.daemon.GantClient
+import org.codehaus.gant.daemon.GantDaemon
+import org.codehaus.gant.tests.GantTestCase
+
+/**
+ *  A test of the Gant daemon, served in this process, driven both directly using the protocol and through
+ *  the client.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class GantDaemon_Test extends GantTestCase {
+  private final key = 'gant-daemonTest'
+  private File directory
+  private String savedRegistryDirectory
+  private GantDaemon daemon
+  private Thread serving
+  void setUp() {
+    super.setUp()
+    directory = File.createTempFile('gant-daemonTest-', '-directory')
+    directory.delete()
+    directory.mkdirs()
+    savedRegistryDirectory = System.getProperty('gant.daemon.directory')
+    System.setProperty('gant.daemon.directory', new File(directory, 'registry').path)
+  }
+  void tearDown() {
+    if (serving?.alive) {
+      daemon.stop()
+      serving.join(10000)
+    }
+    if (savedRegistryDirectory == null) { System.clearProperty('gant.daemon.directory') }
+    else { System.setProperty('gant.daemon.directory', savedRegistryDirectory) }
+    directory.deleteDir()
+    super.tearDown()
+  }
+  private void startDaemon(final String daemonKey = key) {
+    daemon = new GantDaemon(daemonKey)
+    serving = Thread.start { daemon.serve() }
+    final deadline = System.currentTimeMillis() + 10000
+    while (GantClient.registration(daemonKey) == null) {
+      assertTrue('The daemon did not register.', System.currentTimeMillis() < deadline)
+      Thread.sleep(10)
+    }
+  }
+  private String writeScript(final String name, final String text) {
+    final file = new File(directory, name + '.gant')
+    file.text = text
+    file.absolutePath
+  }
+  /**
+   *  Send a request and collect the frames of the response.
+   *
+   *  @return The standard output, the standard error and the exit code, <code>null</code> if the connection
+   *  was closed without one.
+   */
+  private Map request(final Map parameters = [:], final String command, final List<String> args) {
+    final registration = GantClient.registration(key)
+    final socket = new Socket(InetAddress.loopbackAddress, registration.port as int)
+    socket.withCloseable {
+      final requests = new DataOutputStream(new BufferedOutputStream(socket.outputStream))
+      GantClient.writeString(requests, (String) (parameters.token ?: registration.token))
+      GantClient.writeString(requests, command)
+      GantClient.writeString(requests, (String) (parameters.directory ?: new File('.').canonicalPath))
+      requests.writeInt(args.size())
+      args.each { GantClient.writeString(requests, it) }
+      final Map<String, String> environment = (Map<String, String>) (parameters.environment ?: [:])
+      requests.writeInt(environment.size())
+      environment.each { name, value ->
+        GantClient.writeString(requests, name)
+        GantClient.writeString(requests, value)
+      }
+      requests.flush()
+      final responses = new DataInputStream(new BufferedInputStream(socket.inputStream))
+      final output = new ByteArrayOutputStream()
+      final error = new ByteArrayOutputStream()
+      Integer exitCode = null
+      for (int type = responses.read(); type != -1; type = responses.read()) {
+        if (type == GantClient.EXIT) {
+          exitCode = responses.readInt()
+          break
+        }
+        assertTrue('Unknown frame type ' + type, type == GantClient.OUTPUT || type == GantClient.ERROR)
+        final bytes = new byte[responses.readInt()]
+        responses.readFully(bytes)
+        (type == GantClient.OUTPUT ? output : error).write(bytes)
+      }
+      [output: output.toString('UTF-8'), error: error.toString('UTF-8'), exitCode: exitCode]
+    }
+  }
+  void testOutputAndExitCodeAreSentInFrames() {
+    startDaemon()
+    final path = writeScript('build', "target(hello: '') { println('Hello.') ; System.err.println('Oops.') }")
+    final result = request(GantClient.RUN, ['-f', path, 'hello'])
+    assertEquals(0, result.exitCode)
+    assertTrue(result.output.contains('Hello.\n'))
+    assertTrue(result.error.contains('Oops.\n'))
+    assertFalse(output.contains('Hello.'))
+    final failure = request(GantClient.RUN, ['-f', path, 'goodbye'])
+    assertEquals(-11, failure.exitCode)
+  }
+  void testRequestWithWrongTokenIsRejected() {
+    startDaemon()
+    final path = writeScript('build', "target(hello: '') { println('Hello.') }")
+    final result = request(GantClient.RUN, ['-f', path, 'hello'], token: '0' * 64)
+    assertEquals([output: '', error: '', exitCode: null], result)
+    assertEquals(0, request(GantClient.RUN, ['-f', path, 'hello']).exitCode)
+  }
+  void testRequestFromAnotherDirectoryIsRejected() {
+    startDaemon()
+    final path = writeScript('build', "target(hello: '') { println('Hello.') }")
+    final result = request(GantClient.RUN, ['-f', path, 'hello'], directory: directory.canonicalPath)
+    assertEquals(-1, result.exitCode)
+    assertTrue(result.error.contains('cannot execute in ' + directory.canonicalPath))
+    assertFalse(result.output.contains('Hello.'))
+  }
+  void testStopRequestStopsTheDaemon() {
+    startDaemon()
+    assertEquals(0, request(GantClient.STOP, []).exitCode)
+    serving.join(10000)
+    assertFalse(serving.alive)
+    assertNull(GantClient.registration(key))
+  }
+  void testChangedScriptIsRecompiled() {
+    startDaemon()
+    final path = writeScript('build', "target(hello: '') { println('Hello.') }")
+    assertTrue(request(GantClient.RUN, ['-f', path, 'hello']).output.contains('Hello.\n'))
+    writeScript('build', "target(hello: '') { println('Hello again.') }")
+    assertTrue(request(GantClient.RUN, ['-f', path, 'hello']).output.contains('Hello again.\n'))
+  }
+  void testRunSeesTheEnvironmentOfTheClient() {
+    startDaemon()
+    final path = writeScript('build', """target(show: '') {
+  println('variable: ' + ant.project.properties.'environment.GANT_DAEMON_TEST')
+  println('path: ' + ant.project.properties.'environment.PATH')
+}
+""")
+    final result = request(GantClient.RUN, ['-f', path, 'show'], environment: [GANT_DAEMON_TEST: 'some value'])
+    assertEquals(0, result.exitCode)
+    assertTrue(result.output.contains('variable: some value\n'))
+    assertTrue(result.output.contains('path: null\n'))
+  }
+  void testOutputOfConcurrentRunsReachesTheirClients() {
+    startDaemon()
+    final names = ['first', 'second', 'third']
+    final paths = names.collect { name ->
+      writeScript(name, """target(run: '') {
+  10.times {
+    println('${name}')
+    Thread.start { println('${name} thread') }.join()
+    Thread.sleep(10)
+  }
+}
+""")
+    }
+    final executor = Executors.newFixedThreadPool(names.size())
+    try {
+      final futures = paths.collect { path -> executor.submit({ request(GantClient.RUN, ['-f', path, 'run']) } as Callable<Map>) }
+      [names, futures].transpose().each { String name, future ->
+        final result = future.get()
+        assertEquals(0, result.exitCode)
+        final lines = result.output.readLines().findAll { line -> names.any { line.startsWith(it) } }
+        assertEquals(([name, name + ' thread'] * 10).sort(), lines.sort())
+      }
+    }
+    finally { executor.shutdown() }
+  }
+  void testRunThroughTheClient() {
+    startDaemon(GantClient.daemonKey())
+    final path = writeScript('build', "target(hello: '') { println('Hello from the daemon.') }")
+    assertEquals(0, GantClient.execute(['-f', path, 'hello'] as String[]))
+    assertTrue(output.contains('Hello from the daemon.\n'))
+    assertEquals(0, GantClient.stop())
+    serving.join(10000)
+    assertFalse(serving.alive)
+  }
+}
@@ -0,0 +1,100 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import java.util.jar.JarInputStream
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.ZipFile
+
+import org.codehaus.gant.archive.ArchiveWriter
+
+/**
+ *  A test of the writing of archives with entries compressed concurrently and reused from the previous
+ *  archive.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class ArchiveWriter_Test extends GantTestCase {
+  private File directory
+  private File sources
+  void setUp() {
+    super.setUp()
+    directory = File.createTempFile('gant-archiveWriterTest-', '')
+    directory.delete()
+    sources = new File(directory, 'sources')
+    new File(sources, 'a/b').mkdirs()
+    new File(sources, 'a/b/text.txt').text = 'Some text. ' * 1000
+    final random = new byte[100000]
+    new Random(42).nextBytes(random)
+    new File(sources, 'a/random.bin').bytes = random
+    new File(sources, 'empty').text = ''
+    new File(sources, 'META-INF').mkdirs()
+    new File(sources, 'META-INF/MANIFEST.MF').text = 'Manifest-Version: 1.0\r\nCreated-By: Gant\r\n\r\n'
+  }
+  void tearDown() {
+    directory.deleteDir()
+    super.tearDown()
+  }
+  private ArchiveWriter write(final String name, final boolean reproducible = true) {
+    final writer = new ArchiveWriter(new File(directory, name), 4, reproducible, Deflater.DEFAULT_COMPRESSION)
+    writer.addDirectory(sources, '')
+    writer.addContent('extra/content.txt', 'content'.getBytes('UTF-8'))
+    writer.write()
+    writer
+  }
+  void testArchiveHasTheEntriesInOrderWithTheManifestFirst() {
+    write('archive.jar', false)
+    final archive = new File(directory, 'archive.jar')
+    new ZipFile(archive).withCloseable { zip ->
+      assertEquals(['META-INF/', 'META-INF/MANIFEST.MF', 'a/', 'a/b/', 'a/b/text.txt', 'a/random.bin', 'empty', 'extra/', 'extra/content.txt'], zip.entries()*.name)
+      assertEquals('Some text. ' * 1000, zip.getInputStream(zip.getEntry('a/b/text.txt')).text)
+      assertEquals(new File(sources, 'a/random.bin').bytes as List, zip.getInputStream(zip.getEntry('a/random.bin')).bytes as List)
+      assertEquals('', zip.getInputStream(zip.getEntry('empty')).text)
+      assertEquals('content', zip.getInputStream(zip.getEntry('extra/content.txt')).text)
+    }
+    archive.withInputStream { stream -> assertEquals('Gant', new JarInputStream(stream).manifest.mainAttributes.getValue('Created-By')) }
+  }
+  void testReproducibleArchivesDependOnlyOnContent() {
+    write('first.jar')
+    sources.eachFileRecurse { it.lastModified = it.lastModified() - 100000L }
+    write('second.jar')
+    assertEquals(new File(directory, 'first.jar').bytes as List, new File(directory, 'second.jar').bytes as List)
+  }
+  void testUnchangedEntriesAreReused() {
+    assertEquals(0, write('archive.jar').reusedEntries)
+    final firstBytes = new File(directory, 'archive.jar').bytes as List
+    assertEquals(5, write('archive.jar').reusedEntries)
+    assertEquals(firstBytes, new File(directory, 'archive.jar').bytes as List)
+    new File(sources, 'a/b/text.txt').text = 'Some other text. ' * 1000
+    assertEquals(4, write('archive.jar').reusedEntries)
+    write('fresh.jar')
+    assertEquals(new File(directory, 'fresh.jar').bytes as List, new File(directory, 'archive.jar').bytes as List)
+    new ZipFile(new File(directory, 'archive.jar')).withCloseable { zip -> assertEquals('Some other text. ' * 1000, zip.getInputStream(zip.getEntry('a/b/text.txt')).text) }
+  }
+  void testEntryWithTheSameSizeAndCRCIsNotReused() {
+    final crc = { String text ->
+      final checksum = new CRC32()
+      checksum.update(text.getBytes('UTF-8'))
+      checksum.value
+    }
+    assertEquals(crc('plumless'), crc('buckeroo'))
+    new File(sources, 'empty').text = 'plumless'
+    write('archive.jar')
+    new File(sources, 'empty').text = 'buckeroo'
+    assertEquals(4, write('archive.jar').reusedEntries)
+    new ZipFile(new File(directory, 'archive.jar')).withCloseable { zip -> assertEquals('buckeroo', zip.getInputStream(zip.getEntry('empty')).text) }
+  }
+}
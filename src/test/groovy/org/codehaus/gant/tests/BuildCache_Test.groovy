@@ -0,0 +1,158 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018  Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import gant.Gant
+
+import org.codehaus.gant.GantBinding
+import org.codehaus.gant.StateStore
+import org.codehaus.gant.cache.BuildCache
+import org.codehaus.gant.cache.BuildCacheBackend
+
+/**
+ *  A test for the restoring of the outputs of targets from the build cache instead of executing them.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class BuildCache_Test extends GantTestCase {
+  private final specification = "name: 'copyIt', inputs: 'src', outputs: 'build', cache: true"
+  private File projectDirectory
+  private File cacheDirectory
+  void setUp() {
+    super.setUp()
+    projectDirectory = createProject('some text')
+    cacheDirectory = File.createTempFile('gant-buildCacheTest-', '-cache')
+    cacheDirectory.delete()
+  }
+  void tearDown() {
+    projectDirectory.deleteDir()
+    cacheDirectory.deleteDir()
+    super.tearDown()
+  }
+  private File createProject(final String text) {
+    final directory = File.createTempFile('gant-buildCacheTest-', '-directory')
+    directory.delete()
+    new File(directory, 'src').mkdirs()
+    new File(directory, 'src/input.txt').text = text
+    directory
+  }
+  private String buildScript(final String targetSpecification, final String action = "println('executing')") {
+    """
+ant.project.baseDir = new File(projectDirectory)
+target(${targetSpecification}) {
+  ${action}
+  copy(file: 'src/input.txt', tofile: 'build/output.txt', overwrite: true)
+}
+"""
+  }
+  private Integer execute(final File directory = projectDirectory, final String targetSpecification = specification, final String action = "println('executing')") {
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = buildScript(targetSpecification, action)
+    processCmdLineTargets(['-DprojectDirectory=' + directory.absolutePath, '--build-cache=' + cacheDirectory.absolutePath, 'copyIt'])
+  }
+  private int executionCount() { output.readLines().count { it == 'executing' } }
+  private void removeBuildState(final File directory) {
+    new File(directory, 'build').deleteDir()
+    new File(directory, StateStore.defaultLocation).delete()
+  }
+  void testOutputsAreRestoredInsteadOfExecuting() {
+    assertEquals(0, execute())
+    removeBuildState(projectDirectory)
+    assertEquals(0, execute())
+    assertEquals(1, executionCount())
+    assertTrue(output.contains('Target copyIt restored from the build cache.'))
+    assertEquals('some text', new File(projectDirectory, 'build/output.txt').text)
+  }
+  void testRestoredTargetIsThenUpToDate() {
+    assertEquals(0, execute())
+    removeBuildState(projectDirectory)
+    assertEquals(0, execute())
+    assertEquals(0, execute())
+    assertEquals(1, executionCount())
+    assertTrue(output.contains('Target copyIt is up to date.'))
+  }
+  void testEntriesAreSharedBetweenCheckouts() {
+    final otherDirectory = createProject('some text')
+    try {
+      assertEquals(0, execute())
+      assertEquals(0, execute(otherDirectory))
+      assertEquals(1, executionCount())
+      assertEquals('some text', new File(otherDirectory, 'build/output.txt').text)
+    }
+    finally { otherDirectory.deleteDir() }
+  }
+  void testChangedInputCausesExecution() {
+    assertEquals(0, execute())
+    removeBuildState(projectDirectory)
+    new File(projectDirectory, 'src/input.txt').text = 'some more text'
+    assertEquals(0, execute())
+    assertEquals(2, executionCount())
+    assertEquals('some more text', new File(projectDirectory, 'build/output.txt').text)
+    assertEquals(2, cacheDirectory.listFiles().findAll { it.name.endsWith('.zip') }.size())
+  }
+  void testChangedBuildScriptCausesExecution() {
+    assertEquals(0, execute())
+    removeBuildState(projectDirectory)
+    assertEquals(0, execute(projectDirectory, specification, "println('executing') ; echo(message: 'changed')"))
+    assertEquals(2, executionCount())
+    assertFalse(output.contains('Target copyIt restored from the build cache.'))
+  }
+  void testFailedTargetIsNotStored() {
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = buildScript(specification).replace("overwrite: true)\n", "overwrite: true)\n  1\n")
+    assertEquals(1, processCmdLineTargets(['-DprojectDirectory=' + projectDirectory.absolutePath, '--build-cache=' + cacheDirectory.absolutePath, 'copyIt']))
+    assertFalse(cacheDirectory.exists() && cacheDirectory.listFiles().any { it.name.endsWith('.zip') })
+  }
+  void testCachedTargetMustDeclareInputsAndOutputs() {
+    assertEquals(-4, execute(projectDirectory, "name: 'copyIt', inputs: 'src', cache: true"))
+    assertEquals(0, executionCount())
+    assertTrue(error.contains('Target copyIt uses the build cache but does not declare inputs and outputs.'))
+  }
+  void testBackendIsPluggable() {
+    final backend = new MemoryBackend()
+    final binding = new GantBinding()
+    binding.buildCache = new BuildCache(backend)
+    gant = new Gant(binding)
+    gant.buildClassName = 'standard_input'
+    script = buildScript(specification)
+    assertEquals(0, processCmdLineTargets(['-DprojectDirectory=' + projectDirectory.absolutePath, 'copyIt']))
+    assertEquals(1, backend.entries.size())
+    removeBuildState(projectDirectory)
+    final otherBinding = new GantBinding()
+    otherBinding.buildCache = new BuildCache(backend)
+    gant = new Gant(otherBinding)
+    gant.buildClassName = 'standard_input'
+    script = buildScript(specification)
+    assertEquals(0, processCmdLineTargets(['-DprojectDirectory=' + projectDirectory.absolutePath, 'copyIt']))
+    assertEquals(1, executionCount())
+    assertEquals('some text', new File(projectDirectory, 'build/output.txt').text)
+    assertFalse(cacheDirectory.exists())
+  }
+  /**
+   *  A backend holding the entries in memory, standing in for a shared server.
+   */
+  private static final class MemoryBackend implements BuildCacheBackend {
+    final Map<String, byte[]> entries = [:]
+    boolean contains(final String key) { entries.containsKey(key) }
+    boolean load(final String key, final File destination) {
+      if (! entries.containsKey(key)) { return false }
+      destination.bytes = entries[key]
+      true
+    }
+    void store(final String key, final File entry) { entries[key] = entry.bytes }
+  }
+}
@@ -0,0 +1,95 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import gant.Gant
+
+import org.codehaus.gant.GantBinding
+import org.codehaus.gant.GantState
+
+/**
+ *  A test to ensure that many runs of Gant can execute concurrently in one JVM without interfering with
+ *  each other.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class ConcurrentRuns_Test extends GantTestCase {
+  final runs = 16
+  final buildScript = '''
+target(common: '') { executions << 'common' }
+target(caseA: '') { depends(common) ; executions << 'caseA' }
+target(caseB: '') { depends(common) ; executions << 'caseB' }
+target(setProperty: '') { property(name: 'runIndex', value: runIndex) }
+target(pause: '') { sleep(pauseMilliseconds) }
+target('default': '') { depends(caseA, caseB, setProperty, pause) }
+'''
+  private List<GantBinding> executeConcurrently(final Closure<Gant> createGant) {
+    final pool = Executors.newFixedThreadPool(runs)
+    final barrier = new CyclicBarrier(runs)
+    try {
+      final futures = (0 ..< runs).collect { index ->
+        pool.submit({
+          final binding = new GantBinding()
+          binding.executions = Collections.synchronizedList([])
+          binding.runIndex = index.toString()
+          binding.pauseMilliseconds = 0
+          final gant = createGant(binding, index)
+          gant.loadScript(buildScript)
+          barrier.await(10, TimeUnit.SECONDS)
+          assertEquals(0, gant.processTargets())
+          binding
+        } as Callable<GantBinding>)
+      }
+      futures.collect { it.get(60, TimeUnit.SECONDS) }
+    }
+    finally { pool.shutdownNow() }
+  }
+  void testDependenciesAreExecutedOncePerRun() {
+    final bindings = executeConcurrently { binding, index -> new Gant(binding) }
+    bindings.eachWithIndex { binding, index ->
+      assertEquals(['caseA', 'caseB', 'common'], binding.executions.sort())
+      assertEquals(index.toString(), binding.ant.project.getProperty('runIndex'))
+    }
+  }
+  void testDryRunIsPerRun() {
+    final bindings = executeConcurrently { binding, index ->
+      final gant = new Gant(binding)
+      gant.dryRun = index % 2 == 0
+      gant.verbosity = GantState.SILENT
+      gant
+    }
+    bindings.eachWithIndex { binding, index ->
+      assertEquals(index % 2 == 0, binding.ant.dryRun)
+      assertEquals(index % 2 == 0 ? null : index.toString(), binding.ant.project.getProperty('runIndex'))
+    }
+    assertFalse(GantState.dryRun)
+    assertEquals(GantState.NORMAL, GantState.verbosity)
+  }
+  void testRunsAreNotSerialized() {
+    final pause = 500
+    final startTime = System.nanoTime()
+    executeConcurrently { binding, index ->
+      binding.pauseMilliseconds = pause
+      new Gant(binding)
+    }
+    final elapsedMilliseconds = (System.nanoTime() - startTime) / 1e6
+    assertTrue("${runs} concurrent runs took ${elapsedMilliseconds}ms", elapsedMilliseconds < runs * pause / 2)
+  }
+}
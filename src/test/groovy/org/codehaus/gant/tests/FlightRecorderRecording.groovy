@@ -0,0 +1,62 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import java.time.Duration
+
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordedEvent
+import jdk.jfr.consumer.RecordingFile
+
+/**
+ *  Records the Flight Recorder events emitted by Gant.  All use of the <code>jdk.jfr</code> API by the
+ *  tests is here, and this class is only used when the JVM has the API, so that the tests can be loaded
+ *  by JVMs without it.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class FlightRecorderRecording {
+  /**
+   *  Record the Gant events emitted while executing a closure.
+   *
+   *  @param body The closure to execute.
+   *  @return The events in the order recorded, each a map of the values of its fields with the event
+   *  name, without the <code>org.codehaus.gant.</code> prefix, as <code>type</code>.
+   */
+  static List<Map<String, Object>> record(final Closure<?> body) {
+    final recording = new Recording()
+    ['Target', 'Depends', 'Task', 'Compilation'].each { name -> recording.enable('org.codehaus.gant.' + name).withThreshold(Duration.ZERO) }
+    final file = File.createTempFile('gant-flightRecorderRecording-', '.jfr')
+    try {
+      recording.start()
+      try { body.call() }
+      finally { recording.stop() }
+      recording.dump(file.toPath())
+      RecordingFile.readAllEvents(file.toPath()).collect { RecordedEvent event ->
+        final Map<String, Object> values = [type: event.eventType.name - 'org.codehaus.gant.']
+        event.fields.each { field -> values[field.name] = event.getValue(field.name) }
+        values
+      }
+    }
+    finally {
+      recording.close()
+      file.delete()
+    }
+  }
+  /**
+   *  We never want an instance of this class, so the constructor is made private.
+   */
+  private FlightRecorderRecording() { }
+}
@@ -310,4 +310,44 @@ setAllPerTargetPostHooks({ })
     assertEquals('', error)
   }
 
+  void testOnlyExecutedTargetsArePrepared() {
+    script = """
+(1 .. 1000).each { i -> target(name: 'generated' + i) { } }
+target(${targetName}: '') { generated7() }
+"""
+    assertEquals(0, processCmdLineTargets(targetName))
+    assertEquals(resultString(targetName, resultString('generated7', '')), output)
+    final targetMaps = gant.binding.listOfTargetMapsDeclared
+    assertEquals(1001, targetMaps.size())
+    assertEquals(['generated7', targetName], targetMaps.findAll { it.containsKey('prehook') }*.name)
+  }
+  void testTargetNameFromClosure() {
+    final binding = new GantBinding()
+    binding.target.call(name: targetName, description: 'A target.') { }
+    assertEquals(targetName, binding.targetName(binding."${targetName}"))
+    assertEquals('A target.', binding."${targetName}_description")
+    assertTrue(binding.hasVariable(targetName + '_description'))
+    assertNull(binding.targetName({ -> }))
+  }
+  void testClosureVariableFollowsWrites() {
+    final binding = new GantBinding()
+    assertNull(binding.closureVariable('flob'))
+    final flob = { -> }
+    binding.flob = flob
+    assertSame(flob, binding.closureVariable('flob'))
+    binding.flob = 'not a closure'
+    assertNull(binding.closureVariable('flob'))
+  }
+  void testAntTaskNameRedefinedAsClosure() {
+    script = """
+target(${targetName}: '') {
+  (1 .. 3).each { i -> echo(message: 'task ' + i) }
+  binding.echo = { Map m -> println('closure ' + m.message) }
+  echo(message: 'again')
+}
+"""
+    assertEquals(0, processCmdLineTargets(targetName))
+    assertEquals(resultString(targetName, '     [echo] task 1\n     [echo] task 2\n     [echo] task 3\nclosure again\n'), output)
+    assertEquals('', error)
+  }
 }
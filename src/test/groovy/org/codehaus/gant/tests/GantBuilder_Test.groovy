@@ -54,4 +54,27 @@ target(${targetName}: '') {
     assertEquals(targetName + ':\n', output)
     assertEquals(expectedError, error)
   }
+  void testIsAntTask() {
+    final gantBuilder = new GantBuilder()
+    assertTrue(gantBuilder.isAntTask('echo'))
+    assertTrue(gantBuilder.isAntTask('fileset'))
+    assertFalse(gantBuilder.isAntTask('flobadob'))
+    assertFalse(gantBuilder.isAntTask('flobadob'))
+    gantBuilder.taskdef(name: 'flobadob', classname: 'org.apache.tools.ant.taskdefs.Echo')
+    assertTrue(gantBuilder.isAntTask('flobadob'))
+  }
+  void testTaskDefinedInScriptAfterFailedLookup() {
+    final targetName = 'hello'
+    script = """
+target(${targetName}: '') {
+  try { flobadob(message: 'before') ; println('found') }
+  catch (MissingMethodException mme) { println('missing') }
+  taskdef(name: 'flobadob', classname: 'org.apache.tools.ant.taskdefs.Echo')
+  flobadob(message: 'after')
+}
+"""
+    assertEquals(0, processCmdLineTargets(targetName))
+    assertEquals(resultString(targetName, 'missing\n [flobadob] after\n'), output)
+    assertEquals('', error)
+  }
 }
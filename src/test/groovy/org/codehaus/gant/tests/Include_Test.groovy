@@ -14,6 +14,9 @@
 
 package org.codehaus.gant.tests
 
+import org.codehaus.gant.GantMetrics
+import org.codehaus.gant.ScriptCache
+
 /**
  *  A test to ensure that the various include mechanisms work as they should.
  *
@@ -130,7 +133,7 @@ target('${defaultTarget}': '') { ${something}() }
     new File(toolClassFilePath).delete()
     new File(targetsScriptFilePath).delete()
     new File(targetsClassFilePath).delete()
-    temporaryDirectory.delete()
+    temporaryDirectory.deleteDir()
     super.tearDown()
   }
   void testToolDefaultClass() {
@@ -592,4 +595,88 @@ target(aTarget: '') {
     assertNotNull(binding.aTarget)
   }
 
+  //  Lists of files are compiled concurrently before being evaluated in order.
+
+  private List<File> writeListedTargetsFiles(final int count) {
+    (1 .. count).collect { i ->
+      final file = new File(temporaryDirectory, "listed${i}.gant")
+      file.write("""
+println('loading ${i}')
+target(listed${i}: '') { println('listed ${i}') }
+""")
+      file
+    }
+  }
+  private String fileListText(final List<File> files) {
+    files.collect { file -> "new File('${escapeWindowsPath(file.path)}')" }.join(', ')
+  }
+  void testTargetsListOfFilesEvaluatedInOrder() {
+    final files = writeListedTargetsFiles(5)
+    script = """
+includeTargets << [ ${fileListText(files)} ]
+target(${something}: '') { depends(listed1, listed5) }
+"""
+    assertEquals(0, processCmdLineTargets(something))
+    assertEquals((1 .. 5).collect { "loading ${it}\n" }.join('') + resultString(something, resultString('listed1', 'listed 1\n') + resultString('listed5', 'listed 5\n')), output)
+    assertEquals('', error)
+  }
+  void testTargetsListOfFilesFoundInGantLib() {
+    writeListedTargetsFiles(3)
+    gant.gantLib << temporaryDirectory.path
+    script = """
+includeTargets << [ new File('listed1.gant'), new File('listed2.gant'), new File('listed3.gant') ]
+target(${something}: '') { listed2() }
+"""
+    assertEquals(0, processCmdLineTargets(something))
+    assertEquals('loading 1\nloading 2\nloading 3\n' + resultString(something, resultString('listed2', 'listed 2\n')), output)
+    assertEquals('', error)
+  }
+  void testTargetsListOfFilesCompiledOnceWhenCaching() {
+    final files = writeListedTargetsFiles(3)
+    //  Scripts are only loaded through the cache from a file, not from standard input.
+    final buildFile = new File(temporaryDirectory, 'listing.gant')
+    buildFile.write("""
+includeTargets << [ ${fileListText(files)} ]
+target(${something}: '') { listed3() }
+""")
+    gant.scriptCache = new ScriptCache()
+    final hits = GantMetrics.shared.scriptCacheHits
+    final misses = GantMetrics.shared.scriptCacheMisses
+    assertEquals(0, gant.processArgs(['-f', buildFile.path, something] as String[]))
+    assertEquals('loading 1\nloading 2\nloading 3\n' + resultString(something, resultString('listed3', 'listed 3\n')), output)
+    assertEquals(3L, GantMetrics.shared.scriptCacheHits - hits)
+    assertEquals(4L, GantMetrics.shared.scriptCacheMisses - misses)
+  }
+  void testErrorInListOfFilesReportsFileAndLine() {
+    final files = writeListedTargetsFiles(3)
+    files[1].write("""
+println('loading 2')
+throw new RuntimeException('listed failure')
+""")
+    script = """
+includeTargets << [ ${fileListText(files)} ]
+target(${something}: '') { }
+"""
+    assertEquals(-4, processCmdLineTargets(something))
+    assertEquals('loading 1\nloading 2\n', output)
+    assertTrue(error.contains(files[1].absolutePath + ', line 3 -- java.lang.RuntimeException: listed failure'))
+  }
+  void testToolListOfFiles() {
+    final otherToolFile = new File(temporaryDirectory, 'OtherTool.groovy')
+    otherToolFile.write("""
+import org.codehaus.gant.GantBinding
+class OtherTool {
+  OtherTool(GantBinding binding) { }
+  void ${flob}() { println('other ${flobbed}') }
+}
+""")
+    script = """
+includeTool << [ new File('${escapeWindowsPath(toolClassFilePath)}'), new File('${escapeWindowsPath(otherToolFile.path)}') ]
+target(${something}: '') { ${toolBindingName}.${flob}() ; otherTool.${flob}() }
+"""
+    assertEquals(0, processCmdLineTargets(something))
+    assertEquals(resultString(something, flobbed + '\nother ' + flobbed + '\n'), output)
+    assertEquals('', error)
+  }
+
 }
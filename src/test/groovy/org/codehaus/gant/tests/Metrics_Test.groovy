@@ -0,0 +1,86 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import java.lang.management.ManagementFactory
+
+import javax.management.ObjectName
+import javax.management.openmbean.CompositeData
+
+import org.codehaus.gant.GantMetrics
+import org.codehaus.gant.Histogram
+
+/**
+ *  A test for the metrics of builds, and their exposure through JMX.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class Metrics_Test extends GantTestCase {
+  private final metrics = new GantMetrics()
+  void setUp() {
+    super.setUp()
+    gant.binding.metrics = metrics
+    script = '''
+target(one: '') { echo('one') }
+target(two: '') { depends(one) }
+target(broken: '') { throw new RuntimeException('broken') }
+'''
+  }
+  void testTargetsAndBuildsCounted() {
+    assertEquals(0, processTargets('two'))
+    assertEquals(1L, metrics.buildsRun)
+    assertEquals(0L, metrics.buildsFailed)
+    assertEquals(2L, metrics.targetsExecuted)
+    assertEquals(0L, metrics.targetsSkipped)
+    assertEquals(2L, metrics.targetLatency.count)
+    assertEquals(1L, metrics.scriptLoadTime.count)
+    assertTrue(metrics.compilationTime > 0.0d)
+  }
+  void testFailuresCountedByType() {
+    assertEquals(-13, processCmdLineTargets('broken'))
+    assertEquals(1L, metrics.buildsRun)
+    assertEquals(1L, metrics.buildsFailed)
+    assertEquals([TargetExecutionException: 1L], metrics.failuresByType)
+    metrics.reset()
+    assertEquals(0L, metrics.buildsRun)
+    assertEquals([:], metrics.failuresByType)
+  }
+  void testHistogramPercentiles() {
+    final histogram = new Histogram()
+    (1 .. 100).each { i -> histogram.record(i * 1000000L) }
+    final snapshot = histogram.snapshot()
+    assertEquals(100L, snapshot.count)
+    assertEquals(50.5d, snapshot.mean, 0.001d)
+    assertEquals(100.0d, snapshot.max, 0.001d)
+    assertTrue(snapshot.percentile50 >= 50.0d && snapshot.percentile50 < 100.0d)
+    assertTrue(snapshot.percentile99 >= 99.0d && snapshot.percentile99 < 198.0d)
+  }
+  void testSharedMetricsExposedByJmx() {
+    final server = ManagementFactory.platformMBeanServer
+    final name = new ObjectName(GantMetrics.domain + ':type=Metrics')
+    GantMetrics.shared.targetCompleted(true, 1000000L)
+    assertTrue(server.isRegistered(name))
+    assertTrue((Long) server.getAttribute(name, 'TargetsExecuted') > 0L)
+    assertTrue(((CompositeData) server.getAttribute(name, 'TargetLatency')).get('count') > 0L)
+  }
+  void testOwnMetricsRegistered() {
+    final name = metrics.register('Metrics_Test')
+    try {
+      assertEquals(0, processTargets('one'))
+      assertEquals(1L, ManagementFactory.platformMBeanServer.getAttribute(name, 'BuildsRun'))
+    }
+    finally { ManagementFactory.platformMBeanServer.unregisterMBean(name) }
+  }
+}
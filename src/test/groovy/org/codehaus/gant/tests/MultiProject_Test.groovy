@@ -0,0 +1,96 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import org.codehaus.gant.GantBinding
+import org.codehaus.gant.GantMetrics
+import org.codehaus.gant.MultiProjectBuild
+
+/**
+ *  A test for the execution of the build scripts of subprojects in the JVM executing the build of the root
+ *  project.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class MultiProject_Test extends GantTestCase {
+  private File rootDirectory
+  void setUp() {
+    super.setUp()
+    rootDirectory = File.createTempFile('gant-multiProjectTest-', '-directory')
+    rootDirectory.delete()
+    subproject('a', '''
+shared = 'a'
+target(build: '') {
+  property(name: 'module', value: 'a')
+  echo(message: 'building ' + ant.project.properties.module + ' in ' + ant.project.baseDir.name)
+}
+''')
+    subproject('b', '''
+target(build: '') {
+  property(name: 'module', value: 'b')
+  echo(message: 'building ' + ant.project.properties.module + ' in ' + ant.project.baseDir.name)
+  echo(message: 'shared visible: ' + binding.variables.containsKey('shared'))
+}
+''')
+    subproject('c', '''
+target(build: '') { throw new RuntimeException('broken') }
+''')
+    new File(rootDirectory, 'notAProject').mkdirs()
+  }
+  void tearDown() {
+    rootDirectory.deleteDir()
+    super.tearDown()
+  }
+  private void subproject(final String name, final String buildScript) {
+    final directory = new File(rootDirectory, name)
+    directory.mkdirs()
+    new File(directory, 'build.gant').text = buildScript
+  }
+  void testSubprojectsAreBuiltInProcessAndIsolated() {
+    script = """includeTool << gant.tools.Subdirectories
+target(all: '') {
+  final results = subdirectories.forAllSubdirectoriesGantInProcess('build', directory: '${escapeWindowsPath(rootDirectory.absolutePath)}')
+  println(results.results.collect { it.directory.name + '=' + it.returnCode }.join(' '))
+  println('root sees shared: ' + binding.variables.containsKey('shared'))
+}
+"""
+    assertEquals(0, processCmdLineTargets('all'))
+    assertTrue(output.contains('building a in a'))
+    assertTrue(output.contains('building b in b'))
+    assertTrue(output.contains('shared visible: false'))
+    assertTrue(output.contains('a=0 b=0 c=-4\n'))
+    assertTrue(output.contains('root sees shared: false\n'))
+    assertTrue(error.contains('Failed in: c'))
+  }
+  void testFailOnError() {
+    script = """includeTool << gant.tools.Subdirectories
+target(all: '') { subdirectories.forAllSubdirectoriesGantInProcess('build', directory: '${escapeWindowsPath(rootDirectory.absolutePath)}', failOnError: true) }
+"""
+    assertEquals(-13, processCmdLineTargets('all'))
+    assertTrue(error.contains('Build of build failed in: c'))
+  }
+  void testScriptsAreCompiledOnce() {
+    final metrics = new GantMetrics()
+    final root = new GantBinding()
+    root.metrics = metrics
+    final build = new MultiProjectBuild(root)
+    final directory = new File(rootDirectory, 'a')
+    assertEquals(0, build.execute(directory, ['build']))
+    assertEquals(0, build.execute(directory, ['build']))
+    assertEquals(1L, metrics.scriptCacheMisses)
+    assertEquals(1L, metrics.scriptCacheHits)
+    assertEquals(2L, metrics.targetsExecuted)
+  }
+}
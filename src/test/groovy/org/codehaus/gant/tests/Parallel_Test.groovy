@@ -0,0 +1,88 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+/**
+ *  A test for the parallel execution of the targets named in a depends call.  As the order of output from
+ *  concurrently executing targets is not determined, the targets record their executions and the
+ *  initiating target reports the record.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class Parallel_Test extends GantTestCase {
+  final targetName = 'getOnWithIt'
+  final preamble = '''
+executions = new java.util.concurrent.ConcurrentHashMap()
+record = { name -> executions.putIfAbsent(name, new java.util.concurrent.atomic.AtomicInteger()) ; executions[name].incrementAndGet() }
+'''
+  private String lastLine() { output.readLines().findAll { !it.startsWith(exitMarker) }[-1] }
+  void testIndependentTargetsExecuteConcurrently() {
+    script = preamble + """
+barrier = new java.util.concurrent.CyclicBarrier(2)
+target(caseA: '') { barrier.await(10, java.util.concurrent.TimeUnit.SECONDS) ; record('caseA') }
+target(caseB: '') { barrier.await(10, java.util.concurrent.TimeUnit.SECONDS) ; record('caseB') }
+target(${targetName}: '') { depends(caseA, caseB) ; println(new TreeMap(executions)) }
+"""
+    assertEquals(0, gant.processArgs(['--parallel', '2', '-f', '-', targetName] as String[]))
+    assertEquals('[caseA:1, caseB:1]', lastLine())
+    assertEquals('', error)
+  }
+  void testSharedDependencyExecutedOnce() {
+    script = preamble + """
+target(common: '') { record('common') }
+target(caseA: '') { depends(common) ; record('caseA') }
+target(caseB: '') { depends(common) ; record('caseB') }
+target(caseC: '') { depends(common, caseA) ; record('caseC') }
+target(${targetName}: '') { depends(caseA, caseB, caseC) ; println(new TreeMap(executions)) }
+"""
+    assertEquals(0, gant.processArgs(['--parallel', '3', '-f', '-', targetName] as String[]))
+    assertEquals('[caseA:1, caseB:1, caseC:1, common:1]', lastLine())
+    assertEquals('', error)
+  }
+  void testCircularDependenciesDoNotDeadlock() {
+    script = preamble + """
+target(caseA: '') { depends(caseB, caseC) ; record('caseA') }
+target(caseB: '') { depends(caseA) ; record('caseB') }
+target(caseC: '') { depends(caseA) ; record('caseC') }
+target(${targetName}: '') { depends(caseA) ; println(new TreeMap(executions)) }
+"""
+    assertEquals(0, gant.processArgs(['--parallel', '2', '-f', '-', targetName] as String[]))
+    assertEquals('[caseA:1, caseB:1, caseC:1]', lastLine())
+    assertEquals('', error)
+  }
+  void testFailureIsPropagated() {
+    script = """
+target(caseA: '') { throw new RuntimeException('caseA failed') }
+target(caseB: '') { }
+target(${targetName}: '') { depends(caseA, caseB) }
+"""
+    assertEquals(-13, gant.processArgs(['--parallel', '2', '-f', '-', targetName] as String[]))
+    assertTrue(error.contains('caseA failed'))
+  }
+  void testSequentialWhenOneThread() {
+    script = """
+target(caseA: '') { println('A') }
+target(caseB: '') { println('B') }
+target(${targetName}: '') { depends(caseA, caseB) }
+"""
+    assertEquals(0, gant.processArgs(['--parallel', '1', '-f', '-', targetName] as String[]))
+    assertEquals(resultString(targetName, resultString('caseA', 'A\n') + resultString('caseB', 'B\n')), output)
+    assertEquals('', error)
+  }
+  void testInvalidParallelism() {
+    assertEquals(-1, gant.processArgs(['--parallel', 'none', '-f', '-', targetName] as String[]))
+    assertEquals('Parameter to --parallel option is not a positive integer: none\n', output)
+  }
+}
@@ -0,0 +1,111 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import gant.Gant
+
+import org.codehaus.gant.ExecutionPlan
+import org.codehaus.gant.StateStore
+
+/**
+ *  A test for the --plan option, writing the execution plan of a dry run.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class Plan_Test extends GantTestCase {
+  private File projectDirectory
+  void setUp() {
+    super.setUp()
+    projectDirectory = File.createTempFile('gant-planTest-', '-directory')
+    projectDirectory.delete()
+    projectDirectory.mkdirs()
+    script = """
+ant.project.baseDir = new File('${escapeWindowsPath(projectDirectory.absolutePath)}')
+target(compile: 'Compile.') { mkdir(dir: 'build') }
+target(docs: 'Document.') { echo('documenting') }
+target(archive: 'Package.') {
+  depends(compile, docs)
+  jar(destfile: 'build/x.jar') { fileset(dir: 'build', includes: '**/*.class') }
+}
+"""
+  }
+  void tearDown() {
+    projectDirectory.deleteDir()
+    super.tearDown()
+  }
+  private File getStateFile() { new File(projectDirectory, StateStore.defaultLocation) }
+  private String getPlan() { new File(projectDirectory, ExecutionPlan.defaultLocation).getText('UTF-8') }
+  void testPlanListsTargetsAndTasksWithoutExecuting() {
+    assertEquals(0, processCmdLineTargets(['--plan=json', 'archive']))
+    assertFalse(new File(projectDirectory, 'build').exists())
+    final text = plan
+    assertTrue(text.startsWith('{'))
+    assertTrue(text.indexOf('"name": "compile"') < text.indexOf('"name": "docs"'))
+    assertTrue(text.indexOf('"name": "docs"') < text.indexOf('"name": "archive"'))
+    assertTrue(text.contains('''"dependencies": [
+        "compile",
+        "docs"
+      ]'''))
+    assertTrue(text.contains('"includes": "**/*.class"'))
+    assertTrue(text.contains('"text": "documenting"'))
+    assertFalse(text.contains('[echo]'))
+  }
+  void testPlanDoesNotCreateStateStore() {
+    assertEquals(0, processCmdLineTargets(['--plan=json', 'archive']))
+    assertFalse(stateFile.exists())
+  }
+  void testRunsRecordDurationsInAnExistingStateStore() {
+    new StateStore(stateFile).putAll([:])
+    assertTrue(stateFile.isFile())
+    gant = new Gant()
+    script = script
+    assertEquals(0, processCmdLineTargets('archive'))
+    final store = new StateStore(stateFile)
+    ['compile', 'docs', 'archive'].each { name -> assertTrue(store.get('duration.' + name).isLong()) }
+  }
+  void testRunsWithoutStateStoreDoNotCreateOne() {
+    assertEquals(0, processCmdLineTargets('archive'))
+    assertFalse(stateFile.exists())
+  }
+  void testCriticalPathUsesEstimatedDurations() {
+    new StateStore(stateFile).putAll(['duration.compile': '100', 'duration.docs': '300', 'duration.archive': '50'])
+    assertEquals(0, processCmdLineTargets(['--plan=json', 'archive']))
+    assertTrue(plan.contains('''"criticalPath": [
+    "docs",
+    "archive"
+  ],
+  "estimatedDuration": 350
+}'''))
+  }
+  void testUnsupportedFormat() {
+    assertEquals(-1, processCmdLineTargets(['--plan=xml', 'archive']))
+    assertEquals('Parameter to --plan option is not a supported format: xml\n', output)
+  }
+  void testOutputOfTheScriptIsKeptOutOfThePlan() {
+    script += "println('Evaluating the script.')\n"
+    assertEquals(0, processCmdLineTargets(['--plan=json', 'archive']))
+    assertTrue(output.contains('Evaluating the script.'))
+    assertTrue(output.contains('Plan written to '))
+    assertTrue(plan.startsWith('{'))
+    assertFalse(plan.contains('Evaluating the script.'))
+  }
+  void testPlanningDoesNotChangeTheStateOfUpToDateChecks() {
+    script += "target(name: 'generate', inputs: 'src', outputs: 'build') { mkdir(dir: 'build') }\n"
+    new File(projectDirectory, 'src').mkdirs()
+    new StateStore(stateFile).putAll(['fingerprint.generate': 'stale'])
+    assertEquals(0, processCmdLineTargets(['--plan=json', 'generate']))
+    assertEquals('stale', new StateStore(stateFile).get('fingerprint.generate'))
+  }
+}
@@ -0,0 +1,80 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import org.codehaus.gant.Profiler
+
+/**
+ *  A test for the --profile option, recording the time taken by targets, tasks and scripts.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class Profile_Test extends GantTestCase {
+  private File projectDirectory
+  void setUp() {
+    super.setUp()
+    projectDirectory = File.createTempFile('gant-profileTest-', '-directory')
+    projectDirectory.delete()
+    projectDirectory.mkdirs()
+    script = """
+ant.project.baseDir = new File('${escapeWindowsPath(projectDirectory.absolutePath)}')
+target(slow: '') { sleep(200) }
+target(fast: '') { echo('fast') }
+target(top: '') {
+  depends(slow, fast)
+  sleep(50)
+}
+"""
+  }
+  void tearDown() {
+    projectDirectory.deleteDir()
+    super.tearDown()
+  }
+  private File profileFile(final String name) { new File(projectDirectory, Profiler.defaultLocation + '/' + name) }
+  void testProfileSeparatesOwnTimeFromDependencies() {
+    assertEquals(0, processCmdLineTargets(['--profile', 'top']))
+    final text = profileFile('profile.json').text
+    final top = text.substring(text.indexOf('"name": "top"'))
+    final own = (top =~ /"ownDuration": ([0-9.]+)/)[0][1].toBigDecimal()
+    final dependencies = (top =~ /"dependenciesDuration": ([0-9.]+)/)[0][1].toBigDecimal()
+    assertTrue(own >= 50 && own < 200)
+    assertTrue(dependencies >= 200)
+    assertTrue(text.indexOf('"name": "slow"') < text.indexOf('"name": "top"'))
+    assertTrue(text.contains('"name": "echo"'))
+    assertTrue(text.contains('"name": "evaluate standard_input"'))
+  }
+  void testProfileWritesTrace() {
+    assertEquals(0, processCmdLineTargets(['--profile', 'top']))
+    final text = profileFile('trace.json').text
+    assertTrue(text.startsWith('{\n  "traceEvents": ['))
+    assertTrue(text.contains('"ph": "X"'))
+    assertTrue(text.contains('"name": "thread_name"'))
+    assertTrue(output.contains('Profile written to '))
+  }
+  void testNoProfileWithoutOption() {
+    assertEquals(0, processCmdLineTargets('top'))
+    assertFalse(profileFile('profile.json').exists())
+  }
+  void testProfilerRecordsSpans() {
+    final profiler = new Profiler()
+    final start = System.nanoTime()
+    profiler.record(Profiler.TARGET, 'a', start, 0L)
+    profiler.record(Profiler.TARGET, 'a', start, 0L)
+    profiler.record(Profiler.TASK, 'echo', start)
+    assertEquals(2, profiler.report.targets[0].count)
+    assertEquals('echo', profiler.report.tasks[0].name)
+    assertEquals(3 + 1, profiler.trace.traceEvents.size())
+  }
+}
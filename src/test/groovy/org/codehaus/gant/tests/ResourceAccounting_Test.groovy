@@ -0,0 +1,65 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import org.codehaus.gant.jfr.FlightRecorderEvents
+
+/**
+ *  A test for the accounting of the resources used by targets, and the Flight Recorder events.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class ResourceAccounting_Test extends GantTestCase {
+  void setUp() {
+    super.setUp()
+    script = '''
+target(allocate: '') { (0 ..< 1000).collect { new byte[1024] } }
+target(top: '') {
+  depends(allocate)
+  echo('top')
+}
+'''
+  }
+  void testSummaryPrintedWhenVerbose() {
+    gant.processCommandLine(['-v', '-f', '-', 'top'] as String[])
+    final lines = output.readLines()
+    final header = lines.indexOf('Resources used by targets:')
+    assertTrue(header > 0)
+    assertTrue(lines[header + 1].startsWith(' Target'))
+    assertEquals(['allocate', 'top'] as Set, lines[header + 2 .. header + 3].collect { line -> line.trim().split(' ')[0] } as Set)
+  }
+  void testSummaryNotPrintedNormally() {
+    gant.processCommandLine(['-f', '-', 'top'] as String[])
+    assertFalse(output.contains('Resources used by targets:'))
+  }
+  void testResourcesNotMeasuredNormally() {
+    assertEquals(0, processCmdLineTargets('top'))
+    assertEquals('', gant.binding.resourceSummary())
+  }
+  void testFlightRecorderEvents() {
+    //  The recording is made by a separate class so that this class can be loaded without jdk.jfr.
+    if (! FlightRecorderEvents.available) { return }
+    final events = FlightRecorderRecording.record { assertEquals(0, processCmdLineTargets('top')) }
+    final targets = events.findAll { event -> event.type == 'Target' }
+    assertEquals(['allocate', 'top'] as Set, targets.collect { event -> event.name } as Set)
+    final allocate = targets.find { event -> event.name == 'allocate' }
+    final top = targets.find { event -> event.name == 'top' }
+    assertTrue(allocate.allocatedBytes >= 1024 * 1000 || allocate.allocatedBytes == 0)
+    assertTrue(top.allocatedBytes < allocate.allocatedBytes || allocate.allocatedBytes == 0)
+    assertEquals('allocate', events.find { event -> event.type == 'Depends' }.targets)
+    assertEquals('echo', events.find { event -> event.type == 'Task' }.name)
+    assertNotNull(events.find { event -> event.type == 'Compilation' })
+  }
+}
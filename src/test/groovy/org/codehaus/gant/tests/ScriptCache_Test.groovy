@@ -0,0 +1,115 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import gant.Gant
+
+import org.codehaus.gant.ScriptCache
+
+/**
+ *  A test for the cache of compiled scripts, both shared in memory between Gant instances, as done by the
+ *  Gant daemon, and kept on disk as done for the -c option.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class ScriptCache_Test extends GantTestCase {
+  private ScriptCache scriptCache = new ScriptCache()
+  private File scriptFile
+  private File cacheDirectory
+  void setUp() {
+    super.setUp()
+    scriptFile = File.createTempFile('gant-scriptCacheTest-', '.gant')
+    writeScript('first')
+    cacheDirectory = File.createTempFile('gant-scriptCacheTest-', '-cache')
+    cacheDirectory.delete()
+  }
+  void tearDown() {
+    scriptFile.delete()
+    cacheDirectory.deleteDir()
+    super.tearDown()
+  }
+  private void writeScript(final String message) {
+    scriptFile.text = """
+println('class ' + System.identityHashCode(getClass()))
+target(doIt: '') { println('${message}') }
+"""
+  }
+  private String execute(final boolean useDiskCache = false) {
+    final before = output.length()
+    gant = new Gant()
+    if (useDiskCache) {
+      gant.useCache = true
+      gant.cacheDirectory = cacheDirectory
+    }
+    else { gant.scriptCache = scriptCache }
+    gant.loadScript(scriptFile)
+    assertEquals(0, gant.processTargets('doIt'))
+    output.substring(before)
+  }
+  private static String scriptClass(final String runOutput) { runOutput.readLines().find { it.startsWith('class ') } }
+  void testUnchangedScriptIsNotRecompiled() {
+    final first = execute()
+    final second = execute()
+    assertEquals(scriptClass(first), scriptClass(second))
+    assertTrue(second.contains('first'))
+  }
+  void testChangedScriptIsRecompiled() {
+    final first = execute()
+    writeScript('second and longer')
+    final second = execute()
+    assertFalse(scriptClass(first) == scriptClass(second))
+    assertTrue(second.contains('second and longer'))
+  }
+  void testClearedCacheRecompiles() {
+    final first = execute()
+    scriptCache.clear()
+    assertFalse(scriptClass(first) == scriptClass(execute()))
+  }
+  void testInstancesDoNotShareCompiledScripts() {
+    final first = execute()
+    scriptCache = new ScriptCache()
+    assertFalse(scriptClass(first) == scriptClass(execute()))
+  }
+  void testRunsUsingTheDiskCacheShareTheLoadedClass() {
+    final first = execute(true)
+    assertEquals(scriptClass(first), scriptClass(execute(true)))
+  }
+  void testDiskCacheIgnoresTouchedButUnchangedScript() {
+    execute(true)
+    final entries = cacheDirectory.listFiles()
+    assertEquals(1, entries.length)
+    final classFile = entries[0].listFiles().find { it.name.endsWith('.class') }
+    final compiledAt = classFile.lastModified()
+    scriptFile.lastModified = scriptFile.lastModified() + 10000
+    assertTrue(execute(true).contains('first'))
+    assertEquals(1, cacheDirectory.listFiles().length)
+    assertEquals(compiledAt, classFile.lastModified())
+  }
+  void testDiskCacheRecompilesChangedIncludedFile() {
+    final includedFile = new File(cacheDirectory.parentFile, cacheDirectory.name + '-included.gant')
+    try {
+      includedFile.text = "target(included: '') { println('included first') }"
+      scriptFile.text = """
+includeTargets << new File('${escapeWindowsPath(includedFile.absolutePath)}')
+target(doIt: '') { depends(included) }
+"""
+      assertTrue(execute(true).contains('included first'))
+      includedFile.text = "target(included: '') { println('included second') }"
+      assertTrue(execute(true).contains('included second'))
+      assertEquals(3, cacheDirectory.listFiles().length)
+    }
+    finally { includedFile.delete() }
+  }
+}
@@ -0,0 +1,139 @@
+//  Gant -- A Groovy way of scripting Ant tasks.
+//
+//  Copyright © 2018 Russel Winder
+//
+//  Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+//  compliance with the License. You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+//  Unless required by applicable law or agreed to in writing, software distributed under the License is
+//  distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+//  implied. See the License for the specific language governing permissions and limitations under the
+//  License.
+
+package org.codehaus.gant.tests
+
+import gant.Gant
+
+import org.codehaus.gant.StateStore
+
+/**
+ *  A test for the skipping of targets whose declared inputs and outputs are unchanged since their last
+ *  successful execution.
+ *
+ *  @author Russel Winder <russel@winder.org.uk>
+ */
+final class UpToDate_Test extends GantTestCase {
+  private File projectDirectory
+  private File sourceFile
+  void setUp() {
+    super.setUp()
+    projectDirectory = File.createTempFile('gant-upToDateTest-', '-directory')
+    projectDirectory.delete()
+    new File(projectDirectory, 'src').mkdirs()
+    sourceFile = new File(projectDirectory, 'src/input.txt')
+    sourceFile.text = 'some text'
+  }
+  void tearDown() {
+    projectDirectory.deleteDir()
+    super.tearDown()
+  }
+  private String buildScript(final String targetSpecification) {
+    """
+ant.project.baseDir = new File('${escapeWindowsPath(projectDirectory.absolutePath)}')
+target(${targetSpecification}) {
+  println('executing')
+  copy(file: 'src/input.txt', tofile: 'build/output.txt', overwrite: true)
+}
+"""
+  }
+  private Integer execute(final String targetSpecification, final String targetName = 'copyIt') {
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = buildScript(targetSpecification)
+    processCmdLineTargets(targetName)
+  }
+  private int executionCount() { output.readLines().count { it == 'executing' } }
+  void testUnchangedTargetIsSkipped() {
+    final specification = "name: 'copyIt', inputs: 'src/**/*.txt', outputs: 'build/output.txt'"
+    assertEquals(0, execute(specification))
+    assertEquals(1, executionCount())
+    assertEquals(0, execute(specification))
+    assertEquals(1, executionCount())
+    assertTrue(output.contains('Target copyIt is up to date.'))
+    assertTrue(new File(projectDirectory, StateStore.defaultLocation).isFile())
+  }
+  void testChangedInputCausesExecution() {
+    final specification = "name: 'copyIt', inputs: 'src', outputs: 'build'"
+    assertEquals(0, execute(specification))
+    sourceFile.text = 'some more text'
+    assertEquals(0, execute(specification))
+    assertEquals(2, executionCount())
+    assertEquals('some more text', new File(projectDirectory, 'build/output.txt').text)
+  }
+  void testDeletedOutputCausesExecution() {
+    final specification = "name: 'copyIt', inputs: 'src/input.txt', outputs: 'build/output.txt'"
+    assertEquals(0, execute(specification))
+    assertTrue(new File(projectDirectory, 'build/output.txt').delete())
+    assertEquals(0, execute(specification))
+    assertEquals(2, executionCount())
+  }
+  void testChangedPropertyCausesExecution() {
+    assertEquals(0, execute("name: 'copyIt', inputs: [[level: 1], 'src'], outputs: 'build'"))
+    assertEquals(0, execute("name: 'copyIt', inputs: [[level: 1], 'src'], outputs: 'build'"))
+    assertEquals(0, execute("name: 'copyIt', inputs: [[level: 2], 'src'], outputs: 'build'"))
+    assertEquals(2, executionCount())
+  }
+  void testTargetWithoutDeclarationsAlwaysExecutes() {
+    assertEquals(0, execute("name: 'copyIt'"))
+    assertEquals(0, execute("name: 'copyIt'"))
+    assertEquals(2, executionCount())
+  }
+  void testDeclaredDependenciesExecuteEvenWhenUpToDate() {
+    final specification = "name: 'copyIt', inputs: 'src', outputs: 'build', depends: 'prepare'"
+    final addPrepare = { String s -> s + "target(prepare: '') { println('preparing') }\n" }
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = addPrepare(buildScript(specification))
+    assertEquals(0, processCmdLineTargets('copyIt'))
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = addPrepare(buildScript(specification))
+    assertEquals(0, processCmdLineTargets('copyIt'))
+    assertEquals(1, executionCount())
+    assertEquals(2, output.readLines().count { it == 'preparing' })
+  }
+  void testSkippedTargetIsReportedToBuildListeners() {
+    final specification = "name: 'copyIt', inputs: 'src', outputs: 'build'"
+    assertEquals(0, execute(specification))
+    final listener = new DummyBuildListener()
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    gant.addBuildListener(listener)
+    script = buildScript(specification)
+    assertEquals(0, processCmdLineTargets('copyIt'))
+    assertEquals(1, listener.targetStarts.size())
+    assertTrue(listener.targetStarts[0].upToDate)
+  }
+  void testFailedTargetIsNotUpToDate() {
+    final failingScript = """
+ant.project.baseDir = new File('${escapeWindowsPath(projectDirectory.absolutePath)}')
+target(name: 'gen', inputs: 'src', outputs: 'build') {
+  println('executing')
+  mkdir(dir: 'build')
+  1
+}
+"""
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = failingScript
+    assertEquals(1, processCmdLineTargets('gen'))
+    gant = new Gant()
+    gant.buildClassName = 'standard_input'
+    script = failingScript
+    assertEquals(1, processCmdLineTargets('gen'))
+    assertEquals(2, executionCount())
+    assertFalse(output.contains('Target gen is up to date.'))
+  }
+}